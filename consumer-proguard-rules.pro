@@ -0,0 +1,8 @@
+# Rules applied to apps that use this library.
+
+# Generated payload codecs are looked up by the name of the payload class and
+# created through their constructor, once per type.
+-keepnames @com.websocket.client.codec.QSocketEvent class *
+-keep class **_QSocketCodec {
+    public <init>(com.google.gson.Gson);
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a streaming Gson TypeAdapter for every class annotated with
+ * <code>com.websocket.client.codec.QSocketEvent</code>. The generated codec
+ * reads and writes fields directly, so the payload class needs no reflection
+ * and its fields can be renamed by R8 or ProGuard. Fields of types other than
+ * primitives, their boxes and String are read and written with the adapter
+ * the codec's Gson resolves for their type, which is itself a generated codec
+ * when the field type is annotated and the Gson has the library's codec
+ * factory registered. Fields inherited from superclasses are read and written
+ * too, as Gson's reflective binding does.
+ */
+@SupportedAnnotationTypes(QSocketEventProcessor.ANNOTATION)
+public class QSocketEventProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "com.websocket.client.codec.QSocketEvent";
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    private static final String CODEC_SUFFIX = "_QSocketCodec";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (final TypeElement annotation : annotations) {
+            for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@QSocketEvent can only be applied to classes");
+                    continue;
+                }
+                final TypeElement type = (TypeElement) element;
+                final List<Property> properties = properties(type);
+                if (properties != null) {
+                    write(type, properties);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the properties to encode, or null if the class cannot have a
+     *         codec, in which case errors have been reported
+     */
+    private List<Property> properties(final TypeElement type) {
+        boolean valid = true;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            valid = error(type, "@QSocketEvent classes cannot be abstract");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            valid = error(type, "@QSocketEvent classes cannot be generic");
+        }
+        for (Element enclosing = type; enclosing.getKind() != ElementKind.PACKAGE;
+             enclosing = enclosing.getEnclosingElement()) {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                valid = error(type, "@QSocketEvent classes and the classes enclosing them cannot be private");
+            }
+            if (enclosing != type && !enclosing.getKind().isClass() && !enclosing.getKind().isInterface()) {
+                valid = error(type, "@QSocketEvent classes cannot be local or anonymous");
+                break;
+            }
+        }
+        if (type.getEnclosingElement().getKind() != ElementKind.PACKAGE
+                && !type.getModifiers().contains(Modifier.STATIC)) {
+            valid = error(type, "Nested @QSocketEvent classes must be static");
+        }
+        if (!hasNoArgConstructor(type)) {
+            valid = error(type, "@QSocketEvent classes need a constructor without arguments that is not private");
+        }
+
+        // fields are taken from the class and then its superclasses, as Gson takes them
+        final List<TypeElement> hierarchy = hierarchy(type);
+        final List<Property> properties = new ArrayList<Property>();
+        final Set<String> jsonNames = new HashSet<String>();
+        final Set<String> fieldNames = new HashSet<String>();
+        for (int i = 0; i < hierarchy.size(); i++) {
+            final TypeElement declaring = hierarchy.get(i);
+            // accessors are looked for in the class declaring the field and above it
+            final List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+            for (final TypeElement above : hierarchy.subList(i, hierarchy.size())) {
+                methods.addAll(ElementFilter.methodsIn(above.getEnclosedElements()));
+            }
+            for (final VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+                final Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (modifiers.contains(Modifier.FINAL)) {
+                    valid = error(field,
+                            "Fields of @QSocketEvent classes cannot be final, make it transient to skip it");
+                    continue;
+                }
+
+                final TypeMirror fieldType = processingEnv.getTypeUtils()
+                        .asMemberOf((DeclaredType) type.asType(), field);
+                final Property property = new Property(field, fieldType, jsonName(field));
+                if (!jsonNames.add(property.jsonName)) {
+                    valid = error(field, "More than one field of " + type.getSimpleName() + " is named "
+                            + property.jsonName);
+                    continue;
+                }
+                if (!fieldNames.add(field.getSimpleName().toString())) {
+                    // hidden by a field of a subclass, so reached through its own class
+                    property.owner = declaring;
+                    property.adapterName = declaring.getSimpleName() + "_" + field.getSimpleName() + "Adapter";
+                }
+                if (!accessible(field, type)) {
+                    property.getter = getter(field, fieldType, methods, type);
+                    property.setter = setter(field, fieldType, methods, type);
+                    if (property.getter == null || property.setter == null) {
+                        valid = error(field, modifiers.contains(Modifier.PRIVATE)
+                                ? "Private fields of @QSocketEvent classes need a getter and a setter"
+                                : "Fields inherited from another package by " + type.getSimpleName()
+                                + " need to be public or have a getter and a setter");
+                        continue;
+                    }
+                }
+                properties.add(property);
+            }
+        }
+        return valid ? properties : null;
+    }
+
+    private void write(final TypeElement type, final List<Property> properties) {
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String codecName = codecSimpleName(type);
+        final String typeName = type.getQualifiedName().toString();
+
+        final StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import com.google.gson.Gson;\n")
+                .append("import com.google.gson.JsonSyntaxException;\n")
+                .append("import com.google.gson.TypeAdapter;\n")
+                .append("import com.google.gson.reflect.TypeToken;\n")
+                .append("import com.google.gson.stream.JsonReader;\n")
+                .append("import com.google.gson.stream.JsonToken;\n")
+                .append("import com.google.gson.stream.JsonWriter;\n\n")
+                .append("import java.io.IOException;\n\n")
+                .append("/**\n * Generated by QSocketEventProcessor for {@link ").append(typeName)
+                .append("}. Do not edit.\n */\n")
+                .append("public final class ").append(codecName).append(" extends TypeAdapter<").append(typeName)
+                .append("> {\n\n")
+                .append("    private final Gson gson;\n");
+        for (final Property property : properties) {
+            if (property.kind() == null) {
+                source.append("    private TypeAdapter<").append(property.type()).append("> ")
+                        .append(property.adapterName()).append(";\n");
+            }
+        }
+
+        source.append("\n    public ").append(codecName).append("(final Gson gson) {\n")
+                .append("        this.gson = gson;\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public void write(final JsonWriter out, final ").append(typeName)
+                .append(" value) throws IOException {\n")
+                .append("        if (value == null) {\n")
+                .append("            out.nullValue();\n")
+                .append("            return;\n")
+                .append("        }\n")
+                .append("        out.beginObject();\n");
+        for (final Property property : properties) {
+            writeProperty(source, property);
+        }
+        source.append("        out.endObject();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public ").append(typeName).append(" read(final JsonReader in) throws IOException {\n")
+                .append("        if (in.peek() == JsonToken.NULL) {\n")
+                .append("            in.nextNull();\n")
+                .append("            return null;\n")
+                .append("        }\n")
+                .append("        final ").append(typeName).append(" value = new ").append(typeName).append("();\n")
+                .append("        try {\n")
+                .append("            in.beginObject();\n")
+                .append("            while (in.hasNext()) {\n")
+                .append("                switch (in.nextName()) {\n");
+        for (final Property property : properties) {
+            readProperty(source, property);
+        }
+        source.append("                    default:\n")
+                .append("                        in.skipValue();\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("            in.endObject();\n")
+                .append("        }\n")
+                .append("        catch (final NumberFormatException e) {\n")
+                .append("            throw new JsonSyntaxException(e);\n")
+                .append("        }\n")
+                .append("        return value;\n")
+                .append("    }\n");
+
+        for (final Property property : properties) {
+            if (property.kind() == null) {
+                source.append("\n    private TypeAdapter<").append(property.type()).append("> ")
+                        .append(property.adapterName()).append("() {\n")
+                        .append("        if (").append(property.adapterName()).append(" == null) {\n")
+                        .append("            ").append(property.adapterName()).append(" = gson.getAdapter(")
+                        .append(typeToken(property.type)).append(");\n")
+                        .append("        }\n")
+                        .append("        return ").append(property.adapterName()).append(";\n")
+                        .append("    }\n");
+            }
+        }
+        source.append("}\n");
+
+        final String qualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            final Writer writer = file.openWriter();
+            try {
+                writer.write(source.toString());
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (final IOException e) {
+            error(type, "Could not write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeProperty(final StringBuilder source, final Property property) {
+        final String value = property.get();
+        final Kind kind = property.kind();
+        source.append("        out.name(\"").append(escape(property.jsonName)).append("\");\n");
+        if (kind == null) {
+            source.append("        ").append(property.adapterName()).append("().write(out, ").append(value).append(");\n");
+            return;
+        }
+        switch (kind) {
+            case BOOLEAN:
+            case LONG:
+            case DOUBLE:
+                source.append("        out.value(").append(value).append(");\n");
+                break;
+            case INT:
+            case SHORT:
+            case BYTE:
+                source.append("        out.value((long) ").append(value).append(");\n");
+                break;
+            case FLOAT:
+                source.append("        out.value(Float.valueOf(").append(value).append("));\n");
+                break;
+            case CHAR:
+                source.append("        out.value(String.valueOf(").append(value).append("));\n");
+                break;
+            case BOXED_BOOLEAN:
+                source.append("        if (").append(value).append(" == null) {\n")
+                        .append("            out.nullValue();\n")
+                        .append("        }\n")
+                        .append("        else {\n")
+                        .append("            out.value(").append(value).append(".booleanValue());\n")
+                        .append("        }\n");
+                break;
+            default:
+                // boxed numbers and String have their own nullable overloads
+                source.append("        out.value(").append(value).append(");\n");
+                break;
+        }
+    }
+
+    private static void readProperty(final StringBuilder source, final Property property) {
+        final Kind kind = property.kind();
+        source.append("                    case \"").append(escape(property.jsonName)).append("\":\n");
+        final String indent = "                        ";
+        if (kind == null) {
+            source.append(indent).append(property.set(property.adapterName() + "().read(in)")).append(";\n")
+                    .append(indent).append("break;\n");
+            return;
+        }
+
+        // JSON null leaves primitives at their default value, as Gson does
+        source.append(indent).append("if (in.peek() == JsonToken.NULL) {\n")
+                .append(indent).append("    in.nextNull();\n");
+        if (!kind.primitive) {
+            source.append(indent).append("    ").append(property.set("null")).append(";\n");
+        }
+        source.append(indent).append("}\n");
+        if (kind == Kind.CHAR) {
+            source.append(indent).append("else {\n")
+                    .append(indent).append("    final String c = in.nextString();\n")
+                    .append(indent).append("    if (c.length() != 1) {\n")
+                    .append(indent).append("        throw new JsonSyntaxException(\"Expecting character, got: \" + c);\n")
+                    .append(indent).append("    }\n")
+                    .append(indent).append("    ").append(property.set("c.charAt(0)")).append(";\n")
+                    .append(indent).append("}\n");
+        }
+        else {
+            source.append(indent).append("else {\n")
+                    .append(indent).append("    ").append(property.set(kind.read)).append(";\n")
+                    .append(indent).append("}\n");
+        }
+        source.append(indent).append("break;\n");
+    }
+
+    /**
+     * Plain classes use TypeToken.get, anything with type arguments an
+     * anonymous TypeToken so that the arguments are kept.
+     */
+    private static String typeToken(final TypeMirror type) {
+        if (type.getKind() == TypeKind.DECLARED && type.toString().indexOf('<') < 0) {
+            return "TypeToken.get(" + type + ".class)";
+        }
+        return "new TypeToken<" + type + ">() {}";
+    }
+
+    /**
+     * @return the class followed by its superclasses, up to but not
+     *         including Object
+     */
+    private static List<TypeElement> hierarchy(final TypeElement type) {
+        final List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        for (TypeElement current = type; current != null
+                && !current.getQualifiedName().contentEquals("java.lang.Object"); current = superclass(current)) {
+            hierarchy.add(current);
+        }
+        return hierarchy;
+    }
+
+    private static TypeElement superclass(final TypeElement type) {
+        final TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    private boolean hasNoArgConstructor(final TypeElement type) {
+        for (final ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String jsonName(final VariableElement field) {
+        for (final AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            if (!annotation.getAnnotationType().toString().equals(SERIALIZED_NAME)) {
+                continue;
+            }
+            for (final ExecutableElement member : annotation.getElementValues().keySet()) {
+                if (member.getSimpleName().contentEquals("value")) {
+                    final AnnotationValue value = annotation.getElementValues().get(member);
+                    return (String) value.getValue();
+                }
+            }
+        }
+        return field.getSimpleName().toString();
+    }
+
+    private ExecutableElement getter(final VariableElement field, final TypeMirror fieldType,
+                                     final List<ExecutableElement> methods, final TypeElement type) {
+        final String capitalized = capitalize(field.getSimpleName().toString());
+        for (final ExecutableElement method : methods) {
+            final String name = method.getSimpleName().toString();
+            final boolean named = name.equals("get" + capitalized)
+                    || (fieldType.getKind() == TypeKind.BOOLEAN && name.equals("is" + capitalized));
+            if (named && method.getParameters().isEmpty() && !method.getModifiers().contains(Modifier.STATIC)
+                    && accessible(method, type) && processingEnv.getTypeUtils().isSameType(
+                    memberType(method, type).getReturnType(), fieldType)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private ExecutableElement setter(final VariableElement field, final TypeMirror fieldType,
+                                     final List<ExecutableElement> methods, final TypeElement type) {
+        final String name = "set" + capitalize(field.getSimpleName().toString());
+        for (final ExecutableElement method : methods) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == 1
+                    && !method.getModifiers().contains(Modifier.STATIC) && accessible(method, type)
+                    && processingEnv.getTypeUtils().isSameType(
+                    memberType(method, type).getParameterTypes().get(0), fieldType)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the method's type with the type arguments the class gives its
+     *         superclasses filled in
+     */
+    private ExecutableType memberType(final ExecutableElement method, final TypeElement type) {
+        return (ExecutableType) processingEnv.getTypeUtils().asMemberOf((DeclaredType) type.asType(), method);
+    }
+
+    /**
+     * @return true if the codec, which is generated into the package of the
+     *         annotated class, can use the member of the class or one of its
+     *         superclasses directly
+     */
+    private boolean accessible(final Element member, final TypeElement type) {
+        final Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        final Elements elements = processingEnv.getElementUtils();
+        final Element declaring = member.getEnclosingElement();
+        if (elements.getPackageOf(declaring).equals(elements.getPackageOf(type))) {
+            return true;
+        }
+        return modifiers.contains(Modifier.PUBLIC) && declaring.getModifiers().contains(Modifier.PUBLIC);
+    }
+
+    private static String codecSimpleName(final TypeElement type) {
+        String name = type.getSimpleName().toString();
+        for (Element enclosing = type.getEnclosingElement(); !(enclosing instanceof PackageElement);
+             enclosing = enclosing.getEnclosingElement()) {
+            name = enclosing.getSimpleName() + "_" + name;
+        }
+        return name + CODEC_SUFFIX;
+    }
+
+    private static String capitalize(final String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String escape(final String name) {
+        return name.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private boolean error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+
+    /**
+     * Field types the generated code reads and writes itself, with the
+     * JsonReader call that reads them.
+     */
+    private enum Kind {
+        BOOLEAN(true, "in.nextBoolean()"),
+        INT(true, "in.nextInt()"),
+        LONG(true, "in.nextLong()"),
+        DOUBLE(true, "in.nextDouble()"),
+        FLOAT(true, "(float) in.nextDouble()"),
+        SHORT(true, "(short) in.nextInt()"),
+        BYTE(true, "(byte) in.nextInt()"),
+        CHAR(true, null),
+        BOXED_BOOLEAN(false, "Boolean.valueOf(in.nextBoolean())"),
+        BOXED_INT(false, "Integer.valueOf(in.nextInt())"),
+        BOXED_LONG(false, "Long.valueOf(in.nextLong())"),
+        BOXED_DOUBLE(false, "Double.valueOf(in.nextDouble())"),
+        BOXED_FLOAT(false, "Float.valueOf((float) in.nextDouble())"),
+        STRING(false, "in.nextString()");
+
+        final boolean primitive;
+        final String read;
+
+        Kind(final boolean primitive, final String read) {
+            this.primitive = primitive;
+            this.read = read;
+        }
+
+        /**
+         * @return the kind of the given type, or null if it is read and
+         *         written with an adapter
+         */
+        static Kind of(final TypeMirror type) {
+            switch (type.getKind()) {
+                case BOOLEAN:
+                    return BOOLEAN;
+                case INT:
+                    return INT;
+                case LONG:
+                    return LONG;
+                case DOUBLE:
+                    return DOUBLE;
+                case FLOAT:
+                    return FLOAT;
+                case SHORT:
+                    return SHORT;
+                case BYTE:
+                    return BYTE;
+                case CHAR:
+                    return CHAR;
+                case DECLARED:
+                    final String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName()
+                            .toString();
+                    if (name.equals("java.lang.Boolean")) {
+                        return BOXED_BOOLEAN;
+                    }
+                    if (name.equals("java.lang.Integer")) {
+                        return BOXED_INT;
+                    }
+                    if (name.equals("java.lang.Long")) {
+                        return BOXED_LONG;
+                    }
+                    if (name.equals("java.lang.Double")) {
+                        return BOXED_DOUBLE;
+                    }
+                    if (name.equals("java.lang.Float")) {
+                        return BOXED_FLOAT;
+                    }
+                    if (name.equals("java.lang.String")) {
+                        return STRING;
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static class Property {
+        final VariableElement field;
+        // the field's type as a member of the annotated class
+        final TypeMirror type;
+        final String jsonName;
+        String adapterName;
+        // both null when the field is read and written directly
+        ExecutableElement getter;
+        ExecutableElement setter;
+        // the superclass to reach a hidden field through, null for any other field
+        TypeElement owner;
+
+        Property(final VariableElement field, final TypeMirror type, final String jsonName) {
+            this.field = field;
+            this.type = type;
+            this.jsonName = jsonName;
+            adapterName = field.getSimpleName() + "Adapter";
+        }
+
+        Kind kind() {
+            return Kind.of(type);
+        }
+
+        String type() {
+            return type.toString();
+        }
+
+        String adapterName() {
+            return adapterName;
+        }
+
+        String get() {
+            return value() + "." + (getter == null ? field.getSimpleName().toString() : getter.getSimpleName() + "()");
+        }
+
+        String set(final String expression) {
+            if (setter == null) {
+                return value() + "." + field.getSimpleName() + " = " + expression;
+            }
+            return value() + "." + setter.getSimpleName() + "(" + expression + ")";
+        }
+
+        private String value() {
+            return owner == null ? "value" : "((" + owner.getQualifiedName() + ") value)";
+        }
+    }
+}
@@ -19,17 +19,35 @@ import android.content.Context;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 
+import com.google.gson.reflect.TypeToken;
 import com.websocket.client.channel.Channel;
 import com.websocket.client.channel.ChannelEventListener;
+import com.websocket.client.channel.ChannelGroup;
+import com.websocket.client.channel.ChannelGroupEventListener;
 import com.websocket.client.channel.ChannelUnsubscriptionEventListener;
+import com.websocket.client.channel.EventFilter;
+import com.websocket.client.channel.PresenceChannel;
+import com.websocket.client.channel.PresenceChannelEventListener;
+import com.websocket.client.channel.TypedEventListener;
+import com.websocket.client.channel.impl.ChannelGroupImpl;
 import com.websocket.client.channel.impl.ChannelManager;
 import com.websocket.client.channel.impl.InternalChannel;
+import com.websocket.client.channel.impl.PresenceChannelImpl;
 import com.websocket.client.connection.Connection;
 import com.websocket.client.connection.ConnectionEventListener;
 import com.websocket.client.connection.ConnectionState;
+import com.websocket.client.connection.RateLimitPolicy;
+import com.websocket.client.connection.ResponseFuture;
 import com.websocket.client.connection.impl.InternalConnection;
 import com.websocket.client.util.ConnectivityChangeReceiver;
 import com.websocket.client.util.Factory;
+import com.websocket.client.util.InboundBudget;
+import com.websocket.client.util.LatencyTracer;
+import com.websocket.client.util.MessageDeduplicator;
+import com.websocket.client.util.RateLimiter;
+import com.websocket.client.util.SheddingPolicy;
+
+import java.util.Collection;
 
 /**
  * This class is the main entry point for accessing QSocket.
@@ -88,6 +106,7 @@ public class QSocket implements Client, ConnectivityChangeReceiver.ConnectivityC
         connection = factory.getConnection(this.QSocketOptions);
         channelManager = factory.getChannelManager();
         channelManager.setConnection(connection);
+        channelManager.setSubscribeTimeout(QSocketOptions.getSubscribeTimeout(), QSocketOptions.getSubscribeRetries());
         this.context = context;
     }
 
@@ -173,6 +192,75 @@ public class QSocket implements Client, ConnectivityChangeReceiver.ConnectivityC
         }
     }
 
+    /* Messaging methods */
+
+    /**
+     * Sends a JSON object to QSocket with a correlation id attached, and waits
+     * for the server to acknowledge it for up to
+     * {@link QSocketOptions#setResponseTimeout(long)} milliseconds.
+     *
+     * @param message A JSON object, e.g. <code>{"command":"publish","channel":"my-channel"}</code>
+     * @return A {@link ResponseFuture} that completes with the acknowledgement,
+     *         or fails if the message cannot be sent, is rejected by the
+     *         server, or is not acknowledged in time.
+     * @throws IllegalArgumentException If the message is not a JSON object, or
+     *                                  already has a correlationId field.
+     */
+    public ResponseFuture send(final String message) {
+        return send(message, QSocketOptions.getResponseTimeout());
+    }
+
+    /**
+     * Sends a JSON object to QSocket with a correlation id attached, and waits
+     * for the server to acknowledge it.
+     *
+     * @param message       A JSON object.
+     * @param timeoutMillis How long to wait for the acknowledgement.
+     * @return A {@link ResponseFuture} that completes with the acknowledgement.
+     * @throws IllegalArgumentException If the message is not a JSON object,
+     *                                  already has a correlationId field, or
+     *                                  the timeout is not positive.
+     */
+    public ResponseFuture send(final String message, final long timeoutMillis) {
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("Timeout must be at least 1ms");
+        }
+        return connection.sendWithResponse(message, timeoutMillis);
+    }
+
+    /**
+     * Calls a method on the server over the open socket instead of a separate
+     * HTTP request, waiting for up to
+     * {@link QSocketOptions#setResponseTimeout(long)} milliseconds.
+     *
+     * @param method  The name of the remote method.
+     * @param payload The request payload, serialised with Gson. Pass a
+     *                {@link com.google.gson.JsonElement} to send JSON you have
+     *                already built. Can be null.
+     * @return A {@link ResponseFuture} that completes with the whole response
+     *         message, or fails if the request is rejected or times out.
+     */
+    public ResponseFuture request(final String method, final Object payload) {
+        return request(method, payload, QSocketOptions.getResponseTimeout());
+    }
+
+    /**
+     * Calls a method on the server over the open socket.
+     *
+     * @param method        The name of the remote method.
+     * @param payload       The request payload, serialised with Gson. Can be null.
+     * @param timeoutMillis How long to wait for the response.
+     * @return A {@link ResponseFuture} that completes with the whole response message.
+     * @throws IllegalArgumentException If the method is null or the timeout is
+     *                                  not positive.
+     */
+    public ResponseFuture request(final String method, final Object payload, final long timeoutMillis) {
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("Timeout must be at least 1ms");
+        }
+        return connection.request(method, payload, timeoutMillis);
+    }
+
     /* Subscription methods */
 
     /**
@@ -221,6 +309,152 @@ public class QSocket implements Client, ConnectivityChangeReceiver.ConnectivityC
     }
 
 
+    /**
+     * Subscribes to a public {@link Channel}, receiving only the events that
+     * match a filter. The filter is sent to the server with the subscribe
+     * request and is also applied on the client, so events the server does
+     * not filter out are dropped before they reach the listener.
+     *
+     * @param channelName The name of the {@link Channel} to subscribe to.
+     * @param listener    A {@link ChannelEventListener} to receive events.
+     * @param filter      The events to receive.
+     * @return The {@link Channel} object representing your subscription.
+     */
+    public Channel subscribe(final String channelName, final ChannelEventListener listener, final EventFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("Cannot subscribe with a null filter");
+        }
+
+        final InternalChannel channel = factory.newPublicChannel(channelName);
+        channel.setFilter(filter);
+        channelManager.subscribeTo(channel, listener);
+
+        return channel;
+    }
+
+    /**
+     * Subscribes to a public {@link Channel} and asks the server to send the
+     * channel's current state with the subscription acknowledgement, so no
+     * separate snapshot request is needed. The listener receives it as a
+     * {@link com.websocket.client.util.Constants#SNAPSHOT_EVENT} event before
+     * any other event. Events that arrive while the snapshot is in flight are
+     * held back and then delivered in order of their sequence field, without
+     * those the snapshot already covers. This is repeated on every
+     * resubscribe, for example after reconnecting.
+     *
+     * @param channelName The name of the {@link Channel} to subscribe to.
+     * @param listener    A {@link ChannelEventListener} to receive the snapshot
+     *                    and events.
+     * @param eventNames  An optional list of event names to bind the listener to.
+     * @return The {@link Channel} object representing your subscription.
+     */
+    public Channel subscribeWithSnapshot(final String channelName, final ChannelEventListener listener,
+                                         final String... eventNames) {
+        final InternalChannel channel = factory.newPublicChannel(channelName);
+        channel.setSnapshotOnSubscribe(true);
+        channelManager.subscribeTo(channel, listener, eventNames);
+
+        return channel;
+    }
+
+    /**
+     * Subscribes to a set of public channels in one call. The subscribe
+     * requests are sent together in batched messages, and the group listener
+     * hears once when every channel has been acknowledged, or when every
+     * channel has either been acknowledged or failed. Either all of the
+     * channels are subscribed or, if any is already subscribed, none are.
+     *
+     * @param channelNames  The names of the channels to subscribe to.
+     * @param listener      A {@link ChannelEventListener} to receive the events
+     *                      of every channel in the group. Can be null.
+     * @param groupListener A {@link ChannelGroupEventListener} to hear when the
+     *                      group is subscribed. Can be null.
+     * @return The {@link ChannelGroup} representing the subscriptions.
+     * @throws IllegalArgumentException If there are no channel names, a name is
+     *                                  null or given twice, or a channel with
+     *                                  one of the names is already subscribed.
+     */
+    public ChannelGroup subscribeGroup(final Collection<String> channelNames, final ChannelEventListener listener,
+                                       final ChannelGroupEventListener groupListener) {
+        final ChannelGroupImpl group = factory.newChannelGroup(channelNames, groupListener);
+        channelManager.subscribeGroup(group, listener);
+
+        return group;
+    }
+
+    /**
+     * Unsubscribes from every channel of a group at once, with batched
+     * unsubscribe messages. Channels of the group that were unsubscribed on
+     * their own are skipped.
+     *
+     * @param group The group returned by {@link #subscribeGroup(Collection, ChannelEventListener, ChannelGroupEventListener)}.
+     */
+    public void unsubscribeGroup(final ChannelGroup group) {
+        if (!(group instanceof ChannelGroupImpl)) {
+            throw new IllegalArgumentException("Cannot unsubscribe from a group that was not subscribed with subscribeGroup");
+        }
+        channelManager.unsubscribeGroup((ChannelGroupImpl) group);
+    }
+
+    /**
+     * Subscribes to a {@link PresenceChannel}, which keeps track of who is in
+     * the channel. The server sends the ids of all members with the
+     * subscription acknowledgement and then only the members that join or
+     * leave, which the channel applies to a compact set of ids.
+     *
+     * @param channelName The name of the {@link PresenceChannel} to subscribe to.
+     * @param listener    A {@link PresenceChannelEventListener} to receive member
+     *                    changes and events. Can be null.
+     * @param eventNames  An optional list of event names to bind the listener to.
+     * @return The {@link PresenceChannel} object representing your subscription.
+     */
+    public PresenceChannel subscribePresence(final String channelName, final PresenceChannelEventListener listener,
+                                             final String... eventNames) {
+        final PresenceChannelImpl channel = factory.newPresenceChannel(channelName);
+        channelManager.subscribeTo(channel, listener, eventNames);
+
+        return channel;
+    }
+
+    /**
+     * Subscribes to a public {@link Channel} with a listener that receives the
+     * data of each event decoded to the given class. The data is decoded once,
+     * straight from the received message, with a Gson TypeAdapter that is
+     * looked up once per type.
+     *
+     * @param channelName The name of the {@link Channel} to subscribe to.
+     * @param type        The class to decode the data of each event to.
+     * @param listener    A {@link TypedEventListener} to receive events.
+     * @param eventNames  The events to bind the listener to.
+     * @return The {@link Channel} object representing your subscription.
+     */
+    public <T> Channel subscribe(final String channelName, final Class<T> type, final TypedEventListener<T> listener,
+                                 final String... eventNames) {
+        if (type == null) {
+            throw new IllegalArgumentException("Cannot subscribe with a null type");
+        }
+        return subscribe(channelName, TypeToken.get(type), listener, eventNames);
+    }
+
+    /**
+     * Subscribes to a public {@link Channel} with a listener that receives the
+     * data of each event decoded to the given type, which can be generic, for
+     * example <code>new TypeToken&lt;List&lt;Trade&gt;&gt;() {}</code>.
+     *
+     * @param channelName The name of the {@link Channel} to subscribe to.
+     * @param type        The type to decode the data of each event to.
+     * @param listener    A {@link TypedEventListener} to receive events.
+     * @param eventNames  The events to bind the listener to.
+     * @return The {@link Channel} object representing your subscription.
+     */
+    public <T> Channel subscribe(final String channelName, final TypeToken<T> type,
+                                 final TypedEventListener<T> listener, final String... eventNames) {
+        if (type == null) {
+            throw new IllegalArgumentException("Cannot subscribe with a null type");
+        }
+        return subscribe(channelName, factory.newTypedListenerAdapter(type, listener), eventNames);
+    }
+
     /**
      * Unsubscribes from a channel using via the name of the channel.
      *
@@ -251,6 +485,70 @@ public class QSocket implements Client, ConnectivityChangeReceiver.ConnectivityC
         return channelManager.getChannel(channelName);
     }
 
+    /**
+     * @param channelName The name of the presence channel to be retrieved
+     * @return A presence channel, or null if it could not be found or is not
+     *         a presence channel
+     */
+    public PresenceChannel getPresenceChannel(final String channelName) {
+        final Channel channel = channelManager.getChannel(channelName);
+        return channel instanceof PresenceChannel ? (PresenceChannel) channel : null;
+    }
+
+    /**
+     * Gets the per message latency breakdown collected when tracing has been
+     * enabled with {@link QSocketOptions#setLatencyTraceSampleRate(int)}.
+     *
+     * @return The {@link LatencyTracer} used by this instance.
+     */
+    public LatencyTracer getLatencyTracer() {
+        return factory.getLatencyTracer();
+    }
+
+    /**
+     * Gets the idle time after which the connection is checked with a ping.
+     * With {@link QSocketOptions#setAdaptiveHeartbeat(long)} this is the
+     * interval learned so far, otherwise it is the activity timeout.
+     *
+     * @return The heartbeat interval in milliseconds.
+     */
+    public long getHeartbeatInterval() {
+        return connection.getHeartbeatInterval();
+    }
+
+    /**
+     * Gets the deduplicator enabled with
+     * {@link QSocketOptions#setDeduplication(String, long, int)}, whose
+     * counters report how many messages were dropped.
+     *
+     * @return The deduplicator, or null if deduplication is disabled.
+     */
+    public MessageDeduplicator getMessageDeduplicator() {
+        return factory.getMessageDeduplicator();
+    }
+
+    /**
+     * Gets the outbound rate limiter set up with
+     * {@link QSocketOptions#setRateLimit(double, long, RateLimitPolicy)},
+     * which reports the tokens available and how long messages waited.
+     *
+     * @return The rate limiter, or null if outbound traffic is not limited.
+     */
+    public RateLimiter getRateLimiter() {
+        return factory.getRateLimiter();
+    }
+
+    /**
+     * Gets the budget set with
+     * {@link QSocketOptions#setInboundBudget(long, SheddingPolicy)}, which
+     * reports how much received data is waiting to be processed.
+     *
+     * @return The inbound budget, or null if there is none.
+     */
+    public InboundBudget getInboundBudget() {
+        return factory.getInboundBudget();
+    }
+
     /**
      * callback for network connectivity availability
      */
@@ -15,8 +15,23 @@
  */
 package com.websocket.client;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.websocket.client.codec.PayloadCodecs;
+import com.websocket.client.connection.RateLimitPolicy;
+import com.websocket.client.util.DispatchMode;
+import com.websocket.client.util.SheddingPolicy;
+
 import java.net.Proxy;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Configuration for a {@link com.websocket.client.QSocket} instance.
@@ -33,6 +48,13 @@ public class QSocketOptions {
 
     private static final long DEFAULT_ACTIVITY_TIMEOUT = 120000;
     private static final long DEFAULT_PONG_TIMEOUT = 30000;
+    private static final long DEFAULT_RESPONSE_TIMEOUT = 10000;
+    private static final int DEFAULT_INBOUND_QUEUE_CAPACITY = 1024;
+    private static final long DEFAULT_SUBSCRIBE_TIMEOUT = 10000;
+    private static final int DEFAULT_SUBSCRIBE_RETRIES = 3;
+    private static final long DEFAULT_DNS_CACHE_TTL = 60000;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final long DEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
     private static final String AUTHORIZATION = "Authorization";
 
     private String host = "10.3.1.181";
@@ -41,8 +63,33 @@ public class QSocketOptions {
     private boolean encrypted = false;//true;
     private long activityTimeout = DEFAULT_ACTIVITY_TIMEOUT;
     private long pongTimeout = DEFAULT_PONG_TIMEOUT;
+    private long maxActivityTimeout = 0;
+    private long responseTimeout = DEFAULT_RESPONSE_TIMEOUT;
     private Proxy proxy = Proxy.NO_PROXY;
     private String authorizationToken = "1234567890";
+    private int latencyTraceSampleRate = 0;
+    private DispatchMode dispatchMode = DispatchMode.SINGLE_THREAD;
+    private Executor dispatchExecutor;
+    private int inboundQueueCapacity = DEFAULT_INBOUND_QUEUE_CAPACITY;
+    private long subscribeTimeout = DEFAULT_SUBSCRIBE_TIMEOUT;
+    private int subscribeRetries = DEFAULT_SUBSCRIBE_RETRIES;
+    private KeyStore trustStore;
+    private List<String> fallbackHosts = Collections.emptyList();
+    private long dnsCacheTtl = DEFAULT_DNS_CACHE_TTL;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long connectionAttemptDelay = DEFAULT_CONNECTION_ATTEMPT_DELAY;
+    private String messageIdField;
+    private long deduplicationWindow;
+    private int deduplicationCapacity;
+    private boolean dropUnconfirmedDuplicates = false;
+    private double messagesPerSecond;
+    private long bytesPerSecond;
+    private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.QUEUE;
+    private int streamingThreshold;
+    private long inboundBudget;
+    private SheddingPolicy sheddingPolicy = SheddingPolicy.PAUSE_READS;
+    private Set<String> lowPriorityChannels = Collections.emptySet();
+    private Gson gson = new GsonBuilder().registerTypeAdapterFactory(PayloadCodecs.FACTORY).create();
 
     /**
      * Gets whether an encrypted (SSL) connection should be used when connecting
@@ -111,6 +158,29 @@ public class QSocketOptions {
         return this;
     }
 
+    /**
+     * Several hosts to which connections can be made. The first is used
+     * until the client has measured them. After that, connections go to the
+     * host with the lowest handshake or ping round trip time. If connecting
+     * fails, the next host is tried straight away.
+     *
+     * Each host may carry its own port, as in "host:port", otherwise the
+     * ws or wss port is used. IPv6 literals must be enclosed in brackets.
+     *
+     * @param hosts The hosts, in order of preference
+     * @return this, for chaining
+     */
+    public QSocketOptions setHosts(final String... hosts) {
+        if (hosts == null || hosts.length == 0) {
+            throw new IllegalArgumentException("At least one host is required");
+        }
+
+        this.host = hosts[0];
+        this.fallbackHosts = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(hosts)
+                .subList(1, hosts.length)));
+        return this;
+    }
+
     public QSocketOptions setCluster(final String cluster) {
         host = "ws-" + cluster + "." + QSOCKET_DOMAIN;
         wsPort = WS_PORT;
@@ -149,6 +219,8 @@ public class QSocketOptions {
      * The number of milliseconds after a "ping" is sent that the client will
      * wait to receive a "pong" response from the server before considering the
      * connection broken and triggering a transition to the disconnected state.
+     * While reads are paused to push back on the server the pong may be held
+     * back with them, so the timeout is extended until reads resume.
      *
      * The default value is 30,000.
      *
@@ -170,6 +242,61 @@ public class QSocketOptions {
         return pongTimeout;
     }
 
+    /**
+     * Lets the interval between pings adapt to the network. Starting from the
+     * activity timeout, the idle time before a ping is lengthened every time
+     * a ping is answered, up to maxActivityTimeout. When the connection is
+     * lost while a ping is outstanding, the interval falls back to the
+     * longest one known to be safe. Messages sent count as activity, just
+     * like messages received. The interval learned so far is available from
+     * {@link com.websocket.client.QSocket#getHeartbeatInterval()}.
+     *
+     * Adaptive heartbeats are disabled by default. A maximum below the
+     * activity timeout in effect when the connection is created is raised to
+     * it, so the interval stays at the activity timeout.
+     *
+     * @param maxActivityTimeout
+     *            the longest idle time to probe, in milliseconds, 0 disables adaptation
+     * @return this, for chaining
+     */
+    public QSocketOptions setAdaptiveHeartbeat(final long maxActivityTimeout) {
+        if (maxActivityTimeout < 0) {
+            throw new IllegalArgumentException("Maximum activity timeout must not be negative, or 0 to disable");
+        }
+
+        this.maxActivityTimeout = maxActivityTimeout;
+        return this;
+    }
+
+    public long getMaxActivityTimeout() {
+        return maxActivityTimeout;
+    }
+
+    /**
+     * The number of milliseconds to wait for the server to acknowledge a
+     * message sent with {@link com.websocket.client.QSocket#send(String)}, or
+     * to respond to {@link com.websocket.client.QSocket#request(String, Object)},
+     * before it is failed with a {@link java.util.concurrent.TimeoutException}.
+     *
+     * The default value is 10,000.
+     *
+     * @param responseTimeout
+     *            time to wait for an acknowledgement, in milliseconds
+     * @return this, for chaining
+     */
+    public QSocketOptions setResponseTimeout(final long responseTimeout) {
+        if (responseTimeout < 1) {
+            throw new IllegalArgumentException("Response timeout must be at least 1ms");
+        }
+
+        this.responseTimeout = responseTimeout;
+        return this;
+    }
+
+    public long getResponseTimeout() {
+        return responseTimeout;
+    }
+
     /**
      * Construct the URL for the WebSocket connection based on the options
      * previous set on this object and the provided API key
@@ -180,11 +307,40 @@ public class QSocketOptions {
     public String buildUrl() {
 //        return String.format("%s://%s:%s/app/%s%s", encrypted ? WSS_SCHEME : WS_SCHEME, host, encrypted ? wssPort
 //                : wsPort, apiKey, URI_SUFFIX);
-        return String.format("%s://%s:%s", encrypted ? WSS_SCHEME : WS_SCHEME, host, encrypted ? wssPort
-                : wsPort);
+        return buildUrl(host);
 //        return "ws://10.3.1.181:4444";
     }
 
+    /**
+     * @return the WebSocket URL of every host set with
+     *         {@link #setHosts(String...)}, or just {@link #buildUrl()}
+     */
+    public List<String> buildUrls() {
+        final List<String> urls = new ArrayList<String>();
+        urls.add(buildUrl());
+        for (final String fallbackHost : fallbackHosts) {
+            urls.add(buildUrl(fallbackHost));
+        }
+        return urls;
+    }
+
+    private String buildUrl(final String host) {
+        final String scheme = encrypted ? WSS_SCHEME : WS_SCHEME;
+        if (hasPort(host)) {
+            return String.format("%s://%s", scheme, host);
+        }
+        return String.format("%s://%s:%s", scheme, host, encrypted ? wssPort : wsPort);
+    }
+
+    private static boolean hasPort(final String host) {
+        final int colon = host.lastIndexOf(':');
+        if (colon < 0 || colon < host.lastIndexOf(']')) {
+            return false;
+        }
+        // an unbracketed IPv6 literal has several colons and no port
+        return host.startsWith("[") || host.indexOf(':') == colon;
+    }
+
     /**
      *
      * The default value is Proxy.NO_PROXY.
@@ -217,6 +373,477 @@ public class QSocketOptions {
         return this;
     }
 
+    /**
+     * Enables per message latency tracing. One in every sampleRate inbound
+     * messages is timed from the socket read to the return of its listener and
+     * the stage breakdown is available from
+     * {@link com.websocket.client.QSocket#getLatencyTracer()}.
+     *
+     * The default value is 0, which disables tracing.
+     *
+     * @param sampleRate
+     *            trace one in every sampleRate messages, 1 traces every message
+     * @return this, for chaining
+     */
+    public QSocketOptions setLatencyTraceSampleRate(final int sampleRate) {
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("Latency trace sample rate cannot be negative");
+        }
+
+        this.latencyTraceSampleRate = sampleRate;
+        return this;
+    }
+
+    public int getLatencyTraceSampleRate() {
+        return latencyTraceSampleRate;
+    }
+
+    /**
+     * Selects how channel events are delivered to listeners.
+     *
+     * The default value is {@link DispatchMode#SINGLE_THREAD}. To use
+     * {@link DispatchMode#EXECUTOR} call
+     * {@link #setDispatchExecutor(Executor)} instead.
+     *
+     * @param dispatchMode
+     *            the dispatch mode
+     * @return this, for chaining
+     */
+    public QSocketOptions setDispatchMode(final DispatchMode dispatchMode) {
+        if (dispatchMode == null) {
+            throw new IllegalArgumentException("dispatchMode must not be null");
+        }
+        if (dispatchMode == DispatchMode.EXECUTOR && dispatchExecutor == null) {
+            throw new IllegalArgumentException("Use setDispatchExecutor to deliver events on your own executor");
+        }
+
+        this.dispatchMode = dispatchMode;
+        return this;
+    }
+
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * Delivers channel events on the given executor. Events for a single
+     * channel are still delivered one at a time and in order, events for
+     * different channels may run concurrently.
+     *
+     * @param executor
+     *            the executor to run listener callbacks on
+     * @return this, for chaining
+     */
+    public QSocketOptions setDispatchExecutor(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+
+        this.dispatchExecutor = executor;
+        this.dispatchMode = DispatchMode.EXECUTOR;
+        return this;
+    }
+
+    public Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * The number of received messages that can wait to be routed
+     * before reading from the socket is paused. Slots are allocated up front
+     * and reused, and the value is rounded up to a power of two.
+     *
+     * The default value is 1,024.
+     *
+     * @param capacity
+     *            the number of messages to queue
+     * @return this, for chaining
+     */
+    public QSocketOptions setInboundQueueCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Inbound queue capacity must be at least 1");
+        }
+
+        this.inboundQueueCapacity = capacity;
+        return this;
+    }
+
+    public int getInboundQueueCapacity() {
+        return inboundQueueCapacity;
+    }
+
+    /**
+     * The number of milliseconds to wait for the server to acknowledge a
+     * subscribe request before it is sent again. The wait doubles with every
+     * retry.
+     *
+     * The default value is 10,000.
+     *
+     * @param subscribeTimeout
+     *            time to wait for the first acknowledgement, in milliseconds
+     * @return this, for chaining
+     */
+    public QSocketOptions setSubscribeTimeout(final long subscribeTimeout) {
+        if (subscribeTimeout < 1) {
+            throw new IllegalArgumentException("Subscribe timeout must be at least 1ms");
+        }
+
+        this.subscribeTimeout = subscribeTimeout;
+        return this;
+    }
+
+    public long getSubscribeTimeout() {
+        return subscribeTimeout;
+    }
+
+    /**
+     * The number of times an unacknowledged subscribe request is resent
+     * before the channel moves to
+     * {@link com.websocket.client.channel.ChannelState#FAILED} and
+     * {@link com.websocket.client.channel.SubscriptionFailureEventListener#onSubscriptionFailed(String, Exception)}
+     * is called.
+     *
+     * The default value is 3.
+     *
+     * @param subscribeRetries
+     *            the number of retries, 0 fails on the first timeout
+     * @return this, for chaining
+     */
+    public QSocketOptions setSubscribeRetries(final int subscribeRetries) {
+        if (subscribeRetries < 0) {
+            throw new IllegalArgumentException("Subscribe retries cannot be negative");
+        }
+
+        this.subscribeRetries = subscribeRetries;
+        return this;
+    }
+
+    public int getSubscribeRetries() {
+        return subscribeRetries;
+    }
+
+    /**
+     * Trusts the certificates in the given key store, rather than the
+     * platform's default trust store, when connecting over TLS. Use this to
+     * connect to a server with a self-signed or privately issued certificate.
+     *
+     * @param trustStore
+     *            the trusted certificates, or null to use the default
+     * @return this, for chaining
+     */
+    public QSocketOptions setTrustStore(final KeyStore trustStore) {
+        this.trustStore = trustStore;
+        return this;
+    }
+
+    public KeyStore getTrustStore() {
+        return trustStore;
+    }
+
+    /**
+     * The number of milliseconds for which resolved host addresses are reused
+     * when reconnecting, so a reconnect does not wait on a DNS lookup.
+     * Addresses are looked up again early if connecting to them fails.
+     *
+     * The default value is 60,000.
+     *
+     * @param dnsCacheTtl
+     *            time to reuse resolved addresses, in milliseconds, 0 disables the cache
+     * @return this, for chaining
+     */
+    public QSocketOptions setDnsCacheTtl(final long dnsCacheTtl) {
+        if (dnsCacheTtl < 0) {
+            throw new IllegalArgumentException("DNS cache TTL cannot be negative");
+        }
+
+        this.dnsCacheTtl = dnsCacheTtl;
+        return this;
+    }
+
+    public long getDnsCacheTtl() {
+        return dnsCacheTtl;
+    }
+
+    /**
+     * The number of milliseconds to wait for a TCP connection to a single
+     * address before moving on to the next address or host.
+     *
+     * The default value is 10,000.
+     *
+     * @param connectTimeout
+     *            time to wait for a connection, in milliseconds
+     * @return this, for chaining
+     */
+    public QSocketOptions setConnectTimeout(final int connectTimeout) {
+        if (connectTimeout < 1) {
+            throw new IllegalArgumentException("Connect timeout must be at least 1ms");
+        }
+
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * When a host resolves to several addresses, connection attempts to them
+     * are raced, alternating between IPv6 and IPv4. A further attempt starts
+     * every connectionAttemptDelay milliseconds, or as soon as the attempts in
+     * flight have failed, and the first to complete its handshake is used.
+     *
+     * The default value is 250. 0 disables racing, so addresses are tried one
+     * after another.
+     *
+     * @param connectionAttemptDelay
+     *            time to wait before starting the next attempt, in milliseconds
+     * @return this, for chaining
+     */
+    public QSocketOptions setConnectionAttemptDelay(final long connectionAttemptDelay) {
+        if (connectionAttemptDelay < 0) {
+            throw new IllegalArgumentException("Connection attempt delay cannot be negative");
+        }
+
+        this.connectionAttemptDelay = connectionAttemptDelay;
+        return this;
+    }
+
+    public long getConnectionAttemptDelay() {
+        return connectionAttemptDelay;
+    }
+
+    /**
+     * Drops channel messages whose id has already been seen, for servers that
+     * may deliver a message more than once. The id is read from the given
+     * top level field of each message and ids are remembered for at least
+     * windowMillis, in memory sized for maxMessagesPerWindow messages.
+     * Messages without the field are always delivered.
+     *
+     * Ids older than the last few thousand are remembered in Bloom filters,
+     * which can mistake a new id for one already seen, at a rate of about
+     * one in a thousand, see {@link #setDropUnconfirmedDuplicates(boolean)}.
+     * When more than maxMessagesPerWindow messages arrive within the window
+     * ids are remembered for less than windowMillis, see
+     * {@link com.websocket.client.util.MessageDeduplicator#getEffectiveWindowMillis()}.
+     *
+     * Deduplication is disabled by default.
+     *
+     * @param messageIdField
+     *            the name of the field holding the message id
+     * @param windowMillis
+     *            time to remember an id, in milliseconds
+     * @param maxMessagesPerWindow
+     *            the number of messages expected within the window
+     * @return this, for chaining
+     */
+    public QSocketOptions setDeduplication(final String messageIdField, final long windowMillis,
+            final int maxMessagesPerWindow) {
+        if (messageIdField == null || messageIdField.isEmpty()) {
+            throw new IllegalArgumentException("Message id field must be given");
+        }
+        if (windowMillis < 1 || maxMessagesPerWindow < 1) {
+            throw new IllegalArgumentException("Deduplication window and capacity must be positive");
+        }
+
+        this.messageIdField = messageIdField;
+        deduplicationWindow = windowMillis;
+        deduplicationCapacity = maxMessagesPerWindow;
+        return this;
+    }
+
+    public String getMessageIdField() {
+        return messageIdField;
+    }
+
+    public long getDeduplicationWindow() {
+        return deduplicationWindow;
+    }
+
+    public int getDeduplicationCapacity() {
+        return deduplicationCapacity;
+    }
+
+    /**
+     * Whether a message whose id is found only in the Bloom filters, and not
+     * among the recent ids held exactly, is dropped. Such a hit is a false
+     * positive at about the filters' target rate of 0.1%, so dropping loses
+     * that share of unique messages, while delivering lets through duplicates
+     * that arrive more than a few thousand messages apart. Either way the hit
+     * is counted in
+     * {@link com.websocket.client.util.MessageDeduplicator#getUnconfirmedDrops()}.
+     *
+     * The default value is false.
+     *
+     * @param dropUnconfirmedDuplicates
+     *            true to drop messages that are only probably duplicates
+     * @return this, for chaining
+     */
+    public QSocketOptions setDropUnconfirmedDuplicates(final boolean dropUnconfirmedDuplicates) {
+        this.dropUnconfirmedDuplicates = dropUnconfirmedDuplicates;
+        return this;
+    }
+
+    public boolean isDropUnconfirmedDuplicates() {
+        return dropUnconfirmedDuplicates;
+    }
+
+    /**
+     * Limits outbound traffic to stay under a server's publish rate. Up to
+     * one second of traffic can be sent in a burst. Pings and subscribes are
+     * never held back, but count towards the limit.
+     *
+     * Outbound traffic is not limited by default.
+     *
+     * @param messagesPerSecond
+     *            the message rate, 0 for no message limit
+     * @param bytesPerSecond
+     *            the byte rate, 0 for no byte limit
+     * @param policy
+     *            what to do with a message over the limit
+     * @return this, for chaining
+     */
+    public QSocketOptions setRateLimit(final double messagesPerSecond, final long bytesPerSecond,
+            final RateLimitPolicy policy) {
+        if (messagesPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limits cannot be negative");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Rate limit policy cannot be null");
+        }
+
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        rateLimitPolicy = policy;
+        return this;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    /**
+     * Messages sent by the server in several frames are normally collected
+     * and delivered once complete. A message whose frames add up to more
+     * than streamingThreshold bytes is instead delivered as it arrives to
+     * channel listeners implementing
+     * {@link com.websocket.client.channel.StreamingEventListener}, holding
+     * only a few frames in memory at a time.
+     *
+     * The default value is 0, which disables streaming.
+     *
+     * @param streamingThreshold
+     *            the size in bytes above which messages are streamed, 0 to
+     *            never stream
+     * @return this, for chaining
+     */
+    public QSocketOptions setStreamingThreshold(final int streamingThreshold) {
+        if (streamingThreshold < 0) {
+            throw new IllegalArgumentException("Streaming threshold cannot be negative");
+        }
+
+        this.streamingThreshold = streamingThreshold;
+        return this;
+    }
+
+    public int getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * Caps the received data that can be waiting to be processed, whether
+     * queued for routing, queued for a channel's listener or buffered for an
+     * {@link com.websocket.client.channel.EventSubscriber}. Once the cap is
+     * reached, the shedding policy decides what gives.
+     *
+     * There is no budget by default.
+     *
+     * @param maxBytes
+     *            the budget in bytes, 0 for no budget
+     * @param policy
+     *            what to do once the budget is used up
+     * @return this, for chaining
+     */
+    public QSocketOptions setInboundBudget(final long maxBytes, final SheddingPolicy policy) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Inbound budget cannot be negative");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Shedding policy cannot be null");
+        }
+
+        inboundBudget = maxBytes;
+        sheddingPolicy = policy;
+        return this;
+    }
+
+    public long getInboundBudget() {
+        return inboundBudget;
+    }
+
+    public SheddingPolicy getSheddingPolicy() {
+        return sheddingPolicy;
+    }
+
+    /**
+     * Names the channels whose events are dropped while over the inbound
+     * budget with {@link SheddingPolicy#DROP_LOW_PRIORITY}.
+     *
+     * The default is no channels.
+     *
+     * @param channelNames
+     *            the low priority channels
+     * @return this, for chaining
+     */
+    public QSocketOptions setLowPriorityChannels(final String... channelNames) {
+        if (channelNames == null) {
+            throw new IllegalArgumentException("Channel names cannot be null");
+        }
+
+        lowPriorityChannels = new HashSet<String>(Arrays.asList(channelNames));
+        return this;
+    }
+
+    public Set<String> getLowPriorityChannels() {
+        return lowPriorityChannels;
+    }
+
+    /**
+     * The Gson instance used to decode the data of events for typed
+     * listeners and to encode request payloads, for example one with custom
+     * type adapters registered. Classes annotated with
+     * {@link com.websocket.client.codec.QSocketEvent} use their generated
+     * codec either way; register {@link PayloadCodecs#FACTORY} with the
+     * GsonBuilder so that they also do when nested in other types.
+     *
+     * The default value is a Gson instance with {@link PayloadCodecs#FACTORY}
+     * registered.
+     *
+     * @param gson
+     *            the Gson instance to decode with
+     * @return this, for chaining
+     */
+    public QSocketOptions setGson(final Gson gson) {
+        if (gson == null) {
+            throw new IllegalArgumentException("Gson cannot be null");
+        }
+
+        this.gson = gson;
+        return this;
+    }
+
+    public Gson getGson() {
+        return gson;
+    }
+
     public HashMap<String, String> getUrlHeader() {
         HashMap<String, String> header = new HashMap<String, String>();
         header.put(AUTHORIZATION, authorizationToken);
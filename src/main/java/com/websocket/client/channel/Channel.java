@@ -22,8 +22,12 @@ package com.websocket.client.channel;
  * {@link com.websocket.client.QSocket#subscribe(String, ChannelEventListener, String...)}
  * .
  *
+ * <p>
+ * Besides binding listeners, events can be consumed at the pace of the
+ * consumer by subscribing an {@link EventSubscriber}.
+ * </p>
  */
-public interface Channel {
+public interface Channel extends EventPublisher {
 
     /**
      * Gets the name of the QSocket com.websocket.client.channel that this object represents.
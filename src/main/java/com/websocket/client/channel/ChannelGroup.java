@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+import java.util.List;
+
+/**
+ * A set of channels subscribed and unsubscribed together with
+ * {@link com.websocket.client.QSocket#subscribeGroup(java.util.Collection, ChannelEventListener, ChannelGroupEventListener)}
+ * and {@link com.websocket.client.QSocket#unsubscribeGroup(ChannelGroup)}.
+ * The subscribe and unsubscribe requests of the whole group are sent in a few
+ * batched messages, and a {@link ChannelGroupEventListener} hears once when
+ * every channel has been acknowledged.
+ */
+public interface ChannelGroup {
+
+    /**
+     * @return The channels of the group, in the order their names were given.
+     */
+    List<Channel> getChannels();
+
+    /**
+     * @param channelName
+     *            The name of the channel.
+     * @return The channel of the group with that name, or null if the group
+     *         has none.
+     */
+    Channel getChannel(String channelName);
+
+    /**
+     * @return Whether every channel of the group is subscribed.
+     */
+    boolean isSubscribed();
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+import java.util.Map;
+
+/**
+ * Receives one callback for a whole {@link ChannelGroup} once the server has
+ * answered for each of its channels, instead of one callback per channel.
+ * This happens after subscribing and again after every resubscribe, for
+ * example once reconnected. Callbacks run on the event thread.
+ */
+public interface ChannelGroupEventListener {
+
+    /**
+     * Callback that is fired when every channel of the group is subscribed.
+     *
+     * @param group
+     *            The group that was subscribed.
+     */
+    void onAllSubscribed(ChannelGroup group);
+
+    /**
+     * Callback that is fired when every channel of the group has either been
+     * subscribed or has failed, and at least one has failed. Failed channels
+     * are not retried; the others stay subscribed.
+     *
+     * @param group
+     *            The group that was subscribed.
+     * @param failures
+     *            The reason each failed channel failed, by channel name.
+     */
+    void onPartialFailure(ChannelGroup group, Map<String, Exception> failures);
+}
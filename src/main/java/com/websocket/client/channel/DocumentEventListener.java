@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Listeners on channels that send a document followed by changes to it can
+ * implement this interface alongside {@link ChannelEventListener}. When they
+ * do, the channel keeps the current document: a
+ * {@link com.websocket.client.util.Constants#SNAPSHOT_EVENT} replaces it and a
+ * {@link com.websocket.client.util.Constants#PATCH_EVENT} is applied to it,
+ * and this method is called instead of
+ * {@link SubscriptionEventListener#onEvent(String, String, String)} for both.
+ *
+ * <p>
+ * The message field of a patch event holds either a JSON Patch (RFC 6902)
+ * array of operations or a JSON Merge Patch (RFC 7396) object. If a patch
+ * arrives before a snapshot, or cannot be applied, the document is dropped
+ * and later patches are ignored until the next snapshot.
+ * </p>
+ */
+public interface DocumentEventListener {
+
+    /**
+     * Callback that is fired whenever the document of a channel changes.
+     * The document is updated in place by later patches, so it must not be
+     * modified and should only be read during this call.
+     *
+     * @param channelName
+     *            The name of the com.websocket.client.channel the document belongs to.
+     * @param eventName
+     *            The snapshot or patch event that changed the document.
+     * @param change
+     *            The snapshot or the patch, as sent by the server.
+     * @param document
+     *            The document with the change applied.
+     */
+    void onDocumentChanged(String channelName, String eventName, JsonElement change, JsonElement document);
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * An event received on a com.websocket.client.channel, as delivered to an
+ * {@link EventSubscriber}.
+ */
+public class Event {
+
+    private final String channelName;
+    private final String eventName;
+    private final EventPayload payload;
+
+    public Event(final String channelName, final String eventName, final EventPayload payload) {
+        this.channelName = channelName;
+        this.eventName = eventName;
+        this.payload = payload;
+    }
+
+    /**
+     * @return The name of the com.websocket.client.channel the event was received on.
+     */
+    public String getChannelName() {
+        return channelName;
+    }
+
+    /**
+     * @return The name of the event.
+     */
+    public String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * @return The JSON data that was included with the event.
+     */
+    public String getData() {
+        return payload.asString();
+    }
+
+    /**
+     * @return A view of the JSON data that is only decoded on demand.
+     */
+    public EventPayload getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Event: channel=%s, event=%s]", channelName, eventName);
+    }
+}
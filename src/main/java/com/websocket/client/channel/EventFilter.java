@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects the events a subscription wants, by event name and by simple
+ * comparisons on top level fields of the event message. A filter given to
+ * {@link com.websocket.client.QSocket#subscribe(String, ChannelEventListener, EventFilter)}
+ * is sent with the subscribe request so the server can skip unwanted events,
+ * and is also checked on the client before an event is dispatched, in case
+ * the server does not support filtering.
+ *
+ * <pre>
+ * EventFilter.forEvents("trade").where("symbol", EventFilter.Operator.EQ, "ABC")
+ *         .where("price", EventFilter.Operator.GT, 100);
+ * </pre>
+ *
+ * An event matches when its name is one of the given names, or any name if
+ * none were given, and every condition holds. A condition on a field that is
+ * missing, or holds an object or array, does not hold.
+ */
+public class EventFilter {
+
+    public enum Operator {
+        EQ("eq"), NE("ne"), GT("gt"), GE("ge"), LT("lt"), LE("le");
+
+        private final String wireName;
+
+        Operator(final String wireName) {
+            this.wireName = wireName;
+        }
+
+        public String getWireName() {
+            return wireName;
+        }
+    }
+
+    private final Set<String> eventNames;
+    private final List<Condition> conditions = new ArrayList<Condition>();
+
+    private EventFilter(final Set<String> eventNames) {
+        this.eventNames = eventNames;
+    }
+
+    /**
+     * @param eventNames the events to receive, none to receive every event
+     * @return a filter, to which conditions can be added with
+     *         {@link #where(String, Operator, Object)}
+     */
+    public static EventFilter forEvents(final String... eventNames) {
+        for (final String eventName : eventNames) {
+            if (eventName == null) {
+                throw new IllegalArgumentException("Cannot filter on a null event name");
+            }
+        }
+        return new EventFilter(new LinkedHashSet<String>(Arrays.asList(eventNames)));
+    }
+
+    /**
+     * Adds a condition on a top level field of the event message.
+     *
+     * @param field the name of the field
+     * @param operator how the field is compared with the value
+     * @param value a String, Number or Boolean. Numbers are compared
+     *            numerically; strings and booleans only support
+     *            {@link Operator#EQ} and {@link Operator#NE}.
+     * @return this, for chaining
+     */
+    public EventFilter where(final String field, final Operator operator, final Object value) {
+        if (field == null || operator == null) {
+            throw new IllegalArgumentException("Filter conditions need a field and an operator");
+        }
+        if (!(value instanceof Number) && !(value instanceof String) && !(value instanceof Boolean)) {
+            throw new IllegalArgumentException("Filter values must be a String, Number or Boolean");
+        }
+        if (!(value instanceof Number) && operator != Operator.EQ && operator != Operator.NE) {
+            throw new IllegalArgumentException("Only numbers can be compared with " + operator);
+        }
+
+        conditions.add(new Condition(field, operator, value));
+        return this;
+    }
+
+    public Set<String> getEventNames() {
+        return Collections.unmodifiableSet(eventNames);
+    }
+
+    public List<Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[EventFilter: events=%s, conditions=%s]", eventNames, conditions);
+    }
+
+    /**
+     * A single comparison of a field with a value.
+     */
+    public static class Condition {
+        private final String field;
+        private final Operator operator;
+        private final Object value;
+
+        Condition(final String field, final Operator operator, final Object value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return field + " " + operator.getWireName() + " " + value;
+        }
+    }
+}
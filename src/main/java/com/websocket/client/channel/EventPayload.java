@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A lazily decoded view of an event's JSON data. Messages that arrive as
+ * binary frames hold on to the UTF-8 bytes of the frame and are only decoded
+ * to a String if {@link #asString()} is called, so listeners that stream the
+ * data with {@link #asReader()} never hold a second copy of a large payload.
+ */
+public class EventPayload {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer bytes;
+    private volatile String text;
+
+    private EventPayload(final ByteBuffer bytes, final String text) {
+        this.bytes = bytes;
+        this.text = text;
+    }
+
+    /**
+     * Used within the library to wrap a message received as a text frame.
+     */
+    public static EventPayload of(final String text) {
+        return new EventPayload(null, text);
+    }
+
+    /**
+     * Used within the library to wrap a message received as a binary frame of
+     * UTF-8 encoded JSON. The buffer must not be modified afterwards.
+     */
+    public static EventPayload of(final ByteBuffer utf8) {
+        return new EventPayload(utf8.asReadOnlyBuffer(), null);
+    }
+
+    /**
+     * @return The data as a String, decoding it on the first call.
+     */
+    public String asString() {
+        String decoded = text;
+        if (decoded == null) {
+            decoded = UTF_8.decode(bytes.duplicate()).toString();
+            text = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * @return A read only view of the UTF-8 encoded data. For text frames this
+     *         encodes the data on every call.
+     */
+    public ByteBuffer asByteBuffer() {
+        if (bytes != null) {
+            return bytes.duplicate();
+        }
+        return ByteBuffer.wrap(text.getBytes(UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return A reader which decodes the data as it is read, without
+     *         materialising it as a String.
+     */
+    public Reader asReader() {
+        if (bytes == null || text != null) {
+            return new StringReader(asString());
+        }
+        return new InputStreamReader(new ByteBufferInputStream(bytes.duplicate()), UTF_8);
+    }
+
+    /**
+     * @return The size of the encoded data in bytes, or for text frames the
+     *         number of chars.
+     */
+    public int size() {
+        return bytes != null ? bytes.remaining() : text.length();
+    }
+
+    /**
+     * @return The memory held for the data as it was received: the encoded
+     *         size of a binary frame, or two bytes per char of a text frame.
+     *         Unlike {@link #size()} this does not change when the data is
+     *         decoded.
+     */
+    public long getReceivedBytes() {
+        return bytes != null ? bytes.remaining() : 2L * text.length();
+    }
+
+    /**
+     * @return Whether the data has been decoded to a String.
+     */
+    public boolean isDecoded() {
+        return text != null;
+    }
+
+    @Override
+    public String toString() {
+        return asString();
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * A source of {@link Event}s that honours the demand signalled by its
+ * subscribers.
+ */
+public interface EventPublisher {
+
+    int DEFAULT_BUFFER_SIZE = 256;
+
+    /**
+     * Subscribes to events using a buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} events and {@link OverflowStrategy#DROP_OLDEST}.
+     *
+     * @param subscriber
+     *            The subscriber to deliver events to.
+     */
+    void subscribe(EventSubscriber subscriber);
+
+    /**
+     * Subscribes to events.
+     *
+     * @param subscriber
+     *            The subscriber to deliver events to.
+     * @param bufferSize
+     *            The number of events to hold while there is no demand.
+     * @param overflowStrategy
+     *            What to do when an event arrives and the buffer is full.
+     * @throws IllegalArgumentException
+     *             If the subscriber or strategy is null, or the buffer size is
+     *             not positive.
+     */
+    void subscribe(EventSubscriber subscriber, int bufferSize, OverflowStrategy overflowStrategy);
+}
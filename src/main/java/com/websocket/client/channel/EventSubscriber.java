@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * Pull based alternative to {@link SubscriptionEventListener}. Follows the
+ * Reactive Streams contract: nothing is delivered until demand is signalled
+ * with {@link EventSubscription#request(long)}, and calls to this subscriber
+ * never overlap.
+ */
+public interface EventSubscriber {
+
+    /**
+     * Called once, before any other method, with the subscription used to
+     * signal demand or cancel.
+     *
+     * @param subscription
+     *            The subscription to the com.websocket.client.channel.
+     */
+    void onSubscribe(EventSubscription subscription);
+
+    /**
+     * Called for each event, never more often than has been requested.
+     *
+     * @param event
+     *            The event that was received.
+     */
+    void onNext(Event event);
+
+    /**
+     * Terminal callback when the buffer overflowed with
+     * {@link OverflowStrategy#ERROR} or the subscription failed.
+     *
+     * @param t
+     *            The cause of the failure.
+     */
+    void onError(Throwable t);
+
+    /**
+     * Terminal callback once the com.websocket.client.channel has been unsubscribed and all
+     * buffered events have been delivered.
+     */
+    void onComplete();
+}
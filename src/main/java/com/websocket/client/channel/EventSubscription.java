@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * The link between a {@link Channel} and an {@link EventSubscriber}.
+ */
+public interface EventSubscription {
+
+    /**
+     * Adds demand for n more events. Events received while there is no
+     * outstanding demand are buffered according to the subscription's
+     * {@link OverflowStrategy}.
+     *
+     * @param n
+     *            The number of additional events to deliver, must be positive.
+     */
+    void request(long n);
+
+    /**
+     * Stops delivery and discards any buffered events. The com.websocket.client.channel itself
+     * stays subscribed.
+     */
+    void cancel();
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * What an {@link EventSubscription} does when an event arrives and its buffer
+ * is already full.
+ */
+public enum OverflowStrategy {
+
+    /**
+     * Discard the oldest buffered event to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the event that just arrived.
+     */
+    DROP_LATEST,
+
+    /**
+     * Cancel the subscription and call {@link EventSubscriber#onError(Throwable)}.
+     */
+    ERROR,
+
+    /**
+     * Stop reading from the socket once the buffer is full, until it has
+     * drained to half its size. Nothing is dropped, but every channel on the
+     * connection is held up. Messages received before the pause still arrive,
+     * up to the inbound queue capacity beyond the buffer size; should more
+     * arrive, the subscription fails as with {@link #ERROR}. Heartbeats do not
+     * time out while reads are paused.
+     */
+    PAUSE_READS
+}
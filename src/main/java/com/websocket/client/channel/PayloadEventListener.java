@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * Listeners that want to avoid decoding large event data to a String can
+ * implement this interface alongside {@link ChannelEventListener}. When they
+ * do, this method is called instead of
+ * {@link SubscriptionEventListener#onEvent(String, String, String)}.
+ */
+public interface PayloadEventListener {
+
+    /**
+     * Callback that is fired whenever an event is received.
+     *
+     * @param channelName
+     *            The name of the com.websocket.client.channel that the event has been received on.
+     * @param eventName
+     *            The name of the event that has been received.
+     * @param payload
+     *            A view of the JSON data that was included with the event,
+     *            which is only decoded if the listener asks for it.
+     */
+    void onEvent(String channelName, String eventName, EventPayload payload);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * A channel whose members, identified by numeric ids, the client keeps track
+ * of. The server sends the full member list once, with the subscription
+ * acknowledgement, and after that only the members that join or leave.
+ * Returned by
+ * {@link com.websocket.client.QSocket#subscribePresence(String, PresenceChannelEventListener, String...)}.
+ */
+public interface PresenceChannel extends Channel {
+
+    /**
+     * Checks membership in constant time. Can be called from any thread.
+     *
+     * @param memberId
+     *            The id of the member.
+     * @return Whether the member is currently in the channel.
+     */
+    boolean isMember(long memberId);
+
+    /**
+     * @return The number of members currently in the channel.
+     */
+    int getMemberCount();
+
+    /**
+     * @return A copy of the ids of the members currently in the channel, in no
+     *         particular order.
+     */
+    long[] getMembers();
+}
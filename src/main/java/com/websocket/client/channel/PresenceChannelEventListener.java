@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * Listeners on a {@link PresenceChannel} implement this interface to be told
+ * who is in the channel. The callbacks run on the channel's delivery thread,
+ * after the member set has been updated, so {@link PresenceChannel} queries
+ * made from them already reflect the change.
+ */
+public interface PresenceChannelEventListener extends ChannelEventListener {
+
+    /**
+     * Callback that is fired when the full member list has been received,
+     * after subscribing and again after every resubscribe, for example once
+     * reconnected. Members that joined or left in between are not reported
+     * individually.
+     *
+     * @param channelName
+     *            The name of the channel.
+     * @param memberCount
+     *            The number of members in the channel.
+     */
+    void onMembersReceived(String channelName, int memberCount);
+
+    /**
+     * Callback that is fired when a member joins the channel.
+     *
+     * @param channelName
+     *            The name of the channel.
+     * @param memberId
+     *            The id of the member that joined.
+     */
+    void onMemberAdded(String channelName, long memberId);
+
+    /**
+     * Callback that is fired when a member leaves the channel.
+     *
+     * @param channelName
+     *            The name of the channel.
+     * @param memberId
+     *            The id of the member that left.
+     */
+    void onMemberRemoved(String channelName, long memberId);
+}
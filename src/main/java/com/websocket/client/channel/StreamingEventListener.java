@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * Implemented alongside {@link ChannelEventListener} to read very large events
+ * as they arrive instead of after they have been received in full. Events
+ * larger than {@link com.websocket.client.QSocketOptions#setStreamingThreshold(int)}
+ * are delivered here, and smaller ones to
+ * {@link ChannelEventListener#onEvent(String, String, String)} as usual.
+ *
+ * Only the event name part of an {@link EventFilter} is applied to streamed
+ * events.
+ */
+public interface StreamingEventListener extends ChannelEventListener {
+
+    /**
+     * Called on the channel's delivery lane. Reading blocks until more of the
+     * event has arrived, and later messages on the connection wait until this
+     * returns. Anything left unread is skipped.
+     *
+     * @param channelName The name of the channel.
+     * @param eventName The name of the event.
+     * @param event A reader over the whole event, the same JSON that
+     *            {@link ChannelEventListener#onEvent(String, String, String)}
+     *            would receive. It is only valid during this call.
+     * @throws IOException If the event cannot be read, for example because
+     *             the connection closed part way through it.
+     */
+    void onEventStream(String channelName, String eventName, JsonReader event) throws IOException;
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * A {@link ChannelEventListener} that is also told when a subscription
+ * fails. Pass an implementation to
+ * {@link com.websocket.client.QSocket#subscribe(String, ChannelEventListener, String...)}
+ * to be notified when the server never acknowledges the subscribe request.
+ */
+public interface SubscriptionFailureEventListener extends ChannelEventListener {
+
+    /**
+     * <p>
+     * Callback that is fired when the subscription was not acknowledged
+     * within the subscribe timeout, after all retries. The channel is then in
+     * the {@link ChannelState#FAILED} state and is no longer subscribed to;
+     * call {@link com.websocket.client.QSocket#subscribe(String)} again to
+     * retry later.
+     * </p>
+     *
+     * @param channelName
+     *            The name of the com.websocket.client.channel that could not be subscribed.
+     * @param e
+     *            The reason for the failure.
+     */
+    void onSubscriptionFailed(String channelName, Exception e);
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel;
+
+/**
+ * Receives the events of a channel with their data already decoded, for
+ * subscriptions made with
+ * {@link com.websocket.client.QSocket#subscribe(String, Class, TypedEventListener, String...)}.
+ *
+ * @param <T> the type the data of each event is decoded to
+ */
+public interface TypedEventListener<T> {
+
+    /**
+     * Callback that is fired whenever an event is received.
+     *
+     * @param channelName
+     *            The name of the channel that the event has been received on.
+     * @param eventName
+     *            The name of the event that has been received.
+     * @param data
+     *            The message field of the event, decoded with Gson.
+     */
+    void onEvent(String channelName, String eventName, T data);
+}
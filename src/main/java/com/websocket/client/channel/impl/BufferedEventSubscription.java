@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.websocket.client.channel.Event;
+import com.websocket.client.channel.EventSubscriber;
+import com.websocket.client.channel.EventSubscription;
+import com.websocket.client.channel.OverflowStrategy;
+import com.websocket.client.util.Factory;
+import com.websocket.client.util.InboundBudget;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A demand driven subscription to a single channel. Events are buffered until
+ * the subscriber requests them and are delivered on the channel's dispatch
+ * lane, one drain loop at a time so calls to the subscriber never overlap,
+ * even when it requests more from inside onNext.
+ */
+public class BufferedEventSubscription implements EventSubscription {
+
+    private final String channelName;
+    private final EventSubscriber subscriber;
+    private final int bufferSize;
+    private final OverflowStrategy overflowStrategy;
+    // the most events held while reads are paused: a full buffer, and what was already received
+    private final int pausedCapacity;
+    private final Factory factory;
+    // null when received data has no memory budget
+    private final InboundBudget inboundBudget;
+
+    private final ArrayDeque<Event> buffer = new ArrayDeque<Event>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private long demand;
+    private boolean done;
+    private boolean cancelled;
+    private boolean readsPaused;
+    private Throwable error;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public BufferedEventSubscription(final String channelName, final EventSubscriber subscriber, final int bufferSize,
+                                     final OverflowStrategy overflowStrategy, final Factory factory) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Cannot subscribe to channel " + channelName + " with a null subscriber");
+        }
+        if (overflowStrategy == null) {
+            throw new IllegalArgumentException("Cannot subscribe to channel " + channelName + " with a null overflow strategy");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1");
+        }
+
+        this.channelName = channelName;
+        this.subscriber = subscriber;
+        this.bufferSize = bufferSize;
+        this.overflowStrategy = overflowStrategy;
+        pausedCapacity = bufferSize + factory.getInboundQueueCapacity();
+        this.factory = factory;
+        inboundBudget = factory.getInboundBudget();
+    }
+
+    /**
+     * Delivers onSubscribe on the channel's dispatch lane.
+     */
+    void start() {
+        factory.queueOnChannelThread(channelName, new Runnable() {
+            @Override
+            public void run() {
+                subscriber.onSubscribe(BufferedEventSubscription.this);
+            }
+        });
+    }
+
+    /* EventSubscription implementation */
+
+    @Override
+    public void request(final long n) {
+        synchronized (this) {
+            if (cancelled || done) {
+                return;
+            }
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " events, demand must be positive");
+                done = true;
+                clearBuffer();
+            }
+            else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+        }
+        scheduleDrain();
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            clearBuffer();
+        }
+        resumeReads();
+    }
+
+    /* called by ChannelImpl on the inbound thread */
+
+    synchronized boolean isTerminated() {
+        return cancelled || done;
+    }
+
+    void onEvent(final Event event) {
+        synchronized (this) {
+            if (cancelled || done) {
+                return;
+            }
+            if (buffer.size() >= bufferSize) {
+                switch (overflowStrategy) {
+                    case DROP_OLDEST:
+                        releaseEvent(buffer.poll());
+                        offerEvent(event);
+                        break;
+                    case DROP_LATEST:
+                        break;
+                    case ERROR:
+                        error = new IllegalStateException("Event buffer of " + bufferSize
+                                + " overflowed on channel " + channelName);
+                        done = true;
+                        clearBuffer();
+                        break;
+                    case PAUSE_READS:
+                        if (buffer.size() < pausedCapacity) {
+                            offerEvent(event);
+                        }
+                        else {
+                            // more arrived than the inbound queue holds, so reads were not paused in time
+                            error = new IllegalStateException("Event buffer of " + bufferSize
+                                    + " overflowed on channel " + channelName + " while reads were paused");
+                            done = true;
+                            clearBuffer();
+                        }
+                        break;
+                }
+            }
+            else {
+                offerEvent(event);
+            }
+            if (overflowStrategy == OverflowStrategy.PAUSE_READS && !done && buffer.size() >= bufferSize) {
+                // paused as the buffer fills rather than once it overflows, so that the messages
+                // already received fit; paused every time, as a disconnect releases the gate
+                // without telling its holders
+                readsPaused = true;
+                factory.getReadGate().pause(this);
+            }
+        }
+        scheduleDrain();
+    }
+
+    void complete() {
+        synchronized (this) {
+            done = true;
+        }
+        scheduleDrain();
+    }
+
+    void fail(final Throwable t) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            error = t;
+            done = true;
+            clearBuffer();
+        }
+        scheduleDrain();
+    }
+
+    /* implementation detail */
+
+    private void scheduleDrain() {
+        if (wip.getAndIncrement() == 0) {
+            factory.queueOnChannelThread(channelName, drainTask);
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        do {
+            while (true) {
+                final Event next;
+                final boolean terminate;
+                final Throwable failure;
+                synchronized (this) {
+                    if (cancelled) {
+                        break;
+                    }
+                    next = demand > 0 ? buffer.poll() : null;
+                    releaseEvent(next);
+                    if (next != null) {
+                        demand--;
+                    }
+                    terminate = next == null && done && buffer.isEmpty();
+                    if (terminate) {
+                        cancelled = true;
+                    }
+                    failure = error;
+                }
+
+                if (next != null) {
+                    maybeResumeReads();
+                    subscriber.onNext(next);
+                }
+                else {
+                    if (terminate) {
+                        resumeReads();
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        }
+                        else {
+                            subscriber.onComplete();
+                        }
+                    }
+                    break;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /* buffer accounting, called holding the lock */
+
+    private void offerEvent(final Event event) {
+        buffer.offer(event);
+        if (inboundBudget != null) {
+            inboundBudget.charge(event.getPayload().getReceivedBytes());
+        }
+    }
+
+    private void releaseEvent(final Event event) {
+        if (event != null && inboundBudget != null) {
+            inboundBudget.release(event.getPayload().getReceivedBytes());
+        }
+    }
+
+    private void clearBuffer() {
+        Event event;
+        while ((event = buffer.poll()) != null) {
+            releaseEvent(event);
+        }
+    }
+
+    private void maybeResumeReads() {
+        final boolean resume;
+        synchronized (this) {
+            resume = readsPaused && buffer.size() <= bufferSize / 2;
+        }
+        if (resume) {
+            resumeReads();
+        }
+    }
+
+    private void resumeReads() {
+        synchronized (this) {
+            if (!readsPaused) {
+                return;
+            }
+            readsPaused = false;
+        }
+        factory.getReadGate().resume(this);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.websocket.client.channel.Channel;
+import com.websocket.client.channel.ChannelGroup;
+import com.websocket.client.channel.ChannelGroupEventListener;
+import com.websocket.client.util.Factory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts the acknowledgements and failures of the channels in a group for
+ * each round of subscribes, and reports the outcome once every channel sent
+ * in the round has been answered. The bookkeeping is only used on the control
+ * thread.
+ */
+public class ChannelGroupImpl implements ChannelGroup {
+
+    private final List<InternalChannel> channels;
+    private final Map<String, InternalChannel> channelsByName;
+    private final ChannelGroupEventListener listener;
+    private final Factory factory;
+    private volatile boolean unsubscribed;
+
+    private final Set<String> subscribed = new HashSet<String>();
+    private final Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+    private int expected;
+
+    public ChannelGroupImpl(final Collection<String> channelNames, final ChannelGroupEventListener listener,
+                            final Factory factory) {
+        if (channelNames == null || channelNames.isEmpty()) {
+            throw new IllegalArgumentException("Cannot subscribe to an empty channel group");
+        }
+
+        final Map<String, InternalChannel> channelsByName = new LinkedHashMap<String, InternalChannel>();
+        for (final String channelName : channelNames) {
+            final InternalChannel channel = factory.newPublicChannel(channelName);
+            if (channelsByName.put(channel.getName(), channel) != null) {
+                throw new IllegalArgumentException("Channel " + channelName + " is in the group more than once");
+            }
+            channel.setGroup(this);
+        }
+        this.channels = Collections.unmodifiableList(new ArrayList<InternalChannel>(channelsByName.values()));
+        this.channelsByName = channelsByName;
+        this.listener = listener;
+        this.factory = factory;
+    }
+
+    /* ChannelGroup implementation */
+
+    @Override
+    public List<Channel> getChannels() {
+        return Collections.<Channel>unmodifiableList(channels);
+    }
+
+    @Override
+    public Channel getChannel(final String channelName) {
+        return channelsByName.get(channelName);
+    }
+
+    @Override
+    public boolean isSubscribed() {
+        if (unsubscribed) {
+            return false;
+        }
+        for (final InternalChannel channel : channels) {
+            if (!channel.isSubscribed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* implementation detail */
+
+    List<InternalChannel> getInternalChannels() {
+        return channels;
+    }
+
+    /**
+     * @return true the first time it is called
+     */
+    synchronized boolean markUnsubscribed() {
+        if (unsubscribed) {
+            return false;
+        }
+        unsubscribed = true;
+        return true;
+    }
+
+    boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    /**
+     * Starts a round of subscribes, run on the control thread.
+     *
+     * @param count the number of channels sent in this round
+     */
+    void expectAcknowledgements(final int count) {
+        expected = count;
+        subscribed.clear();
+        failures.clear();
+    }
+
+    void onChannelSubscribed(final InternalChannel channel) {
+        if (expected > 0 && !failures.containsKey(channel.getName()) && subscribed.add(channel.getName())) {
+            reportIfAnswered();
+        }
+    }
+
+    void onChannelFailed(final InternalChannel channel, final Exception e) {
+        if (expected > 0 && !subscribed.contains(channel.getName()) && !failures.containsKey(channel.getName())) {
+            failures.put(channel.getName(), e);
+            reportIfAnswered();
+        }
+    }
+
+    /**
+     * A channel unsubscribed on its own no longer counts towards the round.
+     */
+    void onChannelUnsubscribed(final InternalChannel channel) {
+        if (expected == 0) {
+            return;
+        }
+        subscribed.remove(channel.getName());
+        failures.remove(channel.getName());
+        if (--expected > 0) {
+            reportIfAnswered();
+        }
+    }
+
+    private void reportIfAnswered() {
+        if (subscribed.size() + failures.size() < expected) {
+            return;
+        }
+        expected = 0;
+        if (listener == null || unsubscribed) {
+            return;
+        }
+
+        final Map<String, Exception> failed = failures.isEmpty() ? null
+                : Collections.unmodifiableMap(new LinkedHashMap<String, Exception>(failures));
+        factory.queueOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (failed == null) {
+                    listener.onAllSubscribed(ChannelGroupImpl.this);
+                }
+                else {
+                    listener.onPartialFailure(ChannelGroupImpl.this, failed);
+                }
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Channel Group: channels=%s]", channelsByName.keySet());
+    }
+}
@@ -16,32 +16,75 @@
 package com.websocket.client.channel.impl;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import com.websocket.client.channel.ChannelEventListener;
 import com.websocket.client.channel.ChannelState;
 import com.websocket.client.channel.ChannelUnsubscriptionEventListener;
+import com.websocket.client.channel.DocumentEventListener;
+import com.websocket.client.channel.Event;
+import com.websocket.client.channel.EventFilter;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.channel.EventSubscriber;
+import com.websocket.client.channel.OverflowStrategy;
+import com.websocket.client.channel.PayloadEventListener;
+import com.websocket.client.channel.StreamingEventListener;
 import com.websocket.client.channel.SubscriptionEventListener;
+import com.websocket.client.channel.SubscriptionFailureEventListener;
 import com.websocket.client.util.Constants;
 import com.websocket.client.util.Factory;
-
+import com.websocket.client.util.FragmentStream;
+import com.websocket.client.util.InboundBudget;
+import com.websocket.client.util.JsonPatch;
+import com.websocket.client.util.MessageTrace;
+import com.websocket.client.util.NameTable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ChannelImpl implements InternalChannel {
 
+    private static final Logger log = LoggerFactory.getLogger(ChannelImpl.class);
     private static final Gson GSON = new Gson();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final String SUBSCRIPTION_SUCCESS_EVENT = "103";
     private static final String UNSUBSCRIPTION_SUCCESS_EVENT = "104";
     private static final String INTERNAL_EVENT_PREFIX = "qsocket_internal:";
+    private static final int MAX_POOLED_DELIVERIES = 64;
     protected final String name;
     private final Map<String, Set<SubscriptionEventListener>> eventNameToListenerMap = new HashMap<String, Set<SubscriptionEventListener>>();
     protected volatile ChannelState state = ChannelState.INITIAL;
     private ChannelEventListener eventListener;
+    private volatile CompiledEventFilter filter;
     private ChannelUnsubscriptionEventListener channelUnsubscriptionEventListener;
-    private final Factory factory;
+    private final CopyOnWriteArrayList<BufferedEventSubscription> subscriptions = new CopyOnWriteArrayList<BufferedEventSubscription>();
+    protected final Factory factory;
     private final Object lock = new Object();
+    private final ArrayDeque<Delivery> deliveryPool = new ArrayDeque<Delivery>();
+    // null when received data has no memory budget
+    private final InboundBudget inboundBudget;
+    // the materialised document of a snapshot and patch channel, only used on the channel's delivery lane
+    private JsonElement document;
+    // null unless the subscribe request asks for a snapshot, guarded by its own monitor
+    private volatile SnapshotMerger snapshotMerger;
+    // null unless subscribed as part of a group
+    private volatile ChannelGroupImpl group;
 
     public ChannelImpl(final String channelName, final Factory factory) {
 
@@ -49,8 +92,13 @@ public class ChannelImpl implements InternalChannel {
             throw new IllegalArgumentException("Cannot subscribe to a channel with a null name");
         }
 
-        name = channelName;
+        // share the instance the inbound path resolves names to, so lookups by name compare by identity
+        final NameTable names = factory.getNameTable();
+        name = names.intern(channelName);
+        names.intern(SUBSCRIPTION_SUCCESS_EVENT);
+        names.intern(UNSUBSCRIPTION_SUCCESS_EVENT);
         this.factory = factory;
+        inboundBudget = factory.getInboundBudget();
     }
 
     /* Channel implementation */
@@ -64,6 +112,8 @@ public class ChannelImpl implements InternalChannel {
     public void bind(final String eventName, final SubscriptionEventListener listener) {
 
         validateArguments(eventName, listener);
+        // so the inbound path resolves this event to a canonical instance
+        factory.getNameTable().intern(eventName);
 
         synchronized (lock) {
             Set<SubscriptionEventListener> listeners = eventNameToListenerMap.get(eventName);
@@ -91,6 +141,26 @@ public class ChannelImpl implements InternalChannel {
         }
     }
 
+    @Override
+    public void subscribe(final EventSubscriber subscriber) {
+        subscribe(subscriber, DEFAULT_BUFFER_SIZE, OverflowStrategy.DROP_OLDEST);
+    }
+
+    @Override
+    public void subscribe(final EventSubscriber subscriber, final int bufferSize,
+                          final OverflowStrategy overflowStrategy) {
+
+        if (state == ChannelState.UNSUBSCRIBED) {
+            throw new IllegalStateException(
+                    "Cannot subscribe to events on a channel that has been unsubscribed. Call QSocket.subscribe() to resubscribe to this channel");
+        }
+
+        final BufferedEventSubscription subscription =
+                new BufferedEventSubscription(name, subscriber, bufferSize, overflowStrategy, factory);
+        subscriptions.add(subscription);
+        subscription.start();
+    }
+
     @Override
     public boolean isSubscribed() {
         return state == ChannelState.SUBSCRIBED;
@@ -99,45 +169,185 @@ public class ChannelImpl implements InternalChannel {
     /* InternalChannel implementation */
 
     @Override
-    public void onMessage(final String event, final String message) {
+    public void onMessage(final String event, final EventPayload payload, final MessageTrace trace) {
 
         if (event.equals(SUBSCRIPTION_SUCCESS_EVENT)) {
-            updateState(ChannelState.SUBSCRIBED);
+            onSubscribed(payload, trace);
         }else if (event.equals(UNSUBSCRIPTION_SUCCESS_EVENT)) {
-            updateState(ChannelState.UNSUBSCRIBED);
+            factory.queueOnControlThread(new Runnable() {
+                @Override
+                public void run() {
+                    updateState(ChannelState.UNSUBSCRIBED);
+                }
+            });
         }
         else {
-            final String data = extractDataFrom(message);
-            factory.queueOnEventThread(new Runnable() {
+            final CompiledEventFilter filter = this.filter;
+            if (filter != null && !filter.matches(event, payload)) {
+                return;
+            }
+
+            final SnapshotMerger merger = snapshotMerger;
+            if (merger != null) {
+                synchronized (merger) {
+                    if (merger.isAwaitingSnapshot()) {
+                        charge(payload);
+                        merger.hold(event, payload, trace);
+                        return;
+                    }
+                    if (merger.covers(payload)) {
+                        return;
+                    }
+                }
+            }
+            dispatch(event, payload, trace);
+        }
+    }
+
+    /**
+     * Runs on the inbound thread. The success callback and the snapshot are
+     * queued from here so that they reach the delivery lane ahead of the
+     * events that follow the acknowledgement. The rest of the state change
+     * runs on the control thread.
+     */
+    private void onSubscribed(final EventPayload acknowledgement, final MessageTrace trace) {
+        state = ChannelState.SUBSCRIBED;
+        final ChannelEventListener listener = eventListener;
+        if (listener != null) {
+            factory.queueOnChannelThread(name, new Runnable() {
+                @Override
+                public void run() {
+                    listener.onSubscriptionSucceeded(name);
+                }
+            });
+        }
+
+        final SnapshotMerger merger = snapshotMerger;
+        if (merger != null) {
+            synchronized (merger) {
+                if (merger.isAwaitingSnapshot()) {
+                    onSnapshot(merger, acknowledgement, trace);
+                }
+            }
+        }
+
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                // unless an unsubscribe or resubscribe has overtaken the acknowledgement
+                if (state == ChannelState.SUBSCRIBED) {
+                    updateState(ChannelState.SUBSCRIBED);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the inbound thread. Delivers the snapshot carried by the
+     * subscription acknowledgement as a
+     * {@link Constants#SNAPSHOT_EVENT}, then the events that arrived while it
+     * was in flight and that it does not already cover.
+     */
+    private void onSnapshot(final SnapshotMerger merger, final EventPayload acknowledgement,
+                            final MessageTrace trace) {
+        final List<SnapshotMerger.HeldEvent> held = merger.onSnapshot(acknowledgement);
+        dispatch(Constants.SNAPSHOT_EVENT, acknowledgement, trace);
+        for (final SnapshotMerger.HeldEvent heldEvent : held) {
+            release(heldEvent.payload);
+            if (merger.covers(heldEvent.sequence)) {
+                log.debug("Dropping " + heldEvent.event + " event on channel " + name + " covered by the snapshot");
+            }
+            else {
+                dispatch(heldEvent.event, heldEvent.payload, heldEvent.trace);
+            }
+        }
+    }
+
+    private void dispatch(final String event, final EventPayload payload, final MessageTrace trace) {
+        final EventPayload data = extractDataFrom(payload);
+        if (eventListener instanceof DocumentEventListener && isDocumentEvent(event)) {
+            charge(data);
+            factory.queueOnChannelThread(name, new Runnable() {
                 @Override
                 public void run() {
-                    eventListener.onEvent(name, event, data);
+                    try {
+                        applyDocumentEvent(event, data, trace);
+                    }
+                    finally {
+                        release(data);
+                    }
                 }
             });
-//            final Set<SubscriptionEventListener> listeners;
-//            synchronized (lock) {
-//                final Set<SubscriptionEventListener> sharedListeners = eventNameToListenerMap.get(event);
-//                if (sharedListeners != null) {
-//                    listeners = new HashSet<SubscriptionEventListener>(sharedListeners);
-//                }
-//                else {
-//                    listeners = null;
-//                }
+        }
+        else if (eventListener != null) {
+            factory.queueOnChannelThread(name, obtainDelivery(event, data, trace));
+        }
+        if (!subscriptions.isEmpty()) {
+            publish(new Event(name, event, data));
+        }
+//        final Set<SubscriptionEventListener> listeners;
+//        synchronized (lock) {
+//            final Set<SubscriptionEventListener> sharedListeners = eventNameToListenerMap.get(event);
+//            if (sharedListeners != null) {
+//                listeners = new HashSet<SubscriptionEventListener>(sharedListeners);
+//            }
+//            else {
+//                listeners = null;
 //            }
+//        }
 //
-//            if (listeners != null) {
-//                for (final SubscriptionEventListener listener : listeners) {
-//                    final String data = extractDataFrom(message);
+//        if (listeners != null) {
+//            for (final SubscriptionEventListener listener : listeners) {
+//                final String data = extractDataFrom(message);
 //
-//                    factory.queueOnEventThread(new Runnable() {
-//                        @Override
-//                        public void run() {
-//                            listener.onEvent(name, event, data);
-//                        }
-//                    });
-//                }
+//                factory.queueOnEventThread(new Runnable() {
+//                    @Override
+//                    public void run() {
+//                        listener.onEvent(name, event, data);
+//                    }
+//                });
 //            }
+//        }
+    }
+
+    /**
+     * Streaming listeners read the event as it arrives. Other listeners and
+     * event subscribers get it once it has been received in full.
+     */
+    @Override
+    public void onMessageStream(final String event, final FragmentStream stream) {
+        final CompiledEventFilter filter = this.filter;
+        final ChannelEventListener listener = eventListener;
+        if ((filter != null && !filter.matchesEvent(event)) || (listener == null && subscriptions.isEmpty())) {
+            factory.queueOnStreamThread(new Runnable() {
+                @Override
+                public void run() {
+                    stream.discard();
+                }
+            });
+            return;
         }
+
+        factory.queueOnChannelThread(name, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (listener instanceof StreamingEventListener) {
+                        ((StreamingEventListener) listener).onEventStream(name, event,
+                                new JsonReader(new InputStreamReader(stream, UTF_8)));
+                    }
+                    else {
+                        receiveInFull(event, stream);
+                    }
+                }
+                catch (final IOException e) {
+                    log.warn("Failed to read a streamed " + event + " event on channel " + name, e);
+                }
+                finally {
+                    stream.discard();
+                }
+            }
+        });
     }
 
     @Override
@@ -148,9 +358,25 @@ public class ChannelImpl implements InternalChannel {
 
         jsonObject.put(Constants.CHANNEL, name);
 
+        final CompiledEventFilter filter = this.filter;
+        if (filter != null) {
+            jsonObject.put(Constants.FILTER, filter.toJson());
+        }
+
+        if (snapshotMerger != null) {
+            jsonObject.put(Constants.SNAPSHOT, true);
+        }
+        addSubscribeFields(jsonObject);
+
         return GSON.toJson(jsonObject);
     }
 
+    /**
+     * Lets channel types add their own fields to the subscribe request.
+     */
+    protected void addSubscribeFields(final Map<Object, Object> jsonObject) {
+    }
+
     @Override
     public String toUnsubscribeMessage() {
         final Map<Object, Object> jsonObject = new LinkedHashMap<Object, Object>();
@@ -166,21 +392,78 @@ public class ChannelImpl implements InternalChannel {
 
         this.state = state;
 
-        if (state == ChannelState.SUBSCRIBED && eventListener != null) {
-            factory.queueOnEventThread(new Runnable() {
+        final SnapshotMerger merger = snapshotMerger;
+        if (merger != null && state != ChannelState.SUBSCRIBED) {
+            final List<SnapshotMerger.HeldEvent> dropped;
+            synchronized (merger) {
+                // a resubscribe asks for a new snapshot, which replaces anything held for the last one
+                dropped = state == ChannelState.SUBSCRIBE_SENT ? merger.awaitSnapshot() : merger.clear();
+            }
+            releaseAll(dropped);
+        }
+
+        if (state == ChannelState.SUBSCRIBE_SENT && eventListener instanceof DocumentEventListener) {
+            // patches sent after a resubscribe wait for the next snapshot
+            factory.queueOnChannelThread(name, new Runnable() {
                 @Override
                 public void run() {
-                    eventListener.onSubscriptionSucceeded(ChannelImpl.this.getName());
+                    document = null;
                 }
             });
-        } else if (state == ChannelState.UNSUBSCRIBED && channelUnsubscriptionEventListener != null) {
-            factory.queueOnEventThread(new Runnable() {
+        }
+
+        final ChannelGroupImpl group = this.group;
+        if (state == ChannelState.SUBSCRIBED && group != null) {
+            group.onChannelSubscribed(this);
+        }
+        else if (state == ChannelState.UNSUBSCRIBED && group != null) {
+            group.onChannelUnsubscribed(this);
+        }
+
+        // the success callback is queued when the acknowledgement is routed
+        if (state == ChannelState.UNSUBSCRIBED && channelUnsubscriptionEventListener != null) {
+            factory.queueOnChannelThread(name, new Runnable() {
                 @Override
                 public void run() {
                     channelUnsubscriptionEventListener.onUnsubscribed(ChannelImpl.this.getName());
                 }
             });
         }
+
+        if (state == ChannelState.UNSUBSCRIBED) {
+            for (final BufferedEventSubscription subscription : subscriptions) {
+                subscription.complete();
+            }
+            subscriptions.clear();
+        } else if (state == ChannelState.FAILED) {
+            for (final BufferedEventSubscription subscription : subscriptions) {
+                subscription.fail(new IllegalStateException("Subscription to channel " + name + " failed"));
+            }
+            subscriptions.clear();
+        }
+    }
+
+    @Override
+    public ChannelState getState() {
+        return state;
+    }
+
+    @Override
+    public void onSubscriptionFailed(final Exception e) {
+        final ChannelEventListener listener = eventListener;
+        if (listener instanceof SubscriptionFailureEventListener) {
+            factory.queueOnChannelThread(name, new Runnable() {
+                @Override
+                public void run() {
+                    ((SubscriptionFailureEventListener) listener).onSubscriptionFailed(name, e);
+                }
+            });
+        }
+        final ChannelGroupImpl group = this.group;
+        if (group != null) {
+            group.onChannelFailed(this, e);
+        }
+        updateState(ChannelState.FAILED);
     }
 
     /* Comparable implementation */
@@ -195,6 +478,26 @@ public class ChannelImpl implements InternalChannel {
         channelUnsubscriptionEventListener = listener;
     }
 
+    @Override
+    public void setFilter(final EventFilter filter) {
+        this.filter = filter == null ? null : new CompiledEventFilter(filter);
+    }
+
+    @Override
+    public void setGroup(final ChannelGroupImpl group) {
+        this.group = group;
+    }
+
+    @Override
+    public ChannelGroupImpl getGroup() {
+        return group;
+    }
+
+    @Override
+    public void setSnapshotOnSubscribe(final boolean snapshotOnSubscribe) {
+        snapshotMerger = snapshotOnSubscribe ? new SnapshotMerger() : null;
+    }
+
     @Override
     public ChannelEventListener getEventListener() {
         return eventListener;
@@ -212,8 +515,189 @@ public class ChannelImpl implements InternalChannel {
         return String.format("[Public Channel: name=%s]", name);
     }
 
+    private Delivery obtainDelivery(final String event, final EventPayload payload, final MessageTrace trace) {
+        Delivery delivery;
+        synchronized (deliveryPool) {
+            delivery = deliveryPool.poll();
+        }
+        if (delivery == null) {
+            delivery = new Delivery();
+        }
+        delivery.event = event;
+        delivery.payload = payload;
+        delivery.trace = trace;
+        charge(payload);
+        return delivery;
+    }
+
+    private void deliver(final String event, final EventPayload data, final MessageTrace trace) {
+        final ChannelEventListener listener = eventListener;
+        if (listener == null) {
+            return;
+        }
+        if (trace != null) {
+            trace.dequeued();
+        }
+        if (listener instanceof PayloadEventListener) {
+            ((PayloadEventListener) listener).onEvent(name, event, data);
+        }
+        else {
+            listener.onEvent(name, event, data.asString());
+        }
+        if (trace != null) {
+            trace.completed(name);
+        }
+    }
+
+    /**
+     * Runs on the channel's delivery lane for listeners that do not stream.
+     */
+    private void receiveInFull(final String event, final FragmentStream stream) throws IOException {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[8192];
+        int read;
+        while ((read = stream.read(chunk, 0, chunk.length)) != -1) {
+            received.write(chunk, 0, read);
+        }
+
+        final EventPayload data = EventPayload.of(ByteBuffer.wrap(received.toByteArray()));
+        if (eventListener instanceof DocumentEventListener && isDocumentEvent(event)) {
+            applyDocumentEvent(event, data, null);
+        }
+        else {
+            deliver(event, data, null);
+        }
+        if (!subscriptions.isEmpty()) {
+            publish(new Event(name, event, data));
+        }
+    }
+
+    /**
+     * Counts a payload queued on the delivery lane against the inbound
+     * budget, until {@link #release(EventPayload)} once it has been handled.
+     */
+    protected void charge(final EventPayload payload) {
+        if (inboundBudget != null) {
+            inboundBudget.charge(payload.getReceivedBytes());
+        }
+    }
+
+    protected void release(final EventPayload payload) {
+        if (inboundBudget != null) {
+            inboundBudget.release(payload.getReceivedBytes());
+        }
+    }
+
+    private void releaseAll(final List<SnapshotMerger.HeldEvent> dropped) {
+        for (final SnapshotMerger.HeldEvent heldEvent : dropped) {
+            release(heldEvent.payload);
+        }
+    }
+
+    private static boolean isDocumentEvent(final String event) {
+        return Constants.SNAPSHOT_EVENT.equals(event) || Constants.PATCH_EVENT.equals(event);
+    }
+
+    /**
+     * Runs on the channel's delivery lane, which keeps patches in order and
+     * away from the listener reading the document.
+     */
+    private void applyDocumentEvent(final String event, final EventPayload data, final MessageTrace trace) {
+        final ChannelEventListener listener = eventListener;
+        if (!(listener instanceof DocumentEventListener)) {
+            return;
+        }
+        if (trace != null) {
+            trace.dequeued();
+        }
+
+        final JsonElement change;
+        try {
+            final JsonElement message = new JsonParser().parse(data.asReader());
+            change = message.isJsonObject() ? message.getAsJsonObject().get(Constants.MESSAGE) : null;
+            if (change == null) {
+                throw new IllegalArgumentException("No " + Constants.MESSAGE + " in " + event + " event");
+            }
+
+            if (Constants.SNAPSHOT_EVENT.equals(event)) {
+                document = change;
+            }
+            else if (document == null) {
+                log.debug("Ignoring patch on channel " + name + " until the next snapshot");
+                return;
+            }
+            else if (change.isJsonArray()) {
+                document = JsonPatch.apply(document, change.getAsJsonArray());
+            }
+            else {
+                document = JsonPatch.merge(document, change);
+            }
+        }
+        catch (final IllegalArgumentException e) {
+            dropDocument(e);
+            return;
+        }
+        catch (final JsonParseException e) {
+            dropDocument(e);
+            return;
+        }
+
+        ((DocumentEventListener) listener).onDocumentChanged(name, event, change, document);
+        if (trace != null) {
+            trace.completed(name);
+        }
+    }
+
+    private void dropDocument(final Exception e) {
+        log.warn("Dropping the document of channel " + name + " until the next snapshot", e);
+        document = null;
+    }
+
+    /**
+     * A reusable listener callback. Instances go back to the pool as soon as
+     * their fields have been read, so a steady stream of events on a channel
+     * reuses the same few objects instead of allocating a Runnable each.
+     */
+    private final class Delivery implements Runnable {
+        private String event;
+        private EventPayload payload;
+        private MessageTrace trace;
+
+        @Override
+        public void run() {
+            final String event = this.event;
+            final EventPayload payload = this.payload;
+            final MessageTrace trace = this.trace;
+            this.event = null;
+            this.payload = null;
+            this.trace = null;
+            synchronized (deliveryPool) {
+                if (deliveryPool.size() < MAX_POOLED_DELIVERIES) {
+                    deliveryPool.offer(this);
+                }
+            }
+            try {
+                deliver(event, payload, trace);
+            }
+            finally {
+                release(payload);
+            }
+        }
+    }
+
+    private void publish(final Event event) {
+        for (final BufferedEventSubscription subscription : subscriptions) {
+            if (subscription.isTerminated()) {
+                subscriptions.remove(subscription);
+            }
+            else {
+                subscription.onEvent(event);
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    private String extractDataFrom(final String message) {
+    private EventPayload extractDataFrom(final EventPayload message) {
 //        final Map<Object, Object> jsonObject = GSON.fromJson(message, Map.class);
 //        return (String)jsonObject.get("data");
         return message;
@@ -22,25 +22,59 @@ import com.websocket.client.channel.Channel;
 import com.websocket.client.channel.ChannelEventListener;
 import com.websocket.client.channel.ChannelState;
 import com.websocket.client.channel.ChannelUnsubscriptionEventListener;
+import com.websocket.client.channel.EventPayload;
 import com.websocket.client.connection.ConnectionEventListener;
 import com.websocket.client.connection.ConnectionState;
 import com.websocket.client.connection.ConnectionStateChange;
 import com.websocket.client.connection.impl.InternalConnection;
 import com.websocket.client.util.Constants;
 import com.websocket.client.util.Factory;
-
+import com.websocket.client.util.FragmentStream;
+import com.websocket.client.util.InboundBudget;
+import com.websocket.client.util.MessageDeduplicator;
+import com.websocket.client.util.MessageTrace;
+import com.websocket.client.util.TimeoutWheel;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 public class ChannelManager implements ConnectionEventListener {
 
+    private static final String SUBSCRIPTION_SUCCESS_EVENT = "103";
+    private static final long DEFAULT_SUBSCRIBE_TIMEOUT = 10000;
+    private static final int DEFAULT_SUBSCRIBE_RETRIES = 3;
+    // caps the backoff at 2^5 times the subscribe timeout
+    private static final int MAX_BACKOFF_SHIFT = 5;
+    // keeps batched subscribe and unsubscribe messages of large groups to a moderate size
+    private static final int MAX_CHANNELS_PER_MESSAGE = 100;
     private static final Gson GSON = new Gson();
-    private final Map<String, InternalChannel> channelNameToChannelMap = new HashMap<String, InternalChannel>();
+
+    // written by the application's threads and read on the control and inbound threads
+    private final ConcurrentMap<String, InternalChannel> channelNameToChannelMap = new ConcurrentHashMap<String, InternalChannel>();
+    private final Set<ChannelGroupImpl> groups = Collections.newSetFromMap(new ConcurrentHashMap<ChannelGroupImpl, Boolean>());
+    // deadlines for subscribes awaiting their acknowledgement, only used on the control thread
+    private final Map<String, TimeoutWheel.Timeout> acknowledgementDeadlines = new HashMap<String, TimeoutWheel.Timeout>();
+    private long subscribeTimeout = DEFAULT_SUBSCRIBE_TIMEOUT;
+    private int subscribeRetries = DEFAULT_SUBSCRIBE_RETRIES;
     private final Factory factory;
     private InternalConnection connection;
+    // null when deduplication is disabled, only used on the inbound thread
+    private final MessageDeduplicator deduplicator;
+    // null when received data has no memory budget
+    private final InboundBudget inboundBudget;
 
     public ChannelManager(final Factory factory) {
         this.factory = factory;
+        deduplicator = factory.getMessageDeduplicator();
+        inboundBudget = factory.getInboundBudget();
     }
 
     public Channel getChannel(String channelName) {
@@ -64,6 +98,17 @@ public class ChannelManager implements ConnectionEventListener {
         connection.bind(ConnectionState.CONNECTED, this);
     }
 
+    /**
+     * @param subscribeTimeout time to wait for the first subscribe to be
+     *            acknowledged, in milliseconds, doubled for every retry
+     * @param subscribeRetries the number of times to resend an unacknowledged
+     *            subscribe before the channel fails
+     */
+    public void setSubscribeTimeout(final long subscribeTimeout, final int subscribeRetries) {
+        this.subscribeTimeout = subscribeTimeout;
+        this.subscribeRetries = subscribeRetries;
+    }
+
     public void subscribeTo(final InternalChannel channel, final ChannelEventListener listener,
                             final String... eventNames) {
         try {
@@ -76,6 +121,77 @@ public class ChannelManager implements ConnectionEventListener {
 
     }
 
+    /**
+     * Subscribes every channel of the group or, if any of them is already
+     * subscribed, none of them.
+     *
+     * @throws IllegalArgumentException if a channel of the group is already
+     *             subscribed
+     */
+    public void subscribeGroup(final ChannelGroupImpl group, final ChannelEventListener listener) {
+        final List<InternalChannel> channels = group.getInternalChannels();
+        for (final InternalChannel channel : channels) {
+            channel.setEventListener(listener);
+        }
+
+        final List<InternalChannel> added = new ArrayList<InternalChannel>(channels.size());
+        for (final InternalChannel channel : channels) {
+            if (channelNameToChannelMap.putIfAbsent(channel.getName(), channel) != null) {
+                for (final InternalChannel addedChannel : added) {
+                    channelNameToChannelMap.remove(addedChannel.getName(), addedChannel);
+                }
+                throw new IllegalArgumentException("Already subscribed to a channel with name " + channel.getName());
+            }
+            added.add(channel);
+        }
+        groups.add(group);
+
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (connection.getState() == ConnectionState.CONNECTED) {
+                    sendGroupSubscribe(group);
+                }
+            }
+        });
+    }
+
+    /**
+     * Unsubscribes every channel of the group that is still subscribed, with
+     * batched unsubscribe messages.
+     */
+    public void unsubscribeGroup(final ChannelGroupImpl group) {
+        if (!group.markUnsubscribed()) {
+            return;
+        }
+        groups.remove(group);
+
+        final List<InternalChannel> removed = new ArrayList<InternalChannel>();
+        for (final InternalChannel channel : group.getInternalChannels()) {
+            if (channelNameToChannelMap.remove(channel.getName(), channel)) {
+                removed.add(channel);
+            }
+        }
+
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                for (final InternalChannel channel : removed) {
+                    cancelAcknowledgementDeadline(channel.getName());
+                }
+                if (connection.getState() == ConnectionState.CONNECTED) {
+                    sendBatched(Constants.UNSUBSCRIBE, removed);
+                    for (final InternalChannel channel : removed) {
+                        channel.updateState(ChannelState.UNSUBSCRIBED);
+                    }
+                }
+                for (final InternalChannel channel : removed) {
+                    factory.releaseChannelThread(channel.getName());
+                }
+            }
+        });
+    }
+
     public void unsubscribeFrom(final String channelName, final ChannelUnsubscriptionEventListener channelUnsubscriptionEventListeneristener) {
 
         if (channelName == null) {
@@ -89,25 +205,63 @@ public class ChannelManager implements ConnectionEventListener {
         channel.setUnsubscribeEventListener(channelUnsubscriptionEventListeneristener);
         if (connection.getState() == ConnectionState.CONNECTED) {
             sendUnsubscribeMessage(channel);
+        } else {
+            factory.releaseChannelThread(channelName);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public void onMessage(final String event, final String wholeMessage) {
-
-        final Map<Object, Object> json = GSON.fromJson(wholeMessage, Map.class);
-        final Object channelNameObject = json.get(Constants.CHANNEL);
-
-        if (channelNameObject != null) {
-            final String channelName = (String) channelNameObject;
+    /**
+     * Runs on the inbound thread. Acknowledgement deadlines belong to the
+     * control thread, so a subscription success only queues its cancel there.
+     *
+     * @param messageId the id of the message, or null if it has none or
+     *            messages are not deduplicated
+     */
+    public void onMessage(final String event, final String channelName, final String messageId,
+                          final EventPayload payload, final MessageTrace trace) {
+
+        if (channelName != null) {
             final InternalChannel channel = channelNameToChannelMap.get(channelName);
 
             if (channel != null) {
-                channel.onMessage(event, wholeMessage);
+                if (SUBSCRIPTION_SUCCESS_EVENT.equals(event)) {
+                    factory.queueOnControlThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            cancelAcknowledgementDeadline(channelName);
+                        }
+                    });
+                }
+                else if (messageId != null && deduplicator != null && deduplicator.isDuplicate(messageId)) {
+                    return;
+                }
+                else if (inboundBudget != null && inboundBudget.shouldShed(channelName)) {
+                    inboundBudget.recordShed(payload.getReceivedBytes());
+                    return;
+                }
+                channel.onMessage(event, payload, trace);
             }
         }
     }
 
+    /**
+     * Runs on the inbound thread, for an event larger than the streaming
+     * threshold that is still being received.
+     */
+    public void onMessageStream(final String event, final String channelName, final FragmentStream stream) {
+        final InternalChannel channel = channelNameToChannelMap.get(channelName);
+        if (channel == null) {
+            factory.queueOnStreamThread(new Runnable() {
+                @Override
+                public void run() {
+                    stream.discard();
+                }
+            });
+            return;
+        }
+        channel.onMessageStream(event, stream);
+    }
+
     /* ConnectionEventListener implementation */
 
     @Override
@@ -116,7 +270,12 @@ public class ChannelManager implements ConnectionEventListener {
         if (change.getCurrentState() == ConnectionState.CONNECTED) {
 
             for (final InternalChannel channel : channelNameToChannelMap.values()) {
-                sendOrQueueSubscribeMessage(channel);
+                if (channel.getGroup() == null) {
+                    sendOrQueueSubscribeMessage(channel);
+                }
+            }
+            for (final ChannelGroupImpl group : groups) {
+                sendGroupSubscribe(group);
             }
         }
     }
@@ -130,26 +289,129 @@ public class ChannelManager implements ConnectionEventListener {
 
     private void sendOrQueueSubscribeMessage(final InternalChannel channel) {
 
-        factory.queueOnEventThread(new Runnable() {
+        factory.queueOnControlThread(new Runnable() {
 
             @Override
             public void run() {
 
                 if (connection.getState() == ConnectionState.CONNECTED) {
                     final String message = channel.toSubscribeMessage();
-                    connection.sendMessage(message);
+                    connection.sendControlMessage(message);
                     channel.updateState(ChannelState.SUBSCRIBE_SENT);
+                    awaitAcknowledgement(channel, 0);
                 }
             }
         });
     }
 
+    /**
+     * Runs on the control thread. Sends the subscribes of the group's channels
+     * that are still subscribed in batched messages and starts a new round of
+     * acknowledgements for the group.
+     */
+    private void sendGroupSubscribe(final ChannelGroupImpl group) {
+        final List<InternalChannel> channels = new ArrayList<InternalChannel>();
+        for (final InternalChannel channel : group.getInternalChannels()) {
+            if (channelNameToChannelMap.get(channel.getName()) == channel) {
+                channels.add(channel);
+            }
+        }
+        if (group.isUnsubscribed() || channels.isEmpty()) {
+            return;
+        }
+
+        group.expectAcknowledgements(channels.size());
+        sendBatched(Constants.SUBSCRIBE, channels);
+        for (final InternalChannel channel : channels) {
+            channel.updateState(ChannelState.SUBSCRIBE_SENT);
+            awaitAcknowledgement(channel, 0);
+        }
+    }
+
+    /**
+     * Runs on the control thread. Sends one command for many channels, as
+     * <code>{"command":"subscribe","channels":["a","b"]}</code>, splitting
+     * the channels over several messages if there are many.
+     */
+    private void sendBatched(final String command, final List<InternalChannel> channels) {
+        for (int from = 0; from < channels.size(); from += MAX_CHANNELS_PER_MESSAGE) {
+            final List<String> names = new ArrayList<String>();
+            for (final InternalChannel channel : channels.subList(from,
+                    Math.min(from + MAX_CHANNELS_PER_MESSAGE, channels.size()))) {
+                names.add(channel.getName());
+            }
+
+            final Map<Object, Object> jsonObject = new LinkedHashMap<Object, Object>();
+            jsonObject.put(Constants.COMMAND, command);
+            jsonObject.put(Constants.CHANNELS, names);
+            connection.sendControlMessage(GSON.toJson(jsonObject));
+        }
+    }
+
+    /**
+     * Runs on the control thread. All deadlines share the one timeout wheel, so
+     * a pending subscribe costs a single wheel entry rather than a scheduled
+     * future.
+     */
+    private void awaitAcknowledgement(final InternalChannel channel, final int attempt) {
+        final long delay = subscribeTimeout << Math.min(attempt, MAX_BACKOFF_SHIFT);
+        final TimeoutWheel.Timeout deadline = factory.getTimeoutWheel().schedule(new Runnable() {
+            @Override
+            public void run() {
+                factory.queueOnControlThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onAcknowledgementTimeout(channel, attempt);
+                    }
+                });
+            }
+        }, delay);
+
+        final TimeoutWheel.Timeout previous = acknowledgementDeadlines.put(channel.getName(), deadline);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    private void onAcknowledgementTimeout(final InternalChannel channel, final int attempt) {
+        final String channelName = channel.getName();
+        if (acknowledgementDeadlines.remove(channelName) == null
+                || channelNameToChannelMap.get(channelName) != channel
+                || channel.getState() != ChannelState.SUBSCRIBE_SENT) {
+            return;
+        }
+
+        // subscribes are sent again for every channel once reconnected
+        if (connection.getState() != ConnectionState.CONNECTED) {
+            return;
+        }
+
+        if (attempt < subscribeRetries) {
+            Log.v("message", "Resending unacknowledged subscribe to channel " + channelName);
+            connection.sendControlMessage(channel.toSubscribeMessage());
+            awaitAcknowledgement(channel, attempt + 1);
+        }
+        else {
+            clearDownSubscription(channel, new TimeoutException("Subscription to channel " + channelName
+                    + " was not acknowledged after " + (attempt + 1) + " attempts"));
+        }
+    }
+
+    private void cancelAcknowledgementDeadline(final String channelName) {
+        final TimeoutWheel.Timeout deadline = acknowledgementDeadlines.remove(channelName);
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
     private void sendUnsubscribeMessage(final InternalChannel channel) {
-        factory.queueOnEventThread(new Runnable() {
+        factory.queueOnControlThread(new Runnable() {
             @Override
             public void run() {
-                connection.sendMessage(channel.toUnsubscribeMessage());
+                cancelAcknowledgementDeadline(channel.getName());
+                connection.sendControlMessage(channel.toUnsubscribeMessage());
                 channel.updateState(ChannelState.UNSUBSCRIBED);
+                factory.releaseChannelThread(channel.getName());
             }
         });
     }
@@ -157,7 +419,8 @@ public class ChannelManager implements ConnectionEventListener {
     private void clearDownSubscription(final InternalChannel channel, final Exception e) {
 
         channelNameToChannelMap.remove(channel.getName());
-        channel.updateState(ChannelState.FAILED);
+        channel.onSubscriptionFailed(e);
+        factory.releaseChannelThread(channel.getName());
     }
 
     private void validateArgumentsAndBindEvents(final InternalChannel channel, final ChannelEventListener listener,
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.google.gson.JsonSyntaxException;
+import com.websocket.client.channel.EventFilter;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.util.JsonFieldScanner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link EventFilter} prepared for checking events on the inbound path.
+ * The event name is checked first, so events filtered out by name are never
+ * scanned. Conditions read only the fields they need from the raw message
+ * with a {@link JsonFieldScanner}, and numeric values are parsed once here
+ * rather than for every event.
+ *
+ * Must only be used on the inbound thread, as the scanner is reused.
+ */
+class CompiledEventFilter {
+
+    private final EventFilter filter;
+    private final Set<String> eventNames;
+    private final JsonFieldScanner scanner;
+    private final String[] values;
+    private final int[] fieldIndexes;
+    private final EventFilter.Operator[] operators;
+    private final double[] numbers;
+    private final String[] texts;
+
+    CompiledEventFilter(final EventFilter filter) {
+        this.filter = filter;
+        eventNames = new HashSet<String>(filter.getEventNames());
+
+        final List<EventFilter.Condition> conditions = filter.getConditions();
+        final List<String> fields = new ArrayList<String>();
+        fieldIndexes = new int[conditions.size()];
+        operators = new EventFilter.Operator[conditions.size()];
+        numbers = new double[conditions.size()];
+        texts = new String[conditions.size()];
+
+        for (int i = 0; i < conditions.size(); i++) {
+            final EventFilter.Condition condition = conditions.get(i);
+            int index = fields.indexOf(condition.getField());
+            if (index < 0) {
+                index = fields.size();
+                fields.add(condition.getField());
+            }
+            fieldIndexes[i] = index;
+            operators[i] = condition.getOperator();
+            if (condition.getValue() instanceof Number) {
+                numbers[i] = ((Number) condition.getValue()).doubleValue();
+            }
+            else {
+                texts[i] = condition.getValue().toString();
+            }
+        }
+
+        scanner = fields.isEmpty() ? null : new JsonFieldScanner(fields.toArray(new String[fields.size()]));
+        values = new String[fields.size()];
+    }
+
+    /**
+     * Checks the event name only, for events that are not held in memory.
+     */
+    boolean matchesEvent(final String event) {
+        return eventNames.isEmpty() || eventNames.contains(event);
+    }
+
+    boolean matches(final String event, final EventPayload payload) {
+        if (!matchesEvent(event)) {
+            return false;
+        }
+        if (scanner == null) {
+            return true;
+        }
+
+        try {
+            if (payload.isDecoded()) {
+                scanner.scan(payload.asString(), values);
+            }
+            else {
+                scanner.scan(payload.asByteBuffer(), values);
+            }
+        }
+        catch (final JsonSyntaxException e) {
+            return false;
+        }
+
+        for (int i = 0; i < operators.length; i++) {
+            if (!holds(i, values[fieldIndexes[i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the filter as sent in the subscribe request
+     */
+    Map<String, Object> toJson() {
+        final List<Map<String, Object>> where = new ArrayList<Map<String, Object>>();
+        for (final EventFilter.Condition condition : filter.getConditions()) {
+            final Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("field", condition.getField());
+            json.put("op", condition.getOperator().getWireName());
+            json.put("value", condition.getValue());
+            where.add(json);
+        }
+
+        final Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("events", filter.getEventNames());
+        json.put("where", where);
+        return json;
+    }
+
+    private boolean holds(final int condition, final String value) {
+        if (value == null) {
+            return false;
+        }
+
+        final EventFilter.Operator operator = operators[condition];
+        if (texts[condition] != null) {
+            final boolean equal = texts[condition].equals(value);
+            return operator == EventFilter.Operator.EQ ? equal : !equal;
+        }
+
+        final double number;
+        try {
+            number = Double.parseDouble(value);
+        }
+        catch (final NumberFormatException e) {
+            return false;
+        }
+
+        final double expected = numbers[condition];
+        switch (operator) {
+            case EQ:
+                return number == expected;
+            case NE:
+                return number != expected;
+            case GT:
+                return number > expected;
+            case GE:
+                return number >= expected;
+            case LT:
+                return number < expected;
+            default:
+                return number <= expected;
+        }
+    }
+}
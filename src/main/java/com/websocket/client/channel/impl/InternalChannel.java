@@ -19,6 +19,10 @@ import com.websocket.client.channel.Channel;
 import com.websocket.client.channel.ChannelEventListener;
 import com.websocket.client.channel.ChannelState;
 import com.websocket.client.channel.ChannelUnsubscriptionEventListener;
+import com.websocket.client.channel.EventFilter;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.util.FragmentStream;
+import com.websocket.client.util.MessageTrace;
 
 public interface InternalChannel extends Channel, Comparable<InternalChannel> {
 
@@ -26,13 +30,50 @@ public interface InternalChannel extends Channel, Comparable<InternalChannel> {
 
     String toUnsubscribeMessage();
 
-    void onMessage(String event, String message);
+    void onMessage(String event, EventPayload payload, MessageTrace trace);
+
+    /**
+     * Delivers an event that is still being received. The stream must be
+     * discarded once it has been read, or if it is not wanted.
+     */
+    void onMessageStream(String event, FragmentStream stream);
 
     void updateState(ChannelState state);
 
+    ChannelState getState();
+
+    /**
+     * Moves the channel to {@link ChannelState#FAILED} and tells its listener
+     * why, if it is a {@link com.websocket.client.channel.SubscriptionFailureEventListener}.
+     */
+    void onSubscriptionFailed(Exception e);
+
     void setEventListener(ChannelEventListener listener);
 
+    /**
+     * Sends the filter with the subscribe request and drops events that do
+     * not match it before they are dispatched.
+     */
+    void setFilter(EventFilter filter);
+
+    /**
+     * Asks the server to send the channel's current state with the
+     * subscription acknowledgement, holding back events until it arrives.
+     */
+    void setSnapshotOnSubscribe(boolean snapshotOnSubscribe);
+
     void setUnsubscribeEventListener(ChannelUnsubscriptionEventListener listener);
 
+    /**
+     * Reports the channel's acknowledgement or failure to the group it was
+     * subscribed with.
+     */
+    void setGroup(ChannelGroupImpl group);
+
+    /**
+     * @return The group the channel was subscribed with, or null.
+     */
+    ChannelGroupImpl getGroup();
+
     ChannelEventListener getEventListener();
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.websocket.client.channel.ChannelEventListener;
+import com.websocket.client.channel.ChannelState;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.channel.PresenceChannel;
+import com.websocket.client.channel.PresenceChannelEventListener;
+import com.websocket.client.util.Constants;
+import com.websocket.client.util.Factory;
+import com.websocket.client.util.LongHashSet;
+import com.websocket.client.util.MessageTrace;
+import com.websocket.client.util.NameTable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Keeps the member set of a presence channel. The subscription
+ * acknowledgement carries the ids of every member in its message field, and
+ * member added and removed events carry one id or an array of them. The set
+ * is only changed on the channel's delivery lane, in the order the messages
+ * arrived, and is read under a lock so that queries from any thread are
+ * constant time.
+ */
+public class PresenceChannelImpl extends ChannelImpl implements PresenceChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceChannelImpl.class);
+    private static final String SUBSCRIPTION_SUCCESS_EVENT = "103";
+    private static final String MEMBER_ADDED_EVENT = "qsocket_internal:member_added";
+    private static final String MEMBER_REMOVED_EVENT = "qsocket_internal:member_removed";
+
+    private final Object membersLock = new Object();
+    // replaced by each member list, changed in place by deltas; guarded by membersLock
+    private LongHashSet members = new LongHashSet();
+
+    public PresenceChannelImpl(final String channelName, final Factory factory) {
+        super(channelName, factory);
+
+        final NameTable names = factory.getNameTable();
+        names.intern(MEMBER_ADDED_EVENT);
+        names.intern(MEMBER_REMOVED_EVENT);
+    }
+
+    /* PresenceChannel implementation */
+
+    @Override
+    public boolean isMember(final long memberId) {
+        synchronized (membersLock) {
+            return members.contains(memberId);
+        }
+    }
+
+    @Override
+    public int getMemberCount() {
+        synchronized (membersLock) {
+            return members.size();
+        }
+    }
+
+    @Override
+    public long[] getMembers() {
+        synchronized (membersLock) {
+            return members.toArray();
+        }
+    }
+
+    /* InternalChannel implementation */
+
+    @Override
+    public void onMessage(final String event, final EventPayload payload, final MessageTrace trace) {
+        if (SUBSCRIPTION_SUCCESS_EVENT.equals(event)) {
+            super.onMessage(event, payload, trace);
+            queueMembershipChange(event, payload);
+        }
+        else if (MEMBER_ADDED_EVENT.equals(event) || MEMBER_REMOVED_EVENT.equals(event)) {
+            // changes sent before the acknowledgement are part of its member list
+            if (state == ChannelState.SUBSCRIBED) {
+                queueMembershipChange(event, payload);
+            }
+        }
+        else {
+            super.onMessage(event, payload, trace);
+        }
+    }
+
+    @Override
+    protected void addSubscribeFields(final Map<Object, Object> jsonObject) {
+        jsonObject.put(Constants.PRESENCE, true);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Presence Channel: name=%s]", name);
+    }
+
+    /* implementation detail */
+
+    private void queueMembershipChange(final String event, final EventPayload payload) {
+        charge(payload);
+        factory.queueOnChannelThread(name, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    applyMembershipChange(event, payload);
+                }
+                finally {
+                    release(payload);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the channel's delivery lane.
+     */
+    private void applyMembershipChange(final String event, final EventPayload payload) {
+        final long[] ids;
+        try {
+            ids = readMemberIds(payload);
+        }
+        catch (final IOException e) {
+            log.warn("Ignoring unreadable " + event + " message on channel " + name, e);
+            return;
+        }
+        catch (final JsonParseException e) {
+            log.warn("Ignoring unreadable " + event + " message on channel " + name, e);
+            return;
+        }
+        catch (final IllegalStateException e) {
+            log.warn("Ignoring unreadable " + event + " message on channel " + name, e);
+            return;
+        }
+        catch (final NumberFormatException e) {
+            log.warn("Ignoring " + event + " message with a member id that is not a number on channel " + name, e);
+            return;
+        }
+
+        final ChannelEventListener listener = getEventListener();
+        final PresenceChannelEventListener presenceListener =
+                listener instanceof PresenceChannelEventListener ? (PresenceChannelEventListener) listener : null;
+
+        if (SUBSCRIPTION_SUCCESS_EVENT.equals(event)) {
+            // built outside the lock so a large list does not hold up queries
+            final LongHashSet received = new LongHashSet(ids.length);
+            for (final long id : ids) {
+                received.add(id);
+            }
+            synchronized (membersLock) {
+                members = received;
+            }
+            if (presenceListener != null) {
+                presenceListener.onMembersReceived(name, received.size());
+            }
+            return;
+        }
+
+        final boolean added = MEMBER_ADDED_EVENT.equals(event);
+        for (final long id : ids) {
+            final boolean changed;
+            synchronized (membersLock) {
+                changed = added ? members.add(id) : members.remove(id);
+            }
+            if (changed && presenceListener != null) {
+                if (added) {
+                    presenceListener.onMemberAdded(name, id);
+                }
+                else {
+                    presenceListener.onMemberRemoved(name, id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the member ids in the message field, which holds one id or an
+     *         array of them, as numbers or numeric strings
+     */
+    private static long[] readMemberIds(final EventPayload payload) throws IOException {
+        final JsonReader reader = new JsonReader(payload.asReader());
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!Constants.MESSAGE.equals(reader.nextName())) {
+                    reader.skipValue();
+                }
+                else if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    long[] ids = new long[16];
+                    int count = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = reader.nextLong();
+                    }
+                    return Arrays.copyOf(ids, count);
+                }
+                else if (reader.peek() == JsonToken.NULL) {
+                    return new long[0];
+                }
+                else {
+                    return new long[] { reader.nextLong() };
+                }
+            }
+            return new long[0];
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
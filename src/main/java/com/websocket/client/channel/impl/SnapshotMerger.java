@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.google.gson.JsonSyntaxException;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.util.Constants;
+import com.websocket.client.util.JsonFieldScanner;
+import com.websocket.client.util.MessageTrace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Holds back the events of a channel subscribed with a snapshot until the
+ * snapshot arrives with the subscription acknowledgement, then hands them
+ * back in sequence order without those the snapshot already covers. Events
+ * without a sequence number cannot be placed, so they follow the sequenced
+ * ones in the order they arrived. Callers hold its monitor, as events are
+ * checked on the inbound thread and subscribes reset it on the control
+ * thread.
+ */
+class SnapshotMerger {
+
+    static final long NO_SEQUENCE = Long.MIN_VALUE;
+
+    private static final Comparator<HeldEvent> BY_SEQUENCE = new Comparator<HeldEvent>() {
+        @Override
+        public int compare(final HeldEvent a, final HeldEvent b) {
+            final long x = a.sequence == NO_SEQUENCE ? Long.MAX_VALUE : a.sequence;
+            final long y = b.sequence == NO_SEQUENCE ? Long.MAX_VALUE : b.sequence;
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    private final JsonFieldScanner scanner = new JsonFieldScanner(Constants.SEQUENCE);
+    private final String[] values = new String[1];
+    private final List<HeldEvent> held = new ArrayList<HeldEvent>();
+    private boolean awaitingSnapshot;
+    // after the snapshot, until the first live event goes through, events it covers are dropped
+    private boolean catchingUp;
+    private long lastSequence = NO_SEQUENCE;
+
+    boolean isAwaitingSnapshot() {
+        return awaitingSnapshot;
+    }
+
+    /**
+     * Starts holding back events, as a subscribe request asking for a
+     * snapshot has been sent.
+     *
+     * @return the events held back for an earlier request, which are dropped
+     */
+    List<HeldEvent> awaitSnapshot() {
+        awaitingSnapshot = true;
+        catchingUp = false;
+        lastSequence = NO_SEQUENCE;
+        return clear();
+    }
+
+    void hold(final String event, final EventPayload payload, final MessageTrace trace) {
+        held.add(new HeldEvent(event, payload, trace, sequenceOf(payload)));
+    }
+
+    /**
+     * @param acknowledgement the acknowledgement carrying the snapshot and
+     *            the sequence number it is current to
+     * @return the events held back, in the order to deliver them; pass each
+     *         to {@link #covers(long)} to drop those already covered
+     */
+    List<HeldEvent> onSnapshot(final EventPayload acknowledgement) {
+        awaitingSnapshot = false;
+        catchingUp = true;
+        lastSequence = sequenceOf(acknowledgement);
+        Collections.sort(held, BY_SEQUENCE);
+        return clear();
+    }
+
+    /**
+     * @return true if an event with the given sequence number is covered by
+     *         the snapshot or an event already delivered after it
+     */
+    boolean covers(final long sequence) {
+        if (!catchingUp || sequence == NO_SEQUENCE) {
+            return false;
+        }
+        if (sequence <= lastSequence) {
+            return true;
+        }
+        lastSequence = sequence;
+        return false;
+    }
+
+    /**
+     * Checks a live event while catching up. The first one that is not
+     * covered ends catching up, as the server sends later events in order.
+     */
+    boolean covers(final EventPayload payload) {
+        if (!catchingUp) {
+            return false;
+        }
+        if (covers(sequenceOf(payload))) {
+            return true;
+        }
+        catchingUp = false;
+        return false;
+    }
+
+    /**
+     * @return the events held back, which are dropped
+     */
+    List<HeldEvent> clear() {
+        if (held.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<HeldEvent> events = new ArrayList<HeldEvent>(held);
+        held.clear();
+        return events;
+    }
+
+    private long sequenceOf(final EventPayload payload) {
+        try {
+            if (payload.isDecoded()) {
+                scanner.scan(payload.asString(), values);
+            }
+            else {
+                scanner.scan(payload.asByteBuffer(), values);
+            }
+            return values[0] == null ? NO_SEQUENCE : Long.parseLong(values[0]);
+        }
+        catch (final JsonSyntaxException e) {
+            return NO_SEQUENCE;
+        }
+        catch (final NumberFormatException e) {
+            return NO_SEQUENCE;
+        }
+        finally {
+            values[0] = null;
+        }
+    }
+
+    static final class HeldEvent {
+        final String event;
+        final EventPayload payload;
+        final MessageTrace trace;
+        final long sequence;
+
+        HeldEvent(final String event, final EventPayload payload, final MessageTrace trace, final long sequence) {
+            this.event = event;
+            this.payload = payload;
+            this.trace = trace;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.websocket.client.channel.ChannelEventListener;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.channel.PayloadEventListener;
+import com.websocket.client.channel.TypedEventListener;
+import com.websocket.client.util.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Decodes the message field of each event straight from the received bytes
+ * into the listener's type, in one pass and without building a tree or a
+ * String first. The TypeAdapter is resolved once, when subscribing.
+ */
+public class TypedListenerAdapter<T> implements ChannelEventListener, PayloadEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TypedListenerAdapter.class);
+
+    private final TypeAdapter<T> adapter;
+    private final TypedEventListener<T> listener;
+
+    public TypedListenerAdapter(final TypeAdapter<T> adapter, final TypedEventListener<T> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Cannot subscribe with a null listener");
+        }
+        this.adapter = adapter;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onEvent(final String channelName, final String eventName, final EventPayload payload) {
+        final T data;
+        try {
+            data = decode(payload);
+        }
+        catch (final IOException e) {
+            log.warn("Dropping " + eventName + " event on channel " + channelName + " that could not be decoded", e);
+            return;
+        }
+        catch (final JsonParseException e) {
+            log.warn("Dropping " + eventName + " event on channel " + channelName + " that could not be decoded", e);
+            return;
+        }
+        catch (final IllegalStateException e) {
+            log.warn("Dropping " + eventName + " event on channel " + channelName + " that is not a JSON object", e);
+            return;
+        }
+        listener.onEvent(channelName, eventName, data);
+    }
+
+    @Override
+    public void onEvent(final String channelName, final String eventName, final String data) {
+        onEvent(channelName, eventName, EventPayload.of(data));
+    }
+
+    @Override
+    public void onSubscriptionSucceeded(final String channelName) {
+        // typed listeners only receive events
+    }
+
+    /**
+     * @return the decoded message field, or null if the event has none
+     */
+    private T decode(final EventPayload payload) throws IOException {
+        final JsonReader reader = new JsonReader(payload.asReader());
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (Constants.MESSAGE.equals(reader.nextName())) {
+                    return adapter.read(reader);
+                }
+                reader.skipValue();
+            }
+            return null;
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the TypeAdapter used to read and write payloads of a given type,
+ * preferring the codec generated for {@link QSocketEvent} classes and falling
+ * back to Gson. Each type is resolved once and the adapter is cached, so the
+ * codec lookup costs a single class load per type.
+ * <p/>
+ * Generated codecs are named after the payload class, with nested class
+ * names joined by underscores and <code>_QSocketCodec</code> appended. They
+ * read fields of other types with the Gson they were created for, so a Gson
+ * with {@link #FACTORY} registered also uses generated codecs for annotated
+ * classes inside collections, maps and other payloads.
+ */
+public class PayloadCodecs {
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadCodecs.class);
+    static final String CODEC_SUFFIX = "_QSocketCodec";
+
+    /**
+     * Creates the generated codec of a type, if it has one, for registering
+     * with a GsonBuilder.
+     */
+    public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+            return generatedCodec(gson, type);
+        }
+    };
+
+    private final Gson gson;
+    private final ConcurrentMap<TypeToken<?>, TypeAdapter<?>> adapters = new ConcurrentHashMap<TypeToken<?>, TypeAdapter<?>>();
+
+    public PayloadCodecs(final Gson gson) {
+        this.gson = gson;
+    }
+
+    public <T> TypeAdapter<T> getAdapter(final Class<T> type) {
+        return getAdapter(TypeToken.get(type));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> getAdapter(final TypeToken<T> type) {
+        TypeAdapter<T> adapter = (TypeAdapter<T>) adapters.get(type);
+        if (adapter == null) {
+            // checked first so that a Gson without FACTORY still uses codecs for top level payloads
+            adapter = generatedCodec(gson, type);
+            if (adapter == null) {
+                adapter = gson.getAdapter(type);
+            }
+            final TypeAdapter<?> existing = adapters.putIfAbsent(type, adapter);
+            if (existing != null) {
+                adapter = (TypeAdapter<T>) existing;
+            }
+        }
+        return adapter;
+    }
+
+    /**
+     * Writes a value with the adapter for its runtime class, as Gson's toJson
+     * does.
+     */
+    @SuppressWarnings("unchecked")
+    public void write(final JsonWriter out, final Object value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        final TypeAdapter<Object> adapter = (TypeAdapter<Object>) getAdapter(value.getClass());
+        adapter.write(out, value);
+    }
+
+    /**
+     * @return true if payloads of the given class are read and written by a
+     *         generated codec rather than by Gson
+     */
+    public boolean hasGeneratedCodec(final Class<?> type) {
+        return getAdapter(type).getClass().getName().endsWith(CODEC_SUFFIX);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> TypeAdapter<T> generatedCodec(final Gson gson, final TypeToken<T> type) {
+        // annotated classes cannot be generic, so only plain classes can have a codec
+        if (!(type.getType() instanceof Class)) {
+            return null;
+        }
+        final Class<?> rawType = type.getRawType();
+        if (rawType.isPrimitive() || rawType.isArray() || isPlatformClass(rawType.getName())) {
+            return null;
+        }
+
+        final Class<?> codecClass;
+        try {
+            codecClass = Class.forName(codecName(rawType.getName()), true, rawType.getClassLoader());
+        }
+        catch (final ClassNotFoundException e) {
+            return null;
+        }
+
+        try {
+            return (TypeAdapter<T>) codecClass.getConstructor(Gson.class).newInstance(gson);
+        }
+        catch (final NoSuchMethodException e) {
+            log.warn("Using Gson for " + rawType.getName() + " as its codec cannot be created", e);
+        }
+        catch (final InstantiationException e) {
+            log.warn("Using Gson for " + rawType.getName() + " as its codec cannot be created", e);
+        }
+        catch (final IllegalAccessException e) {
+            log.warn("Using Gson for " + rawType.getName() + " as its codec cannot be created", e);
+        }
+        catch (final InvocationTargetException e) {
+            log.warn("Using Gson for " + rawType.getName() + " as its codec cannot be created", e);
+        }
+        return null;
+    }
+
+    static String codecName(final String className) {
+        final int packageEnd = className.lastIndexOf('.') + 1;
+        return className.substring(0, packageEnd) + className.substring(packageEnd).replace('$', '_') + CODEC_SUFFIX;
+    }
+
+    private static boolean isPlatformClass(final String className) {
+        return className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("android.")
+                || className.startsWith("com.google.gson.");
+    }
+}
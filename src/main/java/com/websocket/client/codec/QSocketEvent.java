@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a payload class for the QSocket annotation processor, which generates
+ * a streaming codec for it at compile time. Typed listeners and requests then
+ * read and write the class without reflection, falling back to Gson for
+ * classes that have no generated codec.
+ * <p/>
+ * The class must not be private, abstract or generic, nested classes must be
+ * static, and it needs a constructor without arguments that is not private.
+ * Every field that is not static or transient is encoded, under the name
+ * given by Gson's <code>SerializedName</code> if present. Private fields need
+ * a getter and a setter. Fields of superclasses are not encoded.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface QSocketEvent {
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection;
+
+/**
+ * An error reported by the QSocket server in reply to a message.
+ */
+public class QSocketException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+    private final String code;
+
+    public QSocketException(final String message, final String code) {
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * @return The error code sent by the server. Can be null.
+     */
+    public String getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection;
+
+import java.io.IOException;
+
+/**
+ * An outbound message was not sent because of the client side rate limit.
+ */
+public class RateLimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RateLimitExceededException(final String message) {
+        super(message);
+    }
+}
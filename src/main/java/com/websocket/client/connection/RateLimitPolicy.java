@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection;
+
+/**
+ * What happens to an outbound message when the rate limit set with
+ * {@link com.websocket.client.QSocketOptions#setRateLimit(double, long, RateLimitPolicy)}
+ * has been reached.
+ */
+public enum RateLimitPolicy {
+
+    /**
+     * Hold the message and send it, in order, once the limit allows.
+     */
+    QUEUE,
+
+    /**
+     * Do not send the message. Connection listeners receive a
+     * {@link RateLimitExceededException} through onError, and a message sent
+     * with a response future fails with it.
+     */
+    REJECT,
+
+    /**
+     * Hold the message like {@link #QUEUE}, but a later message for the same
+     * channel and eventType replaces one still waiting, so only the latest is
+     * sent. A replaced message's response future fails with a
+     * {@link RateLimitExceededException}.
+     */
+    CONFLATE
+}
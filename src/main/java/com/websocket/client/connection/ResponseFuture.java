@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection;
+
+import com.websocket.client.util.Factory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending outcome of a message sent with a correlation id. Completes with
+ * the server's acknowledgement, or fails if the message could not be sent, was
+ * rejected, or was not acknowledged in time.
+ */
+public class ResponseFuture implements Future<String> {
+
+    private final String correlationId;
+    private final Factory factory;
+    private final List<ResponseListener> listeners = new ArrayList<ResponseListener>(1);
+    private boolean done;
+    private String response;
+    private Exception failure;
+    private CancelHandler cancelHandler;
+
+    /**
+     * Used within the library to track a sent message. Not to be used as part
+     * of the API.
+     *
+     * @param correlationId The correlation id attached to the message
+     * @param factory The factory whose event thread runs the listeners
+     */
+    public ResponseFuture(final String correlationId, final Factory factory) {
+        this.correlationId = correlationId;
+        this.factory = factory;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * Adds a listener which is called once the outcome is known, or straight
+     * away if it already is. Listeners are called on the event thread, like
+     * other listeners, never on the thread that routes the response or the
+     * timer thread that times it out.
+     *
+     * @param listener The listener to notify.
+     * @return this, for chaining
+     */
+    public ResponseFuture addListener(final ResponseListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Cannot add a null listener");
+        }
+
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    /**
+     * Used within the library when the acknowledgement arrives.
+     *
+     * @return false if the future had already completed.
+     */
+    public boolean complete(final String response) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * Used within the library when the message fails.
+     *
+     * @return false if the future had already completed.
+     */
+    public boolean fail(final Exception e) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            failure = e;
+            done = true;
+            notifyAll();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * Used within the library to stop tracking the message when the future is
+     * cancelled.
+     */
+    public synchronized void setCancelHandler(final CancelHandler cancelHandler) {
+        this.cancelHandler = cancelHandler;
+    }
+
+    /* Future implementation */
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final CancelHandler handler;
+        synchronized (this) {
+            handler = cancelHandler;
+        }
+        final boolean cancelled = fail(new CancellationException("Cancelled waiting for " + correlationId));
+        if (cancelled && handler != null) {
+            handler.onCancelled(this);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return failure instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized String get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized String get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Timed out waiting for " + correlationId);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    /* implementation detail */
+
+    private String result() throws ExecutionException {
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+
+    private void notifyListeners() {
+        final List<ResponseListener> toNotify;
+        synchronized (this) {
+            toNotify = new ArrayList<ResponseListener>(listeners);
+            listeners.clear();
+        }
+        for (final ResponseListener listener : toNotify) {
+            notifyListener(listener);
+        }
+    }
+
+    private void notifyListener(final ResponseListener listener) {
+        factory.queueOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                // set once before the future was done, and not changed since
+                if (failure != null) {
+                    listener.onFailure(correlationId, failure);
+                }
+                else {
+                    listener.onResponse(correlationId, response);
+                }
+            }
+        });
+    }
+
+    /**
+     * Used within the library to be told when a pending future is cancelled.
+     */
+    public interface CancelHandler {
+        void onCancelled(ResponseFuture future);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection;
+
+/**
+ * Client applications can implement this interface to be told the outcome of
+ * a message sent with {@link com.websocket.client.QSocket#send(String)} or
+ * {@link com.websocket.client.QSocket#request(String, Object)}.
+ */
+public interface ResponseListener {
+
+    /**
+     * Callback that is fired when the server acknowledges the message or
+     * responds to the request.
+     *
+     * @param correlationId
+     *            The correlation id that was attached to the message.
+     * @param message
+     *            The whole acknowledgement or response message received from
+     *            the server.
+     */
+    void onResponse(String correlationId, String message);
+
+    /**
+     * Callback that is fired when the message could not be sent, the server
+     * rejected it, the connection closed or no acknowledgement arrived in time.
+     *
+     * @param correlationId
+     *            The correlation id that was attached to the message.
+     * @param e
+     *            The cause of the failure, a
+     *            {@link java.util.concurrent.TimeoutException} if the
+     *            acknowledgement did not arrive in time.
+     */
+    void onFailure(String correlationId, Exception e);
+}
@@ -17,10 +17,44 @@ package com.websocket.client.connection.impl;
 
 
 import com.websocket.client.connection.Connection;
+import com.websocket.client.connection.ResponseFuture;
 
 public interface InternalConnection extends Connection {
 
     void sendMessage(String message);
 
+    /**
+     * Sends a protocol message, such as a subscribe or a ping, through the
+     * control thread so it is not held up by queued data work.
+     *
+     * @param message The message to send.
+     */
+    void sendControlMessage(String message);
+
+    /**
+     * Sends a JSON object with a correlation id attached and tracks the reply.
+     *
+     * @param message A JSON object.
+     * @param timeoutMillis How long to wait for the server's reply.
+     * @return A future which completes with the reply.
+     */
+    ResponseFuture sendWithResponse(String message, long timeoutMillis);
+
+    /**
+     * Sends a request frame for the given method and tracks the response.
+     *
+     * @param method The name of the remote method.
+     * @param payload The request payload, serialised with Gson. Can be null.
+     * @param timeoutMillis How long to wait for the response.
+     * @return A future which completes with the whole response message.
+     */
+    ResponseFuture request(String method, Object payload, long timeoutMillis);
+
     void disconnect();
+
+    /**
+     * @return the idle time after which a ping is sent, in milliseconds.
+     *         Fixed unless adaptive heartbeats are enabled.
+     */
+    long getHeartbeatInterval();
 }
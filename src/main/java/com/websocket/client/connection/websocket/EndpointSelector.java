@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the configured endpoints for a connect attempt. Endpoints are ranked
+ * on one metric at a time: the smoothed ping round trip once every endpoint
+ * that has connected has also answered a ping, otherwise the smoothed
+ * handshake time, which takes several round trips and so cannot be compared
+ * with a ping. Endpoints that have not been measured yet keep their
+ * configured order after the measured ones. An endpoint that failed is
+ * moved to the back for a cool down that doubles with each consecutive
+ * failure, so it is still tried when nothing else works.
+ */
+class EndpointSelector {
+
+    private static final long UNMEASURED = Long.MAX_VALUE;
+    private static final long BASE_COOL_DOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_COOL_DOWN_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+
+    EndpointSelector(final List<URI> uris) {
+        if (uris.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        for (int i = 0; i < uris.size(); i++) {
+            endpoints.add(new Endpoint(uris.get(i), i));
+        }
+    }
+
+    /**
+     * @return every endpoint, best first
+     */
+    synchronized List<Endpoint> ranked() {
+        final long now = System.nanoTime();
+        boolean byRoundTrip = true;
+        for (final Endpoint endpoint : endpoints) {
+            if (endpoint.handshakeNanos != UNMEASURED && endpoint.roundTripNanos == UNMEASURED) {
+                byRoundTrip = false;
+            }
+        }
+        final boolean rankByRoundTrip = byRoundTrip;
+        final List<Endpoint> ranked = new ArrayList<Endpoint>(endpoints);
+        Collections.sort(ranked, new Comparator<Endpoint>() {
+            @Override
+            public int compare(final Endpoint a, final Endpoint b) {
+                final boolean aCooling = a.isCoolingDown(now);
+                final boolean bCooling = b.isCoolingDown(now);
+                if (aCooling != bCooling) {
+                    return aCooling ? 1 : -1;
+                }
+                if (aCooling) {
+                    return compareLongs(a.coolDownUntil, b.coolDownUntil);
+                }
+                final int byScore = compareLongs(a.score(rankByRoundTrip), b.score(rankByRoundTrip));
+                return byScore != 0 ? byScore : a.order - b.order;
+            }
+        });
+        return ranked;
+    }
+
+    synchronized void recordHandshake(final Endpoint endpoint, final long nanos) {
+        endpoint.handshakeNanos = smooth(endpoint.handshakeNanos, nanos);
+        endpoint.failures = 0;
+        endpoint.coolDownUntil = 0;
+    }
+
+    synchronized void recordRoundTrip(final Endpoint endpoint, final long nanos) {
+        endpoint.roundTripNanos = smooth(endpoint.roundTripNanos, nanos);
+    }
+
+    synchronized void recordFailure(final Endpoint endpoint) {
+        endpoint.failures++;
+        final long coolDown = BASE_COOL_DOWN_NANOS << Math.min(endpoint.failures - 1, 5);
+        endpoint.coolDownUntil = System.nanoTime() + Math.min(coolDown, MAX_COOL_DOWN_NANOS);
+    }
+
+    /**
+     * An exponentially weighted moving average giving each new sample a
+     * quarter of the weight.
+     */
+    private static long smooth(final long current, final long sample) {
+        return current == UNMEASURED ? sample : current + (sample - current) / 4;
+    }
+
+    private static int compareLongs(final long a, final long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    static class Endpoint {
+        final URI uri;
+        private final int order;
+        private long handshakeNanos = UNMEASURED;
+        private long roundTripNanos = UNMEASURED;
+        private int failures;
+        private long coolDownUntil;
+
+        Endpoint(final URI uri, final int order) {
+            this.uri = uri;
+            this.order = order;
+        }
+
+        private long score(final boolean byRoundTrip) {
+            return byRoundTrip ? roundTripNanos : handshakeNanos;
+        }
+
+        private boolean isCoolingDown(final long now) {
+            return failures > 0 && now - coolDownUntil < 0;
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+}
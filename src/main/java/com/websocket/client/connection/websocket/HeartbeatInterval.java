@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+/**
+ * Learns the longest interval a connection can stay idle without being
+ * dropped, typically by a NAT or proxy along the path. Each answered ping
+ * after a full idle interval proves that interval safe and the next one is
+ * probed longer. A lost connection marks the interval as unsafe and falls
+ * back to the longest known safe one. The search then continues between
+ * the two bounds until they are close. After a run of successes at the
+ * converged interval the unsafe bound is forgotten, so the interval can grow
+ * again on a friendlier network.
+ *
+ * Not thread safe, callers synchronize.
+ */
+class HeartbeatInterval {
+
+    private static final long UNKNOWN = Long.MAX_VALUE;
+    // stop probing once the bounds are within one part in this of each other
+    private static final int CONVERGENCE = 20;
+    private static final int REPROBE_AFTER = 30;
+
+    private final long min;
+    private final long max;
+    private long current;
+    private long safe;
+    private long unsafe = UNKNOWN;
+    private int successesSinceConverged;
+
+    /**
+     * @param initial the interval to start with, in milliseconds
+     * @param min the shortest interval to back off to
+     * @param max the longest interval to probe, raised to the initial one if lower
+     */
+    HeartbeatInterval(final long initial, final long min, final long max) {
+        this.min = min;
+        this.max = Math.max(initial, max);
+        this.current = Math.max(min, initial);
+    }
+
+    long current() {
+        return current;
+    }
+
+    /**
+     * A ping sent after the connection was idle for the current interval was
+     * answered.
+     */
+    void succeeded() {
+        safe = Math.max(safe, current);
+
+        if (unsafe == UNKNOWN) {
+            current = Math.min(max, current + current / 2);
+        }
+        else if (unsafe - safe > unsafe / CONVERGENCE) {
+            current = safe + (unsafe - safe) / 2;
+        }
+        else {
+            current = safe;
+            if (++successesSinceConverged >= REPROBE_AFTER) {
+                unsafe = UNKNOWN;
+                successesSinceConverged = 0;
+            }
+        }
+    }
+
+    /**
+     * The connection was lost while idle for the current interval.
+     */
+    void failed() {
+        unsafe = current;
+        successesSinceConverged = 0;
+        if (safe >= unsafe) {
+            // what used to be safe no longer is
+            safe = 0;
+        }
+        current = safe > 0 ? safe : Math.max(min, current / 2);
+    }
+}
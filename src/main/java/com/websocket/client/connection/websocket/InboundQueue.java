@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.util.Factory;
+import com.websocket.client.util.FragmentStream;
+import com.websocket.client.util.MessageTrace;
+import com.websocket.client.util.SlotRing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands inbound frames from the socket read thread to the inbound thread
+ * through a ring of reusable slots, so that receiving a message does not
+ * allocate a task per frame. A single drain task is queued on the inbound
+ * thread when the ring goes from empty to non-empty. The inbound thread
+ * belongs to one Factory, and so to one connection; the drain re-queues
+ * itself after every {@link #MAX_BATCH} messages only to keep each task
+ * short, not to share the thread.
+ */
+class InboundQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(InboundQueue.class);
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * Processes a slot on the inbound thread. The slot and its routing array are
+     * reused as soon as this returns.
+     */
+    interface Handler {
+        void onInbound(Slot slot);
+    }
+
+    static class Slot {
+        String text;
+        ByteBuffer bytes;
+        MessageTrace trace;
+        // set instead of text or bytes for a streamed message, which is routed already
+        FragmentStream stream;
+        String streamEvent;
+        String streamChannel;
+        final String[] routing;
+
+        Slot(final int routingFields) {
+            routing = new String[routingFields];
+        }
+
+        private void clear() {
+            text = null;
+            bytes = null;
+            trace = null;
+            stream = null;
+            streamEvent = null;
+            streamChannel = null;
+        }
+    }
+
+    private final SlotRing<Slot> ring;
+    private final Factory factory;
+    private final Handler handler;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    InboundQueue(final int capacity, final int routingFields, final Factory factory, final Handler handler) {
+        ring = new SlotRing<Slot>(capacity, new SlotRing.SlotFactory<Slot>() {
+            @Override
+            public Slot newSlot() {
+                return new Slot(routingFields);
+            }
+        });
+        this.factory = factory;
+        this.handler = handler;
+    }
+
+    /**
+     * Called on the socket read thread. Waits if the inbound thread has fallen a
+     * full ring behind.
+     */
+    void offer(final String text, final ByteBuffer bytes, final MessageTrace trace) {
+        synchronized (this) {
+            final Slot slot = ring.claim();
+            slot.text = text;
+            slot.bytes = bytes;
+            slot.trace = trace;
+            ring.publish();
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            factory.queueOnInboundThread(drainTask);
+        }
+    }
+
+    /**
+     * Called on a stream thread once the routing fields of a streamed message
+     * have been read. The socket read thread does not offer anything else
+     * until the last fragment has been fed and this has returned, so the
+     * stream keeps its place among the messages around it.
+     */
+    void offer(final FragmentStream stream, final String event, final String channel) {
+        synchronized (this) {
+            final Slot slot = ring.claim();
+            slot.stream = stream;
+            slot.streamEvent = event;
+            slot.streamChannel = channel;
+            ring.publish();
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            factory.queueOnInboundThread(drainTask);
+        }
+    }
+
+    int size() {
+        return ring.size();
+    }
+
+    private void drain() {
+        try {
+            int drained = 0;
+            Slot slot;
+            while (drained++ < MAX_BATCH && (slot = ring.peek()) != null) {
+                try {
+                    handler.onInbound(slot);
+                }
+                catch (final RuntimeException e) {
+                    // one bad frame must not stall the ring
+                    log.error("Failed to process inbound message", e);
+                }
+                finally {
+                    slot.clear();
+                    ring.release();
+                }
+            }
+        }
+        finally {
+            // also reached when a handler throws an Error, which would otherwise leave
+            // the drain marked as scheduled and the read thread waiting on a full ring
+            drainScheduled.set(false);
+            if (!ring.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+                factory.queueOnInboundThread(drainTask);
+            }
+        }
+    }
+}
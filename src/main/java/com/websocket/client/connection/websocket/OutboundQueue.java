@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.connection.RateLimitExceededException;
+import com.websocket.client.connection.RateLimitPolicy;
+import com.websocket.client.connection.ResponseFuture;
+import com.websocket.client.util.Constants;
+import com.websocket.client.util.Factory;
+import com.websocket.client.util.JsonFieldScanner;
+import com.websocket.client.util.RateLimiter;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds outbound messages back to the rate set by a {@link RateLimiter}. While
+ * nothing is waiting, a message is sent as soon as the limiter has tokens for
+ * it. Otherwise it waits behind the earlier messages, and a single timer wakes
+ * the event thread when the head of the queue can go.
+ *
+ * Only used on the event thread.
+ */
+class OutboundQueue {
+
+    private static final int KEY_CHANNEL = 0;
+    private static final int KEY_EVENT_TYPE = 1;
+
+    interface Sender {
+        void transmit(String message, ResponseFuture future);
+
+        void reject(String message, ResponseFuture future, Exception e);
+    }
+
+    private final RateLimiter limiter;
+    private final Factory factory;
+    private final Sender sender;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+    // waiting messages by channel and eventType, for conflation
+    private final Map<String, Pending> waitingByKey = new HashMap<String, Pending>();
+    private final JsonFieldScanner keyFields = new JsonFieldScanner(Constants.CHANNEL, Constants.EVENT_TYPE);
+    private final String[] key = new String[2];
+    private boolean drainScheduled;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable wakeTask = new Runnable() {
+        @Override
+        public void run() {
+            factory.queueOnEventThread(drainTask);
+        }
+    };
+
+    OutboundQueue(final RateLimiter limiter, final Factory factory, final Sender sender) {
+        this.limiter = limiter;
+        this.factory = factory;
+        this.sender = sender;
+    }
+
+    /**
+     * @param future the future awaiting a response to the message, or null
+     */
+    void send(final String message, final ResponseFuture future) {
+        if (pending.isEmpty()) {
+            final long wait = limiter.tryAcquire(message);
+            if (wait == 0) {
+                sender.transmit(message, future);
+                return;
+            }
+            if (limiter.getPolicy() == RateLimitPolicy.REJECT) {
+                limiter.recordRejected();
+                sender.reject(message, future, new RateLimitExceededException("Outbound rate limit exceeded"));
+                return;
+            }
+            enqueue(message, future);
+            scheduleDrain(wait);
+            return;
+        }
+        enqueue(message, future);
+    }
+
+    /**
+     * Drops every waiting message, for example because the connection closed.
+     * Their response futures are failed by the caller.
+     */
+    void clear() {
+        pending.clear();
+        waitingByKey.clear();
+        // the timer may have been shut down with the connection
+        drainScheduled = false;
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    private void enqueue(final String message, final ResponseFuture future) {
+        String conflationKey = null;
+        if (limiter.getPolicy() == RateLimitPolicy.CONFLATE) {
+            conflationKey = conflationKey(message);
+            final Pending waiting = conflationKey == null ? null : waitingByKey.get(conflationKey);
+            if (waiting != null) {
+                // the newer message takes the older one's place in the queue
+                limiter.recordConflated();
+                sender.reject(waiting.message, waiting.future,
+                        new RateLimitExceededException("Replaced by a newer message"));
+                waiting.message = message;
+                waiting.future = future;
+                return;
+            }
+        }
+
+        final Pending entry = new Pending(message, future, conflationKey, System.nanoTime());
+        pending.add(entry);
+        if (conflationKey != null) {
+            waitingByKey.put(conflationKey, entry);
+        }
+    }
+
+    private String conflationKey(final String message) {
+        try {
+            keyFields.scan(message, key);
+        }
+        catch (final RuntimeException e) {
+            // not a JSON object, so it is never conflated
+            return null;
+        }
+        if (key[KEY_CHANNEL] == null) {
+            return null;
+        }
+        return key[KEY_EVENT_TYPE] == null ? key[KEY_CHANNEL] : key[KEY_CHANNEL] + '\u0000' + key[KEY_EVENT_TYPE];
+    }
+
+    private void drain() {
+        drainScheduled = false;
+        Pending entry;
+        while ((entry = pending.peek()) != null) {
+            if (entry.future != null && entry.future.isDone()) {
+                // timed out or cancelled while waiting
+                removeHead(entry);
+                continue;
+            }
+
+            final long wait = limiter.tryAcquire(entry.message);
+            if (wait > 0) {
+                scheduleDrain(wait);
+                return;
+            }
+            removeHead(entry);
+            limiter.recordWait(System.nanoTime() - entry.queuedAt);
+            sender.transmit(entry.message, entry.future);
+        }
+    }
+
+    private void removeHead(final Pending entry) {
+        pending.poll();
+        if (entry.conflationKey != null) {
+            waitingByKey.remove(entry.conflationKey);
+        }
+    }
+
+    private void scheduleDrain(final long waitNanos) {
+        if (!drainScheduled) {
+            drainScheduled = true;
+            factory.getTimers().schedule(wakeTask, waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static class Pending {
+        private String message;
+        private ResponseFuture future;
+        private final String conflationKey;
+        private final long queuedAt;
+
+        Pending(final String message, final ResponseFuture future, final String conflationKey, final long queuedAt) {
+            this.message = message;
+            this.future = future;
+            this.conflationKey = conflationKey;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.connection.ResponseFuture;
+import com.websocket.client.util.Factory;
+import com.websocket.client.util.TimeoutWheel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks messages that are waiting for a reply from the server, keyed by the
+ * correlation id attached to them. Each entry costs one map entry and one
+ * {@link TimeoutWheel.Timeout}, so tens of thousands can be in flight at once.
+ */
+class PendingResponses implements ResponseFuture.CancelHandler {
+
+    private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Factory factory;
+    private final TimeoutWheel timeoutWheel;
+
+    PendingResponses(final Factory factory) {
+        this.factory = factory;
+        timeoutWheel = factory.getTimeoutWheel();
+    }
+
+    /**
+     * Starts tracking a new future, which fails with a
+     * {@link TimeoutException} if no reply arrives in time.
+     */
+    ResponseFuture register(final long timeoutMillis) {
+        final String correlationId = Long.toString(nextId.incrementAndGet());
+        final ResponseFuture future = new ResponseFuture(correlationId, factory);
+        final Pending entry = new Pending(future);
+        pending.put(correlationId, entry);
+        future.setCancelHandler(this);
+
+        entry.timeout = timeoutWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fail(correlationId, new TimeoutException("No response to " + correlationId + " within "
+                        + timeoutMillis + "ms"));
+            }
+        }, timeoutMillis);
+        return future;
+    }
+
+    /**
+     * @return false if nothing was waiting for this correlation id, for
+     *         example because it already timed out.
+     */
+    boolean complete(final String correlationId, final String response) {
+        final Pending entry = correlationId == null ? null : pending.remove(correlationId);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancelTimeout();
+        return entry.future.complete(response);
+    }
+
+    boolean fail(final String correlationId, final Exception e) {
+        final Pending entry = correlationId == null ? null : pending.remove(correlationId);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancelTimeout();
+        return entry.future.fail(e);
+    }
+
+    void failAll(final Exception e) {
+        for (final String correlationId : pending.keySet()) {
+            fail(correlationId, e);
+        }
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    @Override
+    public void onCancelled(final ResponseFuture future) {
+        final Pending entry = pending.remove(future.getCorrelationId());
+        if (entry != null) {
+            entry.cancelTimeout();
+        }
+    }
+
+    private static class Pending {
+        private final ResponseFuture future;
+        private volatile TimeoutWheel.Timeout timeout;
+
+        Pending(final ResponseFuture future) {
+            this.future = future;
+        }
+
+        void cancelTimeout() {
+            final TimeoutWheel.Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.util.Factory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Opens the TCP connection, and for wss endpoints the TLS layer on top of it,
+ * before the socket is handed to the WebSocket client. Host names are
+ * resolved through the {@link com.websocket.client.util.DnsCache}.
+ *
+ * When a host has several addresses they are raced "happy eyeballs" style
+ * (RFC 8305): addresses are ordered to alternate between IPv6 and IPv4, a
+ * new attempt starts every attempt delay or as soon as the previous one
+ * fails, and the first attempt to complete its handshake wins. The losing
+ * sockets are closed. With an attempt delay of 0 the addresses are tried one
+ * after another.
+ *
+ * Connecting blocks, so it must not be called on the event thread.
+ */
+class SocketConnector {
+
+    private static final String WSS_SCHEME = "wss";
+    private static final int WS_DEFAULT_PORT = 80;
+    private static final int WSS_DEFAULT_PORT = 443;
+
+    private final Factory factory;
+    private final Proxy proxy;
+    private final int connectTimeoutMillis;
+    private final long attemptDelayMillis;
+
+    SocketConnector(final Factory factory, final Proxy proxy, final int connectTimeoutMillis,
+                    final long attemptDelayMillis) {
+        this.factory = factory;
+        this.proxy = proxy;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.attemptDelayMillis = attemptDelayMillis;
+    }
+
+    /**
+     * @return a connected socket, ready for the WebSocket handshake
+     * @throws IOException if no address of the host accepted the connection
+     */
+    Socket connect(final URI uri) throws IOException {
+        final String host = uri.getHost();
+        final int port = portOf(uri);
+
+        if (proxy.type() != Proxy.Type.DIRECT) {
+            // the proxy resolves the host
+            return secure(uri, open(new Socket(proxy), InetSocketAddress.createUnresolved(host, port)));
+        }
+
+        final InetAddress[] addresses = factory.getDnsCache().resolve(host);
+        try {
+            if (addresses.length == 1 || attemptDelayMillis == 0) {
+                return connectInTurn(uri, addresses, port);
+            }
+            return race(uri, interleave(addresses), port);
+        }
+        catch (final IOException e) {
+            factory.getDnsCache().invalidate(host);
+            throw e;
+        }
+    }
+
+    private Socket connectInTurn(final URI uri, final InetAddress[] addresses, final int port) throws IOException {
+        IOException failure = null;
+        for (final InetAddress address : addresses) {
+            try {
+                return secure(uri, open(new Socket(proxy), new InetSocketAddress(address, port)));
+            }
+            catch (final IOException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Runs on a connect thread, each attempt runs on a connect thread of its own.
+     */
+    private Socket race(final URI uri, final List<InetAddress> addresses, final int port) throws IOException {
+        final BlockingQueue<Attempt> finished = new LinkedBlockingQueue<Attempt>();
+        final List<Attempt> started = new ArrayList<Attempt>();
+        Attempt winner = null;
+        int failed = 0;
+
+        try {
+            while (true) {
+                if (started.size() == failed && started.size() < addresses.size()) {
+                    // nothing is in flight, start the next attempt without waiting
+                    start(new Attempt(uri, new InetSocketAddress(addresses.get(started.size()), port), finished),
+                            started);
+                }
+
+                final Attempt done = started.size() < addresses.size()
+                        ? finished.poll(attemptDelayMillis, TimeUnit.MILLISECONDS)
+                        : finished.take();
+                if (done == null) {
+                    start(new Attempt(uri, new InetSocketAddress(addresses.get(started.size()), port), finished),
+                            started);
+                }
+                else if (done.error == null) {
+                    winner = done;
+                    return done.connected;
+                }
+                else if (++failed == addresses.size()) {
+                    throw done.error;
+                }
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + uri);
+        }
+        finally {
+            for (final Attempt attempt : started) {
+                if (attempt != winner) {
+                    attempt.abandon();
+                }
+            }
+        }
+    }
+
+    private void start(final Attempt attempt, final List<Attempt> started) {
+        started.add(attempt);
+        factory.queueOnConnectThread(attempt);
+    }
+
+    private Socket open(final Socket socket, final InetSocketAddress address) throws IOException {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, connectTimeoutMillis);
+            return socket;
+        }
+        catch (final IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Orders addresses to alternate between address families, starting with
+     * the family of the first address the resolver returned.
+     */
+    static List<InetAddress> interleave(final InetAddress[] addresses) {
+        final LinkedList<InetAddress> preferred = new LinkedList<InetAddress>();
+        final LinkedList<InetAddress> other = new LinkedList<InetAddress>();
+        final boolean preferIpv6 = addresses[0] instanceof Inet6Address;
+        for (final InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == preferIpv6) {
+                preferred.add(address);
+            }
+            else {
+                other.add(address);
+            }
+        }
+
+        final List<InetAddress> interleaved = new ArrayList<InetAddress>(addresses.length);
+        while (!preferred.isEmpty() || !other.isEmpty()) {
+            if (!preferred.isEmpty()) {
+                interleaved.add(preferred.removeFirst());
+            }
+            if (!other.isEmpty()) {
+                interleaved.add(other.removeFirst());
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * Layers TLS over the connected socket for wss endpoints. The host and
+     * port given here key the shared session cache, so a reconnect resumes
+     * the previous session.
+     */
+    private Socket secure(final URI uri, final Socket socket) throws IOException {
+        if (!WSS_SCHEME.equals(uri.getScheme())) {
+            return socket;
+        }
+        try {
+            final Socket secured = factory.getSslSocketFactory().createSocket(socket, uri.getHost(), portOf(uri),
+                    true);
+            enableSessionTickets(secured);
+            return secured;
+        }
+        catch (final IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * A single connection attempt in a race. It completes the TLS handshake
+     * too, so the winner is the first address that is ready for the
+     * WebSocket handshake.
+     */
+    private class Attempt implements Runnable {
+        private final URI uri;
+        private final InetSocketAddress address;
+        private final BlockingQueue<Attempt> finished;
+        // created up front so that closing it aborts a connect in progress
+        private final Socket socket;
+        private volatile Socket connected;
+        private volatile IOException error;
+        private volatile boolean abandoned;
+
+        Attempt(final URI uri, final InetSocketAddress address, final BlockingQueue<Attempt> finished) {
+            this.uri = uri;
+            this.address = address;
+            this.finished = finished;
+            socket = new Socket(proxy);
+        }
+
+        @Override
+        public void run() {
+            try {
+                final Socket secured = secure(uri, open(socket, address));
+                if (secured instanceof SSLSocket) {
+                    ((SSLSocket) secured).startHandshake();
+                }
+                connected = secured;
+                // the race may have been decided while this attempt was connecting
+                if (abandoned) {
+                    closeQuietly(secured);
+                }
+            }
+            catch (final IOException e) {
+                error = e;
+                closeQuietly(socket);
+            }
+            catch (final Throwable e) {
+                // for example a security manager or TLS provider failure; the race must still hear about it
+                error = new IOException("Could not connect to " + address, e);
+                closeQuietly(socket);
+            }
+            finally {
+                finished.offer(this);
+            }
+        }
+
+        void abandon() {
+            abandoned = true;
+            final Socket current = connected;
+            closeQuietly(current != null ? current : socket);
+        }
+    }
+
+    static int portOf(final URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return WSS_SCHEME.equals(uri.getScheme()) ? WSS_DEFAULT_PORT : WS_DEFAULT_PORT;
+    }
+
+    static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (final IOException e) {
+            // nothing more to do
+        }
+    }
+
+    /**
+     * Android's TLS provider only sends the session ticket extension when
+     * asked to. The JDK sends it by default and has no such method.
+     */
+    private static void enableSessionTickets(final Socket socket) {
+        try {
+            final Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socket, true);
+        }
+        catch (final Exception e) {
+            // not supported by this provider, session ids are still used
+        }
+    }
+}
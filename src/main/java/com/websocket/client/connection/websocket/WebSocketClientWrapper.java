@@ -17,18 +17,15 @@ package com.websocket.client.connection.websocket;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 
-import java.io.IOException;
 import java.net.Proxy;
+import java.net.Socket;
 import java.net.URI;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
-
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLException;
-import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A thin wrapper around the WebSocketClient class from the Java-WebSocket
@@ -38,34 +35,20 @@ import javax.net.ssl.SSLSocketFactory;
  */
 public class WebSocketClientWrapper extends WebSocketClient {
 
-    private static final String WSS_SCHEME = "wss";
     private final WebSocketListener webSocketListener;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
-    public WebSocketClientWrapper(final URI uri, final Proxy proxy, final WebSocketListener webSocketListener, HashMap<String, String> header) throws SSLException {
+    /**
+     * @param socket a socket already connected to the URI's host, with TLS
+     *            layered on for wss URIs. As it is bound, the client uses it
+     *            as it is rather than connecting a socket of its own.
+     */
+    public WebSocketClientWrapper(final URI uri, final Proxy proxy, final WebSocketListener webSocketListener,
+                                  final HashMap<String, String> header, final Socket socket) {
 //        super(uri);
         super(uri, new Draft_17(), header, 0);
 
-        if (uri.getScheme().equals(WSS_SCHEME)) {
-            try {
-                SSLContext sslContext = null;
-                sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, null, null); // will use java's default
-                // key and trust store which
-                // is sufficient unless you
-                // deal with self-signed
-                // certificates
-
-                final SSLSocketFactory factory = sslContext.getSocketFactory();// (SSLSocketFactory)
-                // SSLSocketFactory.getDefault();
-                setSocket(factory.createSocket());
-            } catch (final IOException e) {
-                throw new SSLException(e);
-            } catch (final NoSuchAlgorithmException e) {
-                throw new SSLException(e);
-            } catch (final KeyManagementException e) {
-                throw new SSLException(e);
-            }
-        }
+        setSocket(socket);
         this.webSocketListener = webSocketListener;
         setProxy(proxy);
     }
@@ -80,9 +63,35 @@ public class WebSocketClientWrapper extends WebSocketClient {
         webSocketListener.onMessage(message);
     }
 
+    /**
+     * Binary frames are expected to hold UTF-8 encoded JSON. They are passed on
+     * without being decoded so that large payloads are not copied into a
+     * String unless a listener asks for one.
+     */
+    @Override
+    public void onMessage(final ByteBuffer bytes) {
+        webSocketListener.onMessage(bytes);
+    }
+
+    /**
+     * Messages split across several frames arrive here a frame at a time,
+     * rather than through onMessage.
+     */
+    @Override
+    public void onFragment(final Framedata frame) {
+        webSocketListener.onFragment(frame.getPayloadData(), frame.isFin());
+    }
+
+    /**
+     * The read and write threads can both see the connection end and each
+     * report the close. Only the first is passed on, as a late second one
+     * would be taken for the close of the next connection.
+     */
     @Override
     public void onClose(final int code, final String reason, final boolean remote) {
-        webSocketListener.onClose(code, reason, remote);
+        if (closed.compareAndSet(false, true)) {
+            webSocketListener.onClose(code, reason, remote);
+        }
     }
 
     @Override
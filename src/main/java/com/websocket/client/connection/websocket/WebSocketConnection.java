@@ -18,64 +18,155 @@ package com.websocket.client.connection.websocket;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.websocket.client.channel.EventPayload;
 import com.websocket.client.connection.ConnectionEventListener;
 import com.websocket.client.connection.ConnectionState;
 import com.websocket.client.connection.ConnectionStateChange;
+import com.websocket.client.connection.QSocketException;
+import com.websocket.client.connection.ResponseFuture;
 import com.websocket.client.connection.impl.InternalConnection;
 import com.websocket.client.util.Constants;
 import com.websocket.client.util.Factory;
+import com.websocket.client.util.InboundBudget;
+import com.websocket.client.util.FragmentStream;
+import com.websocket.client.util.JsonFieldScanner;
+import com.websocket.client.util.MessageTrace;
+import com.websocket.client.util.NameTable;
+import com.websocket.client.util.RateLimiter;
+import com.websocket.client.util.SheddingPolicy;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.net.Proxy;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.SSLException;
 
-
-public class WebSocketConnection implements InternalConnection, WebSocketListener {
+public class WebSocketConnection implements InternalConnection, WebSocketListener, InboundQueue.Handler,
+        OutboundQueue.Sender {
     private static final Logger log = LoggerFactory.getLogger(WebSocketConnection.class);
     private static final Gson GSON = new Gson();
     private static final String CONNECTION_ESTABLISHED_EVENT = "101";
     private static final String CONNECTION_ERROR_EVENT = "102";
+    private static final String ACKNOWLEDGEMENT_EVENT = "105";
+    private static final String RESPONSE_EVENT = "106";
 
     private static final String INTERNAL_EVENT_PREFIX = "qsocket:";
+    private static final int ROUTE_EVENT_TYPE = 0;
+    private static final int ROUTE_CHANNEL = 1;
+    private static final int ROUTE_MESSAGE_ID = 2;
+    private static final int ROUTE_FIELD_COUNT = 3;
+    private static final int REPLY_CORRELATION_ID = 0;
+    private static final int REPLY_MESSAGE = 1;
+    // fragments a streamed message may have waiting to be read
+    private static final int STREAM_CAPACITY = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
     static final String PING_EVENT_SERIALIZED = "{\"event\": \"qsocket:ping\"}";
+    private static final String PONG_EVENT = "qsocket:pong";
+    private static final long MIN_ADAPTIVE_ACTIVITY_TIMEOUT = 10000;
 
     private final Factory factory;
     private final ActivityTimer activityTimer;
+    private final PendingResponses pendingResponses;
+    private final InboundQueue inboundQueue;
+    // null unless outbound traffic is rate limited
+    private final RateLimiter rateLimiter;
+    private final OutboundQueue outboundQueue;
+    // null unless received data has a memory budget
+    private final InboundBudget inboundBudget;
+    // only used on the socket read thread
+    private boolean disconnectingOverBudget;
+    // only used on the inbound thread
+    private final JsonFieldScanner routingFields;
+    private final JsonFieldScanner replyFields = new JsonFieldScanner(Constants.CORRELATION_ID, Constants.MESSAGE);
+    private final String[] reply = new String[2];
     private final Map<ConnectionState, Set<ConnectionEventListener>> eventListeners = new ConcurrentHashMap<ConnectionState, Set<ConnectionEventListener>>();
-    private final URI webSocketUri;
+    private final EndpointSelector endpoints;
+    private final SocketConnector connector;
     private final Proxy proxy;
 
     private volatile ConnectionState state = ConnectionState.DISCONNECTED;
     private WebSocketClient underlyingConnection;
     private HashMap<String, String> header;
+    // the endpoints still to try in this connect, only used on the control thread
+    private List<EndpointSelector.Endpoint> connectPlan;
+    private int connectPlanPosition;
+    private Exception lastConnectFailure;
+    private volatile EndpointSelector.Endpoint currentEndpoint;
+    private volatile long connectStartedAt;
+    private final int streamingThreshold;
+    // the message being received in fragments, only used on the socket read thread
+    private final List<ByteBuffer> fragments = new ArrayList<ByteBuffer>();
+    private int fragmentBytes;
+    private StreamRoute fragmentStream;
 
     public WebSocketConnection(
-            final String url,
+            final List<String> urls,
             final long activityTimeout,
             final long pongTimeout,
+            final long maxActivityTimeout,
             final Proxy proxy,
             final Factory factory,
-            final HashMap<String, String> header) throws URISyntaxException {
-        webSocketUri = new URI(url);
-        activityTimer = new ActivityTimer(activityTimeout, pongTimeout);
+            final HashMap<String, String> header,
+            final int inboundQueueCapacity,
+            final int connectTimeout,
+            final long connectionAttemptDelay,
+            final int streamingThreshold) throws URISyntaxException {
+        final List<URI> uris = new ArrayList<URI>();
+        for (final String url : urls) {
+            uris.add(new URI(url));
+        }
+        endpoints = new EndpointSelector(uris);
+        connector = new SocketConnector(factory, proxy, connectTimeout, connectionAttemptDelay);
+        this.streamingThreshold = streamingThreshold;
+        activityTimer = new ActivityTimer(activityTimeout, pongTimeout, maxActivityTimeout);
         this.proxy = proxy;
         this.factory = factory;
         this.header = header;
+        pendingResponses = new PendingResponses(factory);
+        inboundQueue = new InboundQueue(inboundQueueCapacity, ROUTE_FIELD_COUNT, factory, this);
+        rateLimiter = factory.getRateLimiter();
+        outboundQueue = rateLimiter == null ? null : new OutboundQueue(rateLimiter, factory, this);
+        inboundBudget = factory.getInboundBudget();
+
+        // the scan stops once these are found, so the message body is only read up to the last of them;
+        // the message id is only scanned for when deduplication is enabled
+        final String messageIdField = factory.getMessageIdField();
+        routingFields = messageIdField == null
+                ? new JsonFieldScanner(Constants.EVENT_TYPE, Constants.CHANNEL)
+                : new JsonFieldScanner(Constants.EVENT_TYPE, Constants.CHANNEL, messageIdField);
+
+        // event types and channel names come back as the canonical instances held in the name table
+        final NameTable names = factory.getNameTable();
+        routingFields.internValues(ROUTE_EVENT_TYPE, names);
+        routingFields.internValues(ROUTE_CHANNEL, names);
+        names.intern(CONNECTION_ESTABLISHED_EVENT);
+        names.intern(CONNECTION_ERROR_EVENT);
+        names.intern(ACKNOWLEDGEMENT_EVENT);
+        names.intern(RESPONSE_EVENT);
 
         for (final ConnectionState state : ConnectionState.values()) {
             eventListeners.put(state, Collections.newSetFromMap(new ConcurrentHashMap<ConnectionEventListener, Boolean>()));
@@ -86,20 +177,16 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
 
     @Override
     public void connect() {
-        factory.queueOnEventThread(new Runnable() {
+        factory.queueOnControlThread(new Runnable() {
 
             @Override
             public void run() {
                 if (state == ConnectionState.DISCONNECTED) {
-                    try {
-                        underlyingConnection = factory
-                                .newWebSocketClientWrapper(webSocketUri, proxy, WebSocketConnection.this, header);
-                        updateState(ConnectionState.CONNECTING);
-                        underlyingConnection.connect();
-                    }
-                    catch (final SSLException e) {
-                        sendErrorToAllListeners("Error connecting over SSL", null, e);
-                    }
+                    connectPlan = endpoints.ranked();
+                    connectPlanPosition = 0;
+                    lastConnectFailure = null;
+                    updateState(ConnectionState.CONNECTING);
+                    connectToNextEndpoint();
                 }
             }
         });
@@ -107,11 +194,12 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
 
     @Override
     public void disconnect() {
-        factory.queueOnEventThread(new Runnable() {
+        factory.queueOnControlThread(new Runnable() {
             @Override
             public void run() {
                 if (state == ConnectionState.CONNECTED) {
                     updateState(ConnectionState.DISCONNECTING);
+                    factory.getReadGate().release();
                     underlyingConnection.close();
                 }
             }
@@ -140,23 +228,231 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
         factory.queueOnEventThread(new Runnable() {
             @Override
             public void run() {
-                try {
-                    if (state == ConnectionState.CONNECTED) {
-                        underlyingConnection.send(message);
-                    }
-                    else {
-                        sendErrorToAllListeners("Cannot send a message while in " + state + " state", null, null);
-                    }
+                if (outboundQueue == null) {
+                    transmit(message, null);
                 }
-                catch (final Exception e) {
-                    sendErrorToAllListeners("An exception occurred while sending message [" + message + "]", null, e);
+                else {
+                    outboundQueue.send(message, null);
                 }
             }
         });
     }
 
+    /**
+     * Control messages are never held back by the rate limit, but they use
+     * up its tokens so that data messages make up for them.
+     */
+    @Override
+    public void sendControlMessage(final String message) {
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (rateLimiter != null && state == ConnectionState.CONNECTED) {
+                    rateLimiter.acquireNow(message);
+                }
+                transmit(message, null);
+            }
+        });
+    }
+
+    @Override
+    public ResponseFuture sendWithResponse(final String message, final long timeoutMillis) {
+        final ResponseFuture future = pendingResponses.register(timeoutMillis);
+        final String correlated;
+        try {
+            correlated = withCorrelationId(message, future.getCorrelationId());
+        }
+        catch (final IllegalArgumentException e) {
+            future.cancel(false);
+            throw e;
+        }
+
+        factory.queueOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                if (outboundQueue == null) {
+                    transmit(correlated, future);
+                }
+                else {
+                    outboundQueue.send(correlated, future);
+                }
+            }
+        });
+        return future;
+    }
+
+    /* OutboundQueue.Sender implementation, on the event or control thread */
+
+    @Override
+    public void transmit(final String message, final ResponseFuture future) {
+        try {
+            if (state == ConnectionState.CONNECTED) {
+                underlyingConnection.send(message);
+                activityTimer.outboundActivity();
+            }
+            else {
+                reject(message, future, new IllegalStateException("Cannot send a message while in " + state + " state"));
+            }
+        }
+        catch (final Exception e) {
+            reject(message, future, e);
+        }
+    }
+
+    @Override
+    public void reject(final String message, final ResponseFuture future, final Exception e) {
+        if (future != null) {
+            pendingResponses.fail(future.getCorrelationId(), e);
+        }
+        else if (e instanceof IllegalStateException) {
+            sendErrorToAllListeners(e.getMessage(), null, null);
+        }
+        else {
+            sendErrorToAllListeners("An exception occurred while sending message [" + message + "]", null, e);
+        }
+    }
+
+    @Override
+    public ResponseFuture request(final String method, final Object payload, final long timeoutMillis) {
+        if (method == null) {
+            throw new IllegalArgumentException("Cannot send a request with a null method");
+        }
+
+        // the payload is written with its generated codec where it has one
+        final StringWriter json = new StringWriter();
+        final JsonWriter writer = new JsonWriter(json);
+        writer.setSerializeNulls(false);
+        try {
+            writer.beginObject();
+            writer.name(Constants.COMMAND).value(Constants.REQUEST);
+            writer.name(Constants.METHOD).value(method);
+            writer.name(Constants.PAYLOAD);
+            factory.getPayloadCodecs().write(writer, payload);
+            writer.endObject();
+        }
+        catch (final IOException e) {
+            throw new IllegalArgumentException("Cannot serialise the payload of request " + method, e);
+        }
+
+        return sendWithResponse(json.toString(), timeoutMillis);
+    }
+
+    @Override
+    public long getHeartbeatInterval() {
+        return activityTimer.interval();
+    }
+
     /* implementation detail */
 
+    /**
+     * Runs on the control thread. Tries the next endpoint of the connect plan,
+     * or gives up once every endpoint has failed.
+     */
+    private void connectToNextEndpoint() {
+        if (connectPlanPosition >= connectPlan.size()) {
+            updateState(ConnectionState.DISCONNECTED);
+            sendErrorToAllListeners("Could not connect to any endpoint", null, lastConnectFailure);
+            return;
+        }
+
+        final EndpointSelector.Endpoint endpoint = connectPlan.get(connectPlanPosition++);
+        currentEndpoint = endpoint;
+        connectStartedAt = System.nanoTime();
+        factory.queueOnConnectThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    onSocketConnected(endpoint, connector.connect(endpoint.uri));
+                }
+                catch (final IOException e) {
+                    onConnectFailed(endpoint, e);
+                }
+                catch (final RuntimeException e) {
+                    // for example a proxy type that a plain socket does not support
+                    onConnectFailed(endpoint, e);
+                }
+            }
+        });
+    }
+
+    private void onSocketConnected(final EndpointSelector.Endpoint endpoint, final Socket socket) {
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (state != ConnectionState.CONNECTING || currentEndpoint != endpoint) {
+                    SocketConnector.closeQuietly(socket);
+                    return;
+                }
+                underlyingConnection = factory
+                        .newWebSocketClientWrapper(endpoint.uri, proxy, WebSocketConnection.this, header, socket);
+                underlyingConnection.connect();
+            }
+        });
+    }
+
+    /**
+     * Fails over to the next endpoint straight away, rather than waiting for
+     * the caller to reconnect.
+     */
+    private void onConnectFailed(final EndpointSelector.Endpoint endpoint, final Exception e) {
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (state != ConnectionState.CONNECTING || currentEndpoint != endpoint) {
+                    return;
+                }
+                log.debug("Connecting to " + endpoint + " failed, trying the next endpoint", e);
+                endpoints.recordFailure(endpoint);
+                lastConnectFailure = e;
+                connectToNextEndpoint();
+            }
+        });
+    }
+
+    /**
+     * Adds the correlation id as the first field of a JSON object without
+     * parsing and re-serialising the rest of the message. The message is only
+     * parsed if it mentions the field name, to refuse a correlation id of the
+     * caller's own rather than send the key twice.
+     */
+    private static String withCorrelationId(final String message, final String correlationId) {
+        final String trimmed = message == null ? "" : message.trim();
+        if (!trimmed.startsWith("{") || !trimmed.endsWith("}")) {
+            throw new IllegalArgumentException("Only JSON objects can be sent with a correlation id");
+        }
+
+        if (trimmed.contains("\"" + Constants.CORRELATION_ID + "\"") && hasField(trimmed, Constants.CORRELATION_ID)) {
+            throw new IllegalArgumentException("The message already has a " + Constants.CORRELATION_ID);
+        }
+
+        final String field = "{\"" + Constants.CORRELATION_ID + "\":\"" + correlationId + "\"";
+        final String rest = trimmed.substring(1).trim();
+        return rest.equals("}") ? field + "}" : field + "," + rest;
+    }
+
+    /**
+     * @return whether the JSON object has the field at its top level
+     */
+    private static boolean hasField(final String json, final String name) {
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (name.equals(reader.nextName())) {
+                    return true;
+                }
+                reader.skipValue();
+            }
+            return false;
+        }
+        catch (final IOException e) {
+            throw new IllegalArgumentException("Only JSON objects can be sent with a correlation id", e);
+        }
+    }
+
     private void updateState(final ConnectionState newState) {
         log.debug("State transition requested, current [" + state + "], new [" + newState + "]");
 
@@ -168,7 +464,7 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
         interestedListeners.addAll(eventListeners.get(newState));
 
         for (final ConnectionEventListener listener : interestedListeners) {
-            factory.queueOnEventThread(new Runnable() {
+            factory.queueOnControlThread(new Runnable() {
                 @Override
                 public void run() {
                     listener.onConnectionStateChange(change);
@@ -186,16 +482,31 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
 //        }
 //    }
 
-    private void handleEvent(final String event, final String wholeMessage) {
+    private void handleEvent(final String event, final String[] routing, final EventPayload payload,
+                             final MessageTrace trace) {
+        if (event == null) {
+            log.debug("Ignoring message without an " + Constants.EVENT_TYPE);
+            return;
+        }
+
         switch (event) {
             case CONNECTION_ESTABLISHED_EVENT:
-                handleConnectionMessage(wholeMessage);
+                handleConnectionMessage(payload.asString());
                 break;
             case CONNECTION_ERROR_EVENT:
-                handleError(wholeMessage);
+                handleError(event, payload);
+                break;
+            case ACKNOWLEDGEMENT_EVENT:
+            case RESPONSE_EVENT:
+                scanReply(payload);
+                pendingResponses.complete(reply[REPLY_CORRELATION_ID], payload.asString());
+                break;
+            case PONG_EVENT:
+                activityTimer.pongReceived();
                 break;
             default:
-                factory.getChannelManager().onMessage(event, wholeMessage);
+                factory.getChannelManager().onMessage(event, routing[ROUTE_CHANNEL], routing[ROUTE_MESSAGE_ID],
+                        payload, trace);
         }
     }
 
@@ -212,19 +523,40 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
     private void handleConnectionMessage(final String message) {
         final Map jsonObject = GSON.fromJson(message, Map.class);
         final String dataString = (String)jsonObject.get(Constants.MESSAGE);
-        updateState(ConnectionState.CONNECTED);
+        // state changes stay on the control thread, ahead of any queued data
+        factory.queueOnControlThread(new Runnable() {
+            @Override
+            public void run() {
+                updateState(ConnectionState.CONNECTED);
+            }
+        });
     }
 
-    @SuppressWarnings("rawtypes")
-    private void handleError(final String wholeMessage) {
-        final Map json = GSON.fromJson(wholeMessage, Map.class);
-
-        final String message = (String)json.get(Constants.MESSAGE);
-        final String code = (String)json.get(Constants.EVENT_TYPE);
+    private void handleError(final String code, final EventPayload payload) {
+        scanReply(payload);
+        final String message = reply[REPLY_MESSAGE];
+        final String correlationId = reply[REPLY_CORRELATION_ID];
 
+        // an error in reply to a correlated message only goes to its sender
+        if (correlationId != null && pendingResponses.fail(correlationId, new QSocketException(message, code))) {
+            return;
+        }
         sendErrorToAllListeners(message, code, null);
     }
 
+    /**
+     * Reads the fields only replies and errors carry, which the routing scan
+     * leaves out so that it can stop short of the body of a channel event.
+     */
+    private void scanReply(final EventPayload payload) {
+        if (payload.isDecoded()) {
+            replyFields.scan(payload.asString(), reply);
+        }
+        else {
+            replyFields.scan(payload.asByteBuffer(), reply);
+        }
+    }
+
     private void sendErrorToAllListeners(final String message, final String code, final Exception e) {
         final Set<ConnectionEventListener> allListeners = new HashSet<ConnectionEventListener>();
         for (final Set<ConnectionEventListener> listenersForState : eventListeners.values()) {
@@ -232,7 +564,7 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
         }
 
         for (final ConnectionEventListener listener : allListeners) {
-            factory.queueOnEventThread(new Runnable() {
+            factory.queueOnControlThread(new Runnable() {
                 @Override
                 public void run() {
                     listener.onError(message, code, e);
@@ -246,30 +578,236 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
     @Override
     public void onOpen(final ServerHandshake handshakedata) {
         Log.i("WebsocketConnection", "Opened");
+        final EndpointSelector.Endpoint endpoint = currentEndpoint;
+        if (endpoint != null) {
+            endpoints.recordHandshake(endpoint, System.nanoTime() - connectStartedAt);
+        }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void onMessage(final String message) {
+        final MessageTrace trace = factory.getLatencyTracer().startTrace();
+        factory.getReadGate().awaitOpen();
         activityTimer.activity();
+        chargeInbound(2L * message.length());
+        inboundQueue.offer(message, null, trace);
+    }
 
-        factory.queueOnEventThread(new Runnable() {
+    @Override
+    public void onMessage(final ByteBuffer message) {
+        final MessageTrace trace = factory.getLatencyTracer().startTrace();
+        factory.getReadGate().awaitOpen();
+        activityTimer.activity();
+        chargeInbound(message.remaining());
+        inboundQueue.offer(null, message, trace);
+    }
+
+    /**
+     * Called on the socket read thread. The charge is released once the
+     * message has been routed, by which time anything still holding it has
+     * charged it again.
+     */
+    private void chargeInbound(final long bytes) {
+        if (inboundBudget != null && inboundBudget.charge(bytes)
+                && inboundBudget.getPolicy() == SheddingPolicy.DISCONNECT
+                && state == ConnectionState.CONNECTED && !disconnectingOverBudget) {
+            disconnectingOverBudget = true;
+            sendErrorToAllListeners("Disconnecting as the inbound budget of " + inboundBudget.getLimitBytes()
+                    + " bytes is used up", null, null);
+            disconnect();
+        }
+    }
+
+    /**
+     * Fragments are collected and handled as one message, unless together
+     * they pass the streaming threshold. From then on they are handed to the
+     * reader one at a time, and the socket is not read while the reader is a
+     * few fragments behind. Once the last fragment is in, the socket is read
+     * on as soon as the stream has taken its place in the inbound queue, so
+     * later messages are not delivered ahead of it but do not wait for it to
+     * be consumed.
+     */
+    @Override
+    public void onFragment(final ByteBuffer payload, final boolean last) {
+        activityTimer.activity();
+        try {
+            if (fragmentStream == null) {
+                fragments.add(payload);
+                fragmentBytes += payload.remaining();
+                if (streamingThreshold == 0 || fragmentBytes <= streamingThreshold) {
+                    if (last) {
+                        onMessage(reassembleFragments());
+                    }
+                    return;
+                }
+                startStream();
+            }
+            else {
+                fragmentStream.stream.feed(payload);
+            }
+
+            if (last) {
+                final StreamRoute route = fragmentStream;
+                fragmentStream = null;
+                route.stream.end();
+                // usually routed long before the end, as the routing fields lead the message
+                route.awaitRouted();
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortFragments(new IOException("Interrupted while receiving a message"));
+        }
+    }
+
+    private ByteBuffer reassembleFragments() {
+        final ByteBuffer message = ByteBuffer.allocate(fragmentBytes);
+        for (final ByteBuffer fragment : fragments) {
+            message.put(fragment);
+        }
+        message.flip();
+        fragments.clear();
+        fragmentBytes = 0;
+        return message;
+    }
+
+    private void startStream() throws InterruptedException {
+        factory.getReadGate().awaitOpen();
+        final StreamRoute route = new StreamRoute(new FragmentStream(STREAM_CAPACITY));
+        fragmentStream = route;
+        factory.queueOnStreamThread(new Runnable() {
             @Override
             public void run() {
-                final Map<String, String> map = GSON.fromJson(message, Map.class);
-                final String event = map.get(Constants.EVENT_TYPE);
-                handleEvent(event, message);
+                routeStream(route);
             }
         });
+        for (final ByteBuffer fragment : fragments) {
+            route.stream.feed(fragment);
+        }
+        fragments.clear();
+        fragmentBytes = 0;
+    }
+
+    private void abortFragments(final IOException e) {
+        if (fragmentStream != null) {
+            fragmentStream.stream.abort(e);
+            fragmentStream = null;
+        }
+        fragments.clear();
+        fragmentBytes = 0;
+    }
+
+    /**
+     * Runs on a stream thread. Reads the start of the message as far as its
+     * routing fields, then queues the whole message, replayed from the start,
+     * behind the messages received before it. The server should send
+     * eventType and channel ahead of the message body, otherwise the body is
+     * held in memory while looking for them.
+     */
+    private void routeStream(final StreamRoute route) {
+        final FragmentStream stream = route.stream;
+        final NameTable names = factory.getNameTable();
+        String event = null;
+        String channel = null;
+        try {
+            stream.startRecording();
+            final JsonReader reader = new JsonReader(new InputStreamReader(stream, UTF_8));
+            reader.beginObject();
+            while ((event == null || channel == null) && reader.hasNext()) {
+                final String field = reader.nextName();
+                if (Constants.EVENT_TYPE.equals(field)) {
+                    event = names.canonical(reader.nextString());
+                }
+                else if (Constants.CHANNEL.equals(field)) {
+                    channel = names.canonical(reader.nextString());
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            stream.rewind();
+        }
+        catch (final IOException e) {
+            log.warn("Dropping a streamed message that could not be read", e);
+        }
+        catch (final IllegalStateException e) {
+            log.warn("Dropping a streamed message that is not a JSON object", e);
+        }
+        catch (final RuntimeException e) {
+            // the read thread is waiting for the route, so it must always be given one
+            log.warn("Dropping a streamed message that could not be routed", e);
+        }
+
+        if (event == null || channel == null) {
+            route.routed();
+            stream.discard();
+            return;
+        }
+        inboundQueue.offer(stream, event, channel);
+        route.routed();
+    }
+
+    /* InboundQueue.Handler implementation, on the inbound thread */
+
+    @Override
+    public void onInbound(final InboundQueue.Slot slot) {
+        if (slot.stream != null) {
+            factory.getChannelManager().onMessageStream(slot.streamEvent, slot.streamChannel, slot.stream);
+            return;
+        }
+        final long received = slot.text != null ? 2L * slot.text.length() : slot.bytes.remaining();
+        if (slot.trace != null) {
+            slot.trace.parsing();
+        }
+        try {
+            final EventPayload payload;
+            if (slot.text != null) {
+                routingFields.scan(slot.text, slot.routing);
+                payload = EventPayload.of(slot.text);
+            }
+            else {
+                routingFields.scan(slot.bytes, slot.routing);
+                payload = EventPayload.of(slot.bytes);
+            }
+            if (slot.trace != null) {
+                slot.trace.parsed();
+            }
+            handleEvent(slot.routing[ROUTE_EVENT_TYPE], slot.routing, payload, slot.trace);
+        }
+        finally {
+            if (inboundBudget != null) {
+                inboundBudget.release(received);
+            }
+        }
     }
 
     @Override
     public void onClose(final int code, final String reason, final boolean remote) {
+        if (state != ConnectionState.DISCONNECTING) {
+            activityTimer.connectionLost();
+        }
         activityTimer.cancelTimeouts();
+        factory.getReadGate().release();
+        abortFragments(new IOException("Connection closed part way through a message"));
+        disconnectingOverBudget = false;
+        pendingResponses.failAll(new IOException("Connection closed before a response was received"));
 
-        factory.queueOnEventThread(new Runnable() {
+        final EndpointSelector.Endpoint endpoint = currentEndpoint;
+        factory.queueOnControlThread(new Runnable() {
             @Override
             public void run() {
+                if (outboundQueue != null) {
+                    // their response futures were failed above
+                    outboundQueue.clear();
+                }
+                if (state == ConnectionState.CONNECTING && endpoint == currentEndpoint) {
+                    // the handshake with this endpoint failed
+                    endpoints.recordFailure(endpoint);
+                    lastConnectFailure = new IOException("Connection to " + endpoint + " closed with code ["
+                            + code + "], reason [" + reason + "]");
+                    connectToNextEndpoint();
+                    return;
+                }
                 if (state != ConnectionState.DISCONNECTED) {
                     updateState(ConnectionState.DISCONNECTED);
                 }
@@ -284,7 +822,7 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
 
     @Override
     public void onError(final Exception ex) {
-        factory.queueOnEventThread(new Runnable() {
+        factory.queueOnControlThread(new Runnable() {
             @Override
             public void run() {
                 // Do not change com.websocket.client.connection state as Java_WebSocket will also
@@ -297,44 +835,138 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
         });
     }
 
+    /**
+     * A streamed message that the socket read thread feeds, and whether the
+     * stream thread has queued or dropped it yet.
+     */
+    private static class StreamRoute {
+        final FragmentStream stream;
+        private final CountDownLatch routed = new CountDownLatch(1);
+
+        StreamRoute(final FragmentStream stream) {
+            this.stream = stream;
+        }
+
+        void routed() {
+            routed.countDown();
+        }
+
+        void awaitRouted() throws InterruptedException {
+            routed.await();
+        }
+    }
+
     private class ActivityTimer {
         private final long activityTimeout;
         private final long pongTimeout;
+        // null unless the heartbeat adapts to the network
+        private final HeartbeatInterval adaptiveInterval;
 
+        private volatile long lastActivity;
+        private volatile boolean armed;
+        private volatile boolean awaitingPong;
+        // a ping is unanswered by a pong, other traffic does not clear it
+        private boolean pingOutstanding;
+        private long pingSentAt;
         private Future<?> pingTimer;
         private Future<?> pongTimer;
 
-        public ActivityTimer(final long activityTimeout, final long pongTimeout) {
+        private final Runnable idleCheck = new Runnable() {
+            @Override
+            public void run() {
+                checkIdle();
+            }
+        };
+
+        public ActivityTimer(final long activityTimeout, final long pongTimeout, final long maxActivityTimeout) {
             this.activityTimeout = activityTimeout;
             this.pongTimeout = pongTimeout;
+            adaptiveInterval = maxActivityTimeout > 0 ? new HeartbeatInterval(activityTimeout,
+                    Math.min(activityTimeout, MIN_ADAPTIVE_ACTIVITY_TIMEOUT), maxActivityTimeout) : null;
+        }
+
+        /**
+         * @return the idle time after which a ping is sent, in milliseconds
+         */
+        public synchronized long interval() {
+            return adaptiveInterval != null ? adaptiveInterval.current() : activityTimeout;
+        }
+
+        /**
+         * On a message sent to the server - Push back the next ping, as the
+         * traffic keeps NAT and proxy mappings alive just as a ping would. It
+         * does not answer an outstanding ping.
+         */
+        public void outboundActivity() {
+            lastActivity = System.nanoTime();
+            if (!armed && !awaitingPong) {
+                arm();
+            }
+        }
+
+        /**
+         * The connection was lost while a ping was unanswered, so the idle
+         * interval before that ping was too long.
+         */
+        public synchronized void connectionLost() {
+            if (awaitingPong && adaptiveInterval != null) {
+                adaptiveInterval.failed();
+            }
+            awaitingPong = false;
+            pingOutstanding = false;
+        }
+
+        /**
+         * On any activity from the server - Cancel pong timeout - Push back
+         * the next ping. Only a timestamp is written per message; the ping
+         * timer is re-armed when it fires rather than on every message.
+         */
+        public void activity() {
+            lastActivity = System.nanoTime();
+            if (awaitingPong || !armed) {
+                arm();
+            }
         }
 
         /**
-         * On any activity from the server - Cancel pong timeout - Cancel
-         * currently ping timeout and re-schedule
+         * On a pong from the server - Record the round trip time and let the
+         * adaptive interval know the probe succeeded. Only the pong itself
+         * measures these, any other message just proves the connection alive.
          */
-        public synchronized void activity() {
+        public synchronized void pongReceived() {
+            if (!pingOutstanding) {
+                return;
+            }
+            pingOutstanding = false;
+            final EndpointSelector.Endpoint endpoint = currentEndpoint;
+            if (endpoint != null) {
+                endpoints.recordRoundTrip(endpoint, System.nanoTime() - pingSentAt);
+            }
+            if (adaptiveInterval != null) {
+                adaptiveInterval.succeeded();
+            }
+        }
+
+        private synchronized void arm() {
             if (pongTimer != null) {
-                pongTimer.cancel(true);
+                pongTimer.cancel(false);
+                pongTimer = null;
             }
+            awaitingPong = false;
 
-            if (pingTimer != null) {
-                pingTimer.cancel(false);
+            if (!armed) {
+                armed = true;
+                pingTimer = factory.getTimers().schedule(idleCheck, interval(), TimeUnit.MILLISECONDS);
             }
-            pingTimer = factory.getTimers().schedule(new Runnable() {
-                @Override
-                public void run() {
-                    log.debug("Sending ping");
-                    sendMessage(PING_EVENT_SERIALIZED);
-                    schedulePongCheck();
-                }
-            }, activityTimeout, TimeUnit.MILLISECONDS);
         }
 
         /**
          * Cancel any pending timeouts, for example because we are disconnected.
          */
         public synchronized void cancelTimeouts() {
+            armed = false;
+            awaitingPong = false;
+            pingOutstanding = false;
             if (pingTimer != null) {
                 pingTimer.cancel(false);
             }
@@ -343,6 +975,26 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
             }
         }
 
+        private synchronized void checkIdle() {
+            if (!armed) {
+                return;
+            }
+
+            final long interval = interval();
+            final long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+            if (idle < interval) {
+                pingTimer = factory.getTimers().schedule(idleCheck, interval - idle, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            log.debug("Sending ping");
+            armed = false;
+            pingSentAt = System.nanoTime();
+            pingOutstanding = true;
+            sendControlMessage(PING_EVENT_SERIALIZED);
+            schedulePongCheck();
+        }
+
         /**
          * Called when a ping is sent to await the response - Cancel any
          * existing timeout - Schedule new one
@@ -352,13 +1004,35 @@ public class WebSocketConnection implements InternalConnection, WebSocketListene
                 pongTimer.cancel(false);
             }
 
+            awaitingPong = true;
             pongTimer = factory.getTimers().schedule(new Runnable() {
                 @Override
                 public void run() {
+                    if (!pongOverdue()) {
+                        return;
+                    }
                     log.debug("Timed out awaiting pong from server - disconnecting");
+                    connectionLost();
                     disconnect();
                 }
             }, pongTimeout, TimeUnit.MILLISECONDS);
         }
+
+        /**
+         * While reads are paused to push back on the server, the pong may be
+         * waiting unread behind the messages held back, so the check is put
+         * off until reads resume rather than taking the connection down.
+         */
+        private synchronized boolean pongOverdue() {
+            if (!awaitingPong) {
+                // answered while the check was firing
+                return false;
+            }
+            if (factory.getReadGate().isPaused()) {
+                schedulePongCheck();
+                return false;
+            }
+            return true;
+        }
     }
 }
@@ -17,12 +17,22 @@ package com.websocket.client.connection.websocket;
 
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.nio.ByteBuffer;
+
 public interface WebSocketListener {
 
     void onOpen(ServerHandshake handshakedata);
 
     void onMessage(String message);
 
+    void onMessage(ByteBuffer message);
+
+    /**
+     * @param payload one fragment of a message sent in several frames
+     * @param last whether the fragment ends the message
+     */
+    void onFragment(ByteBuffer payload, boolean last);
+
     void onClose(int code, String reason, boolean remote);
 
     void onError(Exception ex);
@@ -27,6 +27,17 @@ public class Constants {
     public static final String COMMAND = "command";
     public static final String SUBSCRIBE = "subscribe";
     public static final String UNSUBSCRIBE = "unsubscribe";
+    public static final String CORRELATION_ID = "correlationId";
+    public static final String REQUEST = "request";
+    public static final String METHOD = "method";
+    public static final String PAYLOAD = "payload";
+    public static final String FILTER = "filter";
+    public static final String SNAPSHOT_EVENT = "snapshot";
+    public static final String PATCH_EVENT = "patch";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String SEQUENCE = "sequence";
+    public static final String PRESENCE = "presence";
+    public static final String CHANNELS = "channels";
 
 
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+/**
+ * Selects how channel events are delivered to listeners. Connection state
+ * changes and protocol handling always run on the control thread and the
+ * routing of inbound messages on the inbound thread; the dispatch mode only
+ * affects calls to
+ * {@link com.websocket.client.channel.SubscriptionEventListener#onEvent(String, String, String)}
+ * and the subscription callbacks.
+ */
+public enum DispatchMode {
+
+    /**
+     * Every listener is called from the single shared event thread. This is
+     * the default and matches the behaviour of earlier versions.
+     */
+    SINGLE_THREAD,
+
+    /**
+     * Each channel gets its own ordered lane so a slow listener on one channel
+     * does not hold up the others. Lanes run on virtual threads when the JVM
+     * supports them (JDK 21 and later) and on a pool of daemon threads
+     * otherwise.
+     */
+    PER_CHANNEL,
+
+    /**
+     * Each channel gets its own ordered lane backed by the executor passed to
+     * {@link com.websocket.client.QSocketOptions#setDispatchExecutor(java.util.concurrent.Executor)}.
+     */
+    EXECUTOR,
+
+    /**
+     * Listeners are called directly on the thread that parsed the message,
+     * skipping the second hop through the event queue. Listeners must return
+     * quickly as they hold up all inbound processing.
+     */
+    DIRECT
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches resolved host addresses for a fixed time, so reconnecting to a host
+ * does not wait on a fresh DNS lookup. Entries are dropped early with
+ * {@link #invalidate(String)} when connecting to them fails, in case the
+ * host has moved.
+ */
+public class DnsCache {
+
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param ttlMillis how long resolved addresses are reused, 0 disables caching
+     */
+    public DnsCache(final long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("DNS cache TTL cannot be negative");
+        }
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @param host a host name or address literal
+     * @return the addresses of the host, in the order the resolver returned them
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        final long now = System.nanoTime();
+        final Entry cached = entries.get(host);
+        if (cached != null && now - cached.resolvedAt < ttlNanos) {
+            return cached.addresses.clone();
+        }
+
+        final InetAddress[] addresses = InetAddress.getAllByName(host);
+        if (ttlNanos > 0) {
+            entries.put(host, new Entry(addresses, now));
+        }
+        return addresses.clone();
+    }
+
+    public void invalidate(final String host) {
+        entries.remove(host);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long resolvedAt;
+
+        Entry(final InetAddress[] addresses, final long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
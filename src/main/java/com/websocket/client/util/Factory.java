@@ -16,10 +16,19 @@
 package com.websocket.client.util;
 
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 import com.websocket.client.QSocket;
 import com.websocket.client.QSocketOptions;
+import com.websocket.client.channel.ChannelGroupEventListener;
+import com.websocket.client.channel.TypedEventListener;
 import com.websocket.client.channel.impl.ChannelImpl;
+import com.websocket.client.channel.impl.ChannelGroupImpl;
 import com.websocket.client.channel.impl.ChannelManager;
+import com.websocket.client.channel.impl.PresenceChannelImpl;
+import com.websocket.client.channel.impl.TypedListenerAdapter;
+import com.websocket.client.codec.PayloadCodecs;
 import com.websocket.client.connection.impl.InternalConnection;
 import com.websocket.client.connection.websocket.WebSocketClientWrapper;
 import com.websocket.client.connection.websocket.WebSocketConnection;
@@ -27,16 +36,31 @@ import com.websocket.client.connection.websocket.WebSocketListener;
 
 import org.java_websocket.client.WebSocketClient;
 
+import java.lang.reflect.Method;
 import java.net.Proxy;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
 
 /**
  * This is a lightweight way of doing dependency injection and enabling classes
@@ -61,15 +85,74 @@ public class Factory {
     private InternalConnection connection;
     private ChannelManager channelManager;
     private ExecutorService eventQueue;
+    private ExecutorService controlQueue;
+    private ExecutorService inboundQueue;
     private ScheduledExecutorService timers;
     private ConnectivityChangeReceiver connectivityChangeReceiver;
-    private static final Object eventLock = new Object();
+    private LatencyTracer latencyTracer;
+    private final ReadGate readGate = new ReadGate();
+    private final NameTable nameTable = new NameTable(NameTable.DEFAULT_CAPACITY);
+    private TimeoutWheel timeoutWheel;
+    private DispatchMode dispatchMode = DispatchMode.SINGLE_THREAD;
+    private Executor dispatchExecutor;
+    private ExecutorService channelThreads;
+    private final Map<String, SerialExecutor> channelLanes = new HashMap<String, SerialExecutor>();
+    // hands lane tasks to whichever channel threads are current, so a lane outlives their shutdown
+    private final Executor channelThreadPool = new Executor() {
+        @Override
+        public void execute(final Runnable r) {
+            getChannelThreads().execute(r);
+        }
+    };
+    private static final ReentrantLock eventLock = new ReentrantLock();
+    // separate from the event lock, so lifecycle work never waits for a listener callback
+    private static final ReentrantLock controlLock = new ReentrantLock();
+    // bounds the fallback channel pool, as a blocked listener holds its thread
+    private static final int MAX_CHANNEL_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int TLS_SESSION_CACHE_SIZE = 16;
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+    private static final long DEFAULT_DNS_CACHE_TTL = 60000;
+    private KeyStore trustStore;
+    private int inboundQueueCapacity;
+    private DnsCache dnsCache;
+    private ExecutorService connectThreads;
+    private ExecutorService streamThreads;
+    private SSLSocketFactory sslSocketFactory;
+    private String messageIdField;
+    private MessageDeduplicator messageDeduplicator;
+    private RateLimiter rateLimiter;
+    private InboundBudget inboundBudget;
+    private Gson gson = new Gson();
+    private PayloadCodecs payloadCodecs;
 
     public synchronized InternalConnection getConnection(final QSocketOptions options) {
         if (connection == null) {
+            latencyTracer = new LatencyTracer(options.getLatencyTraceSampleRate());
+            dispatchMode = options.getDispatchMode();
+            dispatchExecutor = options.getDispatchExecutor();
+            trustStore = options.getTrustStore();
+            inboundQueueCapacity = SlotRing.sizeFor(options.getInboundQueueCapacity());
+            dnsCache = new DnsCache(options.getDnsCacheTtl());
+            gson = options.getGson();
+            messageIdField = options.getMessageIdField();
+            if (messageIdField != null) {
+                messageDeduplicator = new MessageDeduplicator(options.getDeduplicationWindow(),
+                        options.getDeduplicationCapacity(), options.isDropUnconfirmedDuplicates());
+            }
+            if (options.getInboundBudget() > 0) {
+                inboundBudget = new InboundBudget(options.getInboundBudget(), options.getSheddingPolicy(),
+                        options.getLowPriorityChannels(), readGate);
+            }
+            if (options.getMessagesPerSecond() > 0 || options.getBytesPerSecond() > 0) {
+                rateLimiter = new RateLimiter(options.getMessagesPerSecond(), options.getBytesPerSecond(),
+                        options.getRateLimitPolicy());
+            }
             try {
-                connection = new WebSocketConnection(options.buildUrl(), options.getActivityTimeout(),
-                        options.getPongTimeout(), options.getProxy(), this, options.getUrlHeader());
+                connection = new WebSocketConnection(options.buildUrls(), options.getActivityTimeout(),
+                        options.getPongTimeout(), options.getMaxActivityTimeout(), options.getProxy(), this,
+                        options.getUrlHeader(),
+                        options.getInboundQueueCapacity(), options.getConnectTimeout(),
+                        options.getConnectionAttemptDelay(), options.getStreamingThreshold());
             }
             catch (final URISyntaxException e) {
                 throw new IllegalArgumentException("Failed to initialise com.websocket.client.connection", e);
@@ -78,8 +161,105 @@ public class Factory {
         return connection;
     }
 
-    public WebSocketClient newWebSocketClientWrapper(final URI uri, final Proxy proxy, final WebSocketListener webSocketListener,final HashMap<String, String> header) throws SSLException {
-        return new WebSocketClientWrapper(uri, proxy, webSocketListener, header);
+    public synchronized LatencyTracer getLatencyTracer() {
+        if (latencyTracer == null) {
+            latencyTracer = new LatencyTracer(0);
+        }
+        return latencyTracer;
+    }
+
+    public synchronized TimeoutWheel getTimeoutWheel() {
+        if (timeoutWheel == null) {
+            timeoutWheel = new TimeoutWheel(this);
+        }
+        return timeoutWheel;
+    }
+
+    public synchronized DnsCache getDnsCache() {
+        if (dnsCache == null) {
+            dnsCache = new DnsCache(DEFAULT_DNS_CACHE_TTL);
+        }
+        return dnsCache;
+    }
+
+    /**
+     * @return the field holding message ids, or null if messages are not
+     *         deduplicated
+     */
+    public synchronized String getMessageIdField() {
+        return messageIdField;
+    }
+
+    /**
+     * @return the deduplicator for channel messages, or null if disabled
+     */
+    public synchronized MessageDeduplicator getMessageDeduplicator() {
+        return messageDeduplicator;
+    }
+
+    /**
+     * @return the limiter for outbound traffic, or null if not rate limited
+     */
+    public synchronized RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the budget for received data waiting to be processed, or null
+     *         if there is none
+     */
+    public synchronized InboundBudget getInboundBudget() {
+        return inboundBudget;
+    }
+
+    /**
+     * @return the number of received messages that can wait to be routed,
+     *         which is how many can still arrive once reads are paused
+     */
+    public synchronized int getInboundQueueCapacity() {
+        return inboundQueueCapacity;
+    }
+
+    public ReadGate getReadGate() {
+        return readGate;
+    }
+
+    public NameTable getNameTable() {
+        return nameTable;
+    }
+
+    public WebSocketClient newWebSocketClientWrapper(final URI uri, final Proxy proxy, final WebSocketListener webSocketListener, final HashMap<String, String> header, final Socket socket) {
+        return new WebSocketClientWrapper(uri, proxy, webSocketListener, header, socket);
+    }
+
+    /**
+     * The SSLContext is created once and shared by every connection attempt.
+     * Its client session cache is what allows a reconnect to resume the
+     * previous TLS session instead of doing a full handshake.
+     */
+    public synchronized SSLSocketFactory getSslSocketFactory() throws SSLException {
+        if (sslSocketFactory == null) {
+            try {
+                final SSLContext sslContext = SSLContext.getInstance("TLS");
+                if (trustStore == null) {
+                    // java's default key and trust store
+                    sslContext.init(null, null, null);
+                }
+                else {
+                    final TrustManagerFactory trustManagerFactory = TrustManagerFactory
+                            .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                    trustManagerFactory.init(trustStore);
+                    sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+                }
+                sslContext.getClientSessionContext().setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+                sslContext.getClientSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+                sslSocketFactory = sslContext.getSocketFactory();
+            }
+            catch (final GeneralSecurityException e) {
+                throw new SSLException(e);
+            }
+        }
+        return sslSocketFactory;
     }
 
     public synchronized ScheduledExecutorService getTimers() {
@@ -93,6 +273,35 @@ public class Factory {
         return new ChannelImpl(channelName, this);
     }
 
+    public PresenceChannelImpl newPresenceChannel(final String channelName) {
+        return new PresenceChannelImpl(channelName, this);
+    }
+
+    public ChannelGroupImpl newChannelGroup(final Collection<String> channelNames,
+                                            final ChannelGroupEventListener listener) {
+        return new ChannelGroupImpl(channelNames, listener, this);
+    }
+
+    public <T> TypedListenerAdapter<T> newTypedListenerAdapter(final TypeToken<T> type,
+                                                              final TypedEventListener<T> listener) {
+        return new TypedListenerAdapter<T>(getTypeAdapter(type), listener);
+    }
+
+    /**
+     * Adapters are looked up once per type and shared by every subscription
+     * decoding to that type.
+     */
+    public <T> TypeAdapter<T> getTypeAdapter(final TypeToken<T> type) {
+        return getPayloadCodecs().getAdapter(type);
+    }
+
+    public synchronized PayloadCodecs getPayloadCodecs() {
+        if (payloadCodecs == null) {
+            payloadCodecs = new PayloadCodecs(gson);
+        }
+        return payloadCodecs;
+    }
+
     public synchronized ChannelManager getChannelManager() {
         if (channelManager == null) {
             channelManager = new ChannelManager(this);
@@ -109,29 +318,221 @@ public class Factory {
 
     public synchronized void queueOnEventThread(final Runnable r) {
         if (eventQueue == null) {
-            eventQueue = Executors.newSingleThreadExecutor(new DaemonThreadFactory("eventQueue"));
+            eventQueue = new EventThreadExecutor("eventQueue", eventLock);
+        }
+        eventQueue.execute(r);
+    }
+
+    /**
+     * Queues connection and subscription lifecycle work, such as state
+     * changes, pings, subscribes and acknowledgement deadlines. The
+     * control thread has a lock of its own and no data work is queued on it,
+     * so lifecycle work never waits behind a data backlog.
+     */
+    public synchronized void queueOnControlThread(final Runnable r) {
+        if (controlQueue == null) {
+            controlQueue = new EventThreadExecutor("control", controlLock);
+        }
+        controlQueue.execute(r);
+    }
+
+    /**
+     * Queues the routing of inbound frames to their channels. Lifecycle
+     * events found while routing are handed on to the control thread and
+     * channel events to the event thread or channel lanes, so routing never
+     * runs a listener itself.
+     */
+    public synchronized void queueOnInboundThread(final Runnable r) {
+        if (inboundQueue == null) {
+            inboundQueue = Executors.newSingleThreadExecutor(new DaemonThreadFactory("inbound"));
+        }
+        inboundQueue.execute(r);
+    }
+
+    /**
+     * Queues a listener callback for the given channel according to the
+     * configured {@link DispatchMode}. Callbacks for the same channel are
+     * always delivered in the order they were queued.
+     */
+    public void queueOnChannelThread(final String channelName, final Runnable r) {
+        switch (dispatchMode) {
+            case DIRECT:
+                r.run();
+                break;
+            case PER_CHANNEL:
+            case EXECUTOR:
+                SerialExecutor lane = getChannelLane(channelName);
+                // a lane retired since it was looked up has drained, so its successor keeps the order
+                while (!lane.tryExecute(r)) {
+                    lane = getChannelLane(channelName);
+                }
+                break;
+            default:
+                queueOnEventThread(r);
+        }
+    }
+
+    /**
+     * Runs blocking connection work, such as DNS lookups and TCP connects,
+     * away from the event thread.
+     */
+    public synchronized void queueOnConnectThread(final Runnable r) {
+        if (connectThreads == null) {
+            connectThreads = Executors.newCachedThreadPool(new DaemonThreadFactory("connect"));
+        }
+        connectThreads.execute(r);
+    }
+
+    /**
+     * Runs the parsing and discarding of streamed messages, which block while
+     * waiting for the rest of a message to arrive.
+     */
+    public synchronized void queueOnStreamThread(final Runnable r) {
+        if (streamThreads == null) {
+            streamThreads = Executors.newCachedThreadPool(new DaemonThreadFactory("stream"));
+        }
+        streamThreads.execute(r);
+    }
+
+    /**
+     * Drops the delivery lane for a channel that is no longer subscribed,
+     * once the callbacks already queued on it have been delivered. Until then
+     * a resubscribe to the channel reuses the lane, so its callbacks never run
+     * alongside those of the earlier subscription.
+     */
+    public void releaseChannelThread(final String channelName) {
+        final SerialExecutor lane;
+        synchronized (this) {
+            lane = channelLanes.get(channelName);
         }
-        eventQueue.execute(new Runnable() {
+        if (lane != null) {
+            dropWhenDrained(channelName, lane);
+        }
+    }
+
+    private void dropWhenDrained(final String channelName, final SerialExecutor lane) {
+        // not queued if the lane has already been retired and dropped
+        lane.tryExecute(new Runnable() {
             @Override
             public void run() {
-                synchronized (eventLock) {
-                    r.run();
-                }
+                dropChannelLane(channelName, lane);
             }
         });
     }
 
+    private synchronized void dropChannelLane(final String channelName, final SerialExecutor lane) {
+        // a lane with callbacks queued since the release is in use again
+        if (channelLanes.get(channelName) == lane && lane.retireIfDrained()) {
+            channelLanes.remove(channelName);
+        }
+    }
+
+    private synchronized SerialExecutor getChannelLane(final String channelName) {
+        SerialExecutor lane = channelLanes.get(channelName);
+        if (lane == null) {
+            lane = new SerialExecutor(dispatchMode == DispatchMode.EXECUTOR ? dispatchExecutor : channelThreadPool);
+            channelLanes.put(channelName, lane);
+        }
+        return lane;
+    }
+
+    private synchronized ExecutorService getChannelThreads() {
+        if (channelThreads == null) {
+            channelThreads = newVirtualThreadExecutor();
+            if (channelThreads == null) {
+                final ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CHANNEL_THREADS, MAX_CHANNEL_THREADS,
+                        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("channel"));
+                pool.allowCoreThreadTimeOut(true);
+                channelThreads = pool;
+            }
+        }
+        return channelThreads;
+    }
+
+    /**
+     * Looked up reflectively so the library still runs on Android and on JVMs
+     * older than 21, which fall back to a bounded pool of daemon threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (final Exception e) {
+            return null;
+        }
+    }
+
     public synchronized void shutdownThreads() {
         if (eventQueue != null) {
             eventQueue.shutdown();
             eventQueue = null;
         }
+        if (controlQueue != null) {
+            controlQueue.shutdown();
+            controlQueue = null;
+        }
+        if (inboundQueue != null) {
+            inboundQueue.shutdown();
+            inboundQueue = null;
+        }
+        if (channelThreads != null) {
+            // tasks already handed to the threads still run, later ones go to the next threads
+            channelThreads.shutdown();
+            channelThreads = null;
+        }
+        // each lane is kept until it has drained, so one for the same channel never runs alongside it
+        final Iterator<Map.Entry<String, SerialExecutor>> lanes = channelLanes.entrySet().iterator();
+        while (lanes.hasNext()) {
+            final Map.Entry<String, SerialExecutor> lane = lanes.next();
+            if (lane.getValue().retireIfIdle()) {
+                lanes.remove();
+            }
+            else {
+                dropWhenDrained(lane.getKey(), lane.getValue());
+            }
+        }
+        if (connectThreads != null) {
+            connectThreads.shutdown();
+            connectThreads = null;
+        }
+        if (streamThreads != null) {
+            streamThreads.shutdown();
+            streamThreads = null;
+        }
         if (timers != null) {
             timers.shutdown();
             timers = null;
         }
     }
 
+    /**
+     * The event and control threads. Each task runs holding the given lock,
+     * which is shared with the same thread of other QSocket instances, taken
+     * in beforeExecute rather than by wrapping every task in another Runnable.
+     */
+    private static class EventThreadExecutor extends ThreadPoolExecutor {
+        private final ReentrantLock lock;
+
+        EventThreadExecutor(final String name, final ReentrantLock lock) {
+            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new DaemonThreadFactory(name));
+            this.lock = lock;
+        }
+
+        @Override
+        protected void beforeExecute(final Thread t, final Runnable r) {
+            lock.lock();
+            super.beforeExecute(t, r);
+        }
+
+        @Override
+        protected void afterExecute(final Runnable r, final Throwable t) {
+            super.afterExecute(r, t);
+            lock.unlock();
+        }
+    }
+
     private static class DaemonThreadFactory implements ThreadFactory {
         private final String name;
 
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The bytes of one fragmented message, read as they arrive. The socket read
+ * thread feeds fragments in and waits once {@code capacity} of them are
+ * unread, so however large the message, only a few fragments are held in
+ * memory at a time.
+ *
+ * What is read while recording is kept, and {@link #rewind()} replays it, so
+ * the start of a message can be parsed for routing and then read again by
+ * its listener.
+ */
+public class FragmentStream extends InputStream {
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> fragments;
+    private volatile IOException failure;
+    private ByteBuffer current;
+    private boolean ended;
+    private ByteArrayOutputStream recording;
+    private ByteBuffer replay;
+
+    public FragmentStream(final int capacity) {
+        fragments = new ArrayBlockingQueue<ByteBuffer>(capacity);
+    }
+
+    /* called on the socket read thread */
+
+    /**
+     * @param fragment the payload of a fragment, which must not be modified
+     *            afterwards
+     */
+    public void feed(final ByteBuffer fragment) throws InterruptedException {
+        if (fragment.hasRemaining()) {
+            fragments.put(fragment);
+        }
+    }
+
+    /**
+     * Marks the end of the message, after its last fragment.
+     */
+    public void end() throws InterruptedException {
+        fragments.put(END);
+    }
+
+    /**
+     * Fails the reader, for example because the connection closed part way
+     * through the message.
+     */
+    public void abort(final IOException e) {
+        failure = e;
+        fragments.clear();
+        fragments.offer(END);
+    }
+
+    /* called by the consumer */
+
+    public void startRecording() {
+        recording = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Stops recording and makes the recorded bytes the next to be read.
+     */
+    public void rewind() {
+        if (recording != null) {
+            replay = ByteBuffer.wrap(recording.toByteArray());
+            recording = null;
+        }
+    }
+
+    /**
+     * Reads and drops whatever is left of the message.
+     */
+    public void discard() {
+        recording = null;
+        try {
+            final byte[] skipped = new byte[8192];
+            while (read(skipped, 0, skipped.length) != -1) {
+                // keep reading until the last fragment
+            }
+        }
+        catch (final IOException e) {
+            // aborted, so nothing more will arrive
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (replay != null) {
+            final int count = Math.min(len, replay.remaining());
+            replay.get(b, off, count);
+            if (!replay.hasRemaining()) {
+                replay = null;
+            }
+            return count;
+        }
+
+        final ByteBuffer source = nextFragment();
+        if (source == null) {
+            return -1;
+        }
+        final int count = Math.min(len, source.remaining());
+        source.get(b, off, count);
+        if (recording != null) {
+            recording.write(b, off, count);
+        }
+        return count;
+    }
+
+    private ByteBuffer nextFragment() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (ended) {
+                return null;
+            }
+            try {
+                current = fragments.take();
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the rest of the message");
+            }
+            if (failure != null) {
+                ended = true;
+                throw failure;
+            }
+            if (current == END) {
+                ended = true;
+                current = null;
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import com.websocket.client.channel.EventPayload;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the received data waiting anywhere in the client: in the
+ * inbound queue before it is routed, in channel delivery lanes, and in the
+ * buffers of event subscribers. Each place charges a payload's
+ * {@link EventPayload#getReceivedBytes() size} when it takes it and releases
+ * the same amount when it lets go, so a payload waiting in two places is
+ * counted twice.
+ *
+ * Charging and releasing are lock free, and the usage can be read from any
+ * thread.
+ */
+public class InboundBudget {
+
+    private final long limit;
+    private final SheddingPolicy policy;
+    private final Set<String> lowPriorityChannels;
+    private final ReadGate readGate;
+    private final AtomicLong used = new AtomicLong();
+    private volatile long peak;
+    private volatile boolean readsPaused;
+    private volatile long shedMessages;
+    private volatile long shedBytes;
+
+    public InboundBudget(final long limit, final SheddingPolicy policy, final Set<String> lowPriorityChannels,
+                         final ReadGate readGate) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Inbound budget must be at least 1 byte");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Shedding policy cannot be null");
+        }
+
+        this.limit = limit;
+        this.policy = policy;
+        this.lowPriorityChannels = Collections.unmodifiableSet(new HashSet<String>(lowPriorityChannels));
+        this.readGate = readGate;
+    }
+
+    public SheddingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return true if the budget is now used up
+     */
+    public boolean charge(final long bytes) {
+        final long now = used.addAndGet(bytes);
+        if (now > peak) {
+            peak = now;
+        }
+        if (now < limit) {
+            return false;
+        }
+        if (policy == SheddingPolicy.PAUSE_READS) {
+            pauseReads();
+        }
+        return true;
+    }
+
+    public void release(final long bytes) {
+        final long now = used.addAndGet(-bytes);
+        if (readsPaused && now <= limit / 2) {
+            resumeReads();
+        }
+    }
+
+    /**
+     * @return whether events on the channel should be dropped rather than
+     *         queued
+     */
+    public boolean shouldShed(final String channelName) {
+        return policy == SheddingPolicy.DROP_LOW_PRIORITY && used.get() >= limit
+                && lowPriorityChannels.contains(channelName);
+    }
+
+    /**
+     * Called on the inbound thread for every event dropped by
+     * {@link #shouldShed(String)}.
+     */
+    public void recordShed(final long bytes) {
+        shedMessages++;
+        shedBytes += bytes;
+    }
+
+    /**
+     * @return the bytes waiting to be processed
+     */
+    public long getUsedBytes() {
+        return used.get();
+    }
+
+    /**
+     * @return the most bytes that have been waiting at once
+     */
+    public long getPeakBytes() {
+        return peak;
+    }
+
+    public long getLimitBytes() {
+        return limit;
+    }
+
+    /**
+     * @return the number of events dropped by
+     *         {@link SheddingPolicy#DROP_LOW_PRIORITY}
+     */
+    public long getShedMessages() {
+        return shedMessages;
+    }
+
+    /**
+     * @return the bytes of the events dropped by
+     *         {@link SheddingPolicy#DROP_LOW_PRIORITY}
+     */
+    public long getShedBytes() {
+        return shedBytes;
+    }
+
+    /**
+     * @return whether reads are paused by {@link SheddingPolicy#PAUSE_READS}
+     */
+    public boolean isPausingReads() {
+        return readsPaused;
+    }
+
+    /**
+     * The gate is paused on every charge over the limit, as a disconnect
+     * releases it without clearing readsPaused. The usage is checked again
+     * once paused, as a release that ran before readsPaused was set would not
+     * have resumed reads.
+     */
+    private synchronized void pauseReads() {
+        if (used.get() >= limit) {
+            readsPaused = true;
+            readGate.pause(this);
+            if (used.get() <= limit / 2) {
+                readsPaused = false;
+                readGate.resume(this);
+            }
+        }
+    }
+
+    private synchronized void resumeReads() {
+        if (readsPaused && used.get() <= limit / 2) {
+            readsPaused = false;
+            readGate.resume(this);
+        }
+    }
+}
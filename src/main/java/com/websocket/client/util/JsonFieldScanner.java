@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads selected top level fields straight from a JSON object, either from
+ * its UTF-8 bytes or from a String, without building a tree or decoding the
+ * rest of the document. Values of other fields, however large, are skipped
+ * character by character, and scanning stops as soon as every requested field
+ * has been found.
+ *
+ * String values are returned unescaped, numbers and literals are returned as
+ * their JSON text, and nested objects or arrays are not returned.
+ *
+ * String values of selected fields can be resolved through a {@link NameTable}
+ * with {@link #internValues(int, NameTable)}, so names the client registered,
+ * such as its channels, are returned as canonical instances without being
+ * copied. Other values are returned as new Strings and not added to the table.
+ *
+ * A scanner reuses its internal state between calls, so an instance must only
+ * be used by one thread at a time.
+ */
+public class JsonFieldScanner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String[] fields;
+    private final byte[][] encodedFields;
+    private final NameTable[] nameTables;
+    private final ByteCursor byteCursor = new ByteCursor();
+    private final CharCursor charCursor = new CharCursor();
+
+    /**
+     * @param fields the names of the top level fields to read
+     */
+    public JsonFieldScanner(final String... fields) {
+        this.fields = fields.clone();
+        encodedFields = new byte[fields.length][];
+        nameTables = new NameTable[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            encodedFields[i] = fields[i].getBytes(UTF_8);
+        }
+    }
+
+    /**
+     * Resolves string values of a field through the given table.
+     *
+     * @param field the index of the field, in the order given to the constructor
+     * @param names the table to resolve values through, or null to stop interning
+     */
+    public void internValues(final int field, final NameTable names) {
+        nameTables[field] = names;
+    }
+
+    /**
+     * @param json a buffer holding a UTF-8 encoded JSON object, its position
+     *            is not changed
+     * @param values receives the value of each requested field, in the order
+     *            they were given to the constructor, or null if absent
+     * @throws JsonSyntaxException if the buffer does not hold a JSON object
+     */
+    public void scan(final ByteBuffer json, final String[] values) {
+        byteCursor.reset(json);
+        try {
+            scan(byteCursor, values);
+        }
+        finally {
+            byteCursor.reset(null);
+        }
+    }
+
+    /**
+     * @param json a JSON object
+     * @param values receives the value of each requested field, in the order
+     *            they were given to the constructor, or null if absent
+     * @throws JsonSyntaxException if the text is not a JSON object
+     */
+    public void scan(final String json, final String[] values) {
+        charCursor.reset(json);
+        try {
+            scan(charCursor, values);
+        }
+        finally {
+            charCursor.reset(null);
+        }
+    }
+
+    private void scan(final Cursor in, final String[] values) {
+        Arrays.fill(values, null);
+        int remaining = fields.length;
+
+        in.skipWhitespace();
+        in.expect('{');
+        while (remaining > 0) {
+            in.skipWhitespace();
+            if (in.peek() == '}') {
+                break;
+            }
+            in.expect('"');
+            final int field = in.readFieldName();
+            in.skipWhitespace();
+            in.expect(':');
+            in.skipWhitespace();
+
+            if (field >= 0 && values[field] == null) {
+                values[field] = in.readScalar(nameTables[field]);
+                if (values[field] != null) {
+                    remaining--;
+                }
+            }
+            else {
+                in.skipValue();
+            }
+
+            in.skipWhitespace();
+            if (in.peek() == ',') {
+                in.next();
+            }
+            else {
+                in.expect('}');
+                break;
+            }
+        }
+    }
+
+    /**
+     * Walks JSON text one character (or UTF-8 byte) at a time. All structural
+     * characters in JSON are ASCII, so the same logic works on both.
+     */
+    private abstract class Cursor {
+        int pos;
+        int start;
+        int limit;
+
+        abstract int at(int index);
+
+        abstract String text(int from, int to);
+
+        abstract boolean nameEquals(int field, int from, int to);
+
+        abstract String lookup(NameTable names, int from, int to);
+
+        int peek() {
+            if (pos >= limit) {
+                throw error("Unexpected end of input");
+            }
+            return at(pos);
+        }
+
+        int next() {
+            final int c = peek();
+            pos++;
+            return c;
+        }
+
+        void expect(final char c) {
+            if (next() != c) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < limit) {
+                final int c = at(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * Called after the opening quote of a field name.
+         *
+         * @return the index of the requested field, or -1 if it was not requested
+         */
+        int readFieldName() {
+            final int from = pos;
+            final boolean escaped = skipString();
+            final int to = pos - 1;
+
+            if (escaped) {
+                pos = from;
+                final String name = readString();
+                for (int i = 0; i < fields.length; i++) {
+                    if (fields[i].equals(name)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            for (int i = 0; i < fields.length; i++) {
+                if (nameEquals(i, from, to)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @param names the table to resolve string values through, or null
+         * @return the value as a string, or null if it is an object or array,
+         *         which are skipped
+         */
+        String readScalar(final NameTable names) {
+            final int c = peek();
+            if (c == '"') {
+                pos++;
+                if (names == null) {
+                    return readString();
+                }
+                final int from = pos;
+                if (!skipString()) {
+                    final String known = lookup(names, from, pos - 1);
+                    if (known != null) {
+                        return known;
+                    }
+                }
+                pos = from;
+                // not a registered name, so it is not worth a place in the table
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                skipValue();
+                return null;
+            }
+            final int from = pos;
+            skipLiteral();
+            if (from == pos) {
+                throw error("Expected a value");
+            }
+            return text(from, pos);
+        }
+
+        void skipValue() {
+            final int c = peek();
+            if (c == '"') {
+                pos++;
+                skipString();
+            }
+            else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    final int n = next();
+                    if (n == '"') {
+                        skipString();
+                    }
+                    else if (n == '{' || n == '[') {
+                        depth++;
+                    }
+                    else if (n == '}' || n == ']') {
+                        depth--;
+                    }
+                } while (depth > 0);
+            }
+            else {
+                skipLiteral();
+            }
+        }
+
+        private void skipLiteral() {
+            while (pos < limit) {
+                final int c = at(pos);
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * Called after an opening quote, leaves the cursor after the closing one.
+         *
+         * @return whether the string contains escape sequences
+         */
+        private boolean skipString() {
+            boolean escaped = false;
+            while (true) {
+                final int c = next();
+                if (c == '"') {
+                    return escaped;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                    next();
+                }
+            }
+        }
+
+        /**
+         * Called after an opening quote, leaves the cursor after the closing one.
+         */
+        private String readString() {
+            final int from = pos;
+            if (!skipString()) {
+                return text(from, pos - 1);
+            }
+
+            final StringBuilder value = new StringBuilder(pos - from);
+            pos = from;
+            int segment = pos;
+            while (true) {
+                final int c = next();
+                if (c == '"') {
+                    value.append(text(segment, pos - 1));
+                    return value.toString();
+                }
+                if (c == '\\') {
+                    value.append(text(segment, pos - 1));
+                    final int escape = next();
+                    switch (escape) {
+                        case 'b':
+                            value.append('\b');
+                            break;
+                        case 'f':
+                            value.append('\f');
+                            break;
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 'r':
+                            value.append('\r');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'u':
+                            if (pos + 4 > limit) {
+                                throw error("Unexpected end of input");
+                            }
+                            try {
+                                value.append((char) Integer.parseInt(text(pos, pos + 4), 16));
+                            }
+                            catch (final NumberFormatException e) {
+                                throw error("Invalid unicode escape");
+                            }
+                            pos += 4;
+                            break;
+                        default:
+                            value.append((char) escape);
+                    }
+                    segment = pos;
+                }
+            }
+        }
+
+        JsonSyntaxException error(final String message) {
+            return new JsonSyntaxException(message + " at offset " + (pos - start));
+        }
+    }
+
+    private class ByteCursor extends Cursor {
+        private ByteBuffer buffer;
+
+        void reset(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            if (buffer != null) {
+                start = pos = buffer.position();
+                limit = buffer.limit();
+            }
+        }
+
+        @Override
+        int at(final int index) {
+            return buffer.get(index) & 0xff;
+        }
+
+        @Override
+        String text(final int from, final int to) {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + from, to - from, UTF_8);
+            }
+            final byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            return new String(bytes, UTF_8);
+        }
+
+        @Override
+        String lookup(final NameTable names, final int from, final int to) {
+            return names.lookup(buffer, from, to);
+        }
+
+        @Override
+        boolean nameEquals(final int field, final int from, final int to) {
+            final byte[] name = encodedFields[field];
+            if (name.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (buffer.get(from + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private class CharCursor extends Cursor {
+        private String json;
+
+        void reset(final String json) {
+            this.json = json;
+            if (json != null) {
+                start = pos = 0;
+                limit = json.length();
+            }
+        }
+
+        @Override
+        int at(final int index) {
+            return json.charAt(index);
+        }
+
+        @Override
+        String text(final int from, final int to) {
+            return json.substring(from, to);
+        }
+
+        @Override
+        String lookup(final NameTable names, final int from, final int to) {
+            return names.lookup(json, from, to);
+        }
+
+        @Override
+        boolean nameEquals(final int field, final int from, final int to) {
+            final String name = fields[field];
+            return name.length() == to - from && json.regionMatches(from, name, 0, name.length());
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies JSON Patch (RFC 6902) and JSON Merge Patch (RFC 7396) documents to
+ * a Gson tree in place. Both methods return the new root, which differs from
+ * the one passed in when the patch replaces the whole document.
+ *
+ * A patch that cannot be applied throws an IllegalArgumentException. JSON
+ * Patch operations before the failing one have already been applied by then,
+ * so the document should be treated as out of date.
+ */
+public class JsonPatch {
+
+    private JsonPatch() {
+    }
+
+    /**
+     * @param document the document to patch
+     * @param operations an array of RFC 6902 operations
+     * @return the patched document
+     */
+    public static JsonElement apply(JsonElement document, final JsonArray operations) {
+        for (final JsonElement element : operations) {
+            if (!element.isJsonObject()) {
+                throw new IllegalArgumentException("Patch operation is not an object: " + element);
+            }
+            document = applyOperation(document, element.getAsJsonObject());
+        }
+        return document;
+    }
+
+    /**
+     * @param target the document to patch
+     * @param patch an RFC 7396 merge patch
+     * @return the patched document
+     */
+    public static JsonElement merge(final JsonElement target, final JsonElement patch) {
+        if (!patch.isJsonObject()) {
+            return patch;
+        }
+
+        final JsonObject result = target != null && target.isJsonObject() ? target.getAsJsonObject() : new JsonObject();
+        for (final Map.Entry<String, JsonElement> member : patch.getAsJsonObject().entrySet()) {
+            if (member.getValue().isJsonNull()) {
+                result.remove(member.getKey());
+            }
+            else {
+                result.add(member.getKey(), merge(result.get(member.getKey()), member.getValue()));
+            }
+        }
+        return result;
+    }
+
+    private static JsonElement applyOperation(final JsonElement document, final JsonObject operation) {
+        final String op = stringMember(operation, "op");
+        final List<String> path = parsePointer(stringMember(operation, "path"));
+
+        if ("add".equals(op)) {
+            return add(document, path, valueMember(operation));
+        }
+        if ("remove".equals(op)) {
+            remove(document, path);
+            return document;
+        }
+        if ("replace".equals(op)) {
+            if (path.isEmpty()) {
+                return valueMember(operation);
+            }
+            remove(document, path);
+            return add(document, path, valueMember(operation));
+        }
+        if ("move".equals(op)) {
+            final List<String> from = parsePointer(stringMember(operation, "from"));
+            if (isPrefix(from, path) && from.size() < path.size()) {
+                throw new IllegalArgumentException("Cannot move a value into one of its own children");
+            }
+            final JsonElement value = get(document, from);
+            remove(document, from);
+            return add(document, path, value);
+        }
+        if ("copy".equals(op)) {
+            final List<String> from = parsePointer(stringMember(operation, "from"));
+            return add(document, path, deepCopy(get(document, from)));
+        }
+        if ("test".equals(op)) {
+            if (!get(document, path).equals(valueMember(operation))) {
+                throw new IllegalArgumentException("Test failed at " + stringMember(operation, "path"));
+            }
+            return document;
+        }
+        throw new IllegalArgumentException("Unknown patch operation " + op);
+    }
+
+    private static JsonElement add(final JsonElement document, final List<String> path, final JsonElement value) {
+        if (path.isEmpty()) {
+            return value;
+        }
+
+        final JsonElement parent = get(document, path.subList(0, path.size() - 1));
+        final String key = path.get(path.size() - 1);
+        if (parent.isJsonObject()) {
+            parent.getAsJsonObject().add(key, value);
+        }
+        else if (parent.isJsonArray()) {
+            final JsonArray array = parent.getAsJsonArray();
+            final int index = "-".equals(key) ? array.size() : arrayIndex(key, array.size() + 1);
+            insert(array, index, value);
+        }
+        else {
+            throw new IllegalArgumentException("Cannot add to a primitive at " + path);
+        }
+        return document;
+    }
+
+    private static void remove(final JsonElement document, final List<String> path) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Cannot remove the whole document");
+        }
+
+        final JsonElement parent = get(document, path.subList(0, path.size() - 1));
+        final String key = path.get(path.size() - 1);
+        if (parent.isJsonObject()) {
+            if (parent.getAsJsonObject().remove(key) == null) {
+                throw new IllegalArgumentException("No member to remove at " + path);
+            }
+        }
+        else if (parent.isJsonArray()) {
+            final JsonArray array = parent.getAsJsonArray();
+            array.remove(arrayIndex(key, array.size()));
+        }
+        else {
+            throw new IllegalArgumentException("Cannot remove from a primitive at " + path);
+        }
+    }
+
+    private static JsonElement get(JsonElement document, final List<String> path) {
+        for (final String key : path) {
+            if (document != null && document.isJsonObject()) {
+                document = document.getAsJsonObject().get(key);
+            }
+            else if (document != null && document.isJsonArray()) {
+                final JsonArray array = document.getAsJsonArray();
+                document = array.get(arrayIndex(key, array.size()));
+            }
+            else {
+                document = null;
+            }
+            if (document == null) {
+                throw new IllegalArgumentException("No value at " + path);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * JsonArray has no insert, so the tail is removed and added back after
+     * the new value.
+     */
+    private static void insert(final JsonArray array, final int index, final JsonElement value) {
+        final List<JsonElement> tail = new ArrayList<JsonElement>();
+        while (array.size() > index) {
+            tail.add(array.remove(index));
+        }
+        array.add(value);
+        for (final JsonElement element : tail) {
+            array.add(element);
+        }
+    }
+
+    /**
+     * @param limit one more than the highest index allowed
+     */
+    private static int arrayIndex(final String key, final int limit) {
+        final int index;
+        try {
+            index = Integer.parseInt(key);
+        }
+        catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid array index " + key);
+        }
+        if (index < 0 || index >= limit || (key.length() > 1 && key.charAt(0) == '0')) {
+            throw new IllegalArgumentException("Array index out of range " + key);
+        }
+        return index;
+    }
+
+    private static List<String> parsePointer(final String pointer) {
+        final List<String> path = new ArrayList<String>();
+        if (pointer.isEmpty()) {
+            return path;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("Invalid JSON pointer " + pointer);
+        }
+        for (final String token : pointer.substring(1).split("/", -1)) {
+            path.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return path;
+    }
+
+    private static boolean isPrefix(final List<String> prefix, final List<String> path) {
+        return prefix.size() <= path.size() && path.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private static String stringMember(final JsonObject operation, final String name) {
+        final JsonElement member = operation.get(name);
+        if (member == null || !member.isJsonPrimitive()) {
+            throw new IllegalArgumentException("Patch operation is missing " + name + ": " + operation);
+        }
+        return member.getAsString();
+    }
+
+    private static JsonElement valueMember(final JsonObject operation) {
+        final JsonElement value = operation.get("value");
+        if (value == null) {
+            throw new IllegalArgumentException("Patch operation is missing value: " + operation);
+        }
+        return value;
+    }
+
+    /**
+     * JsonElement.deepCopy is not public in the Gson version this library
+     * builds against.
+     */
+    private static JsonElement deepCopy(final JsonElement element) {
+        if (element.isJsonObject()) {
+            final JsonObject copy = new JsonObject();
+            for (final Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                copy.add(member.getKey(), deepCopy(member.getValue()));
+            }
+            return copy;
+        }
+        if (element.isJsonArray()) {
+            final JsonArray copy = new JsonArray();
+            for (final JsonElement item : element.getAsJsonArray()) {
+                copy.add(deepCopy(item));
+            }
+            return copy;
+        }
+        if (element.isJsonNull()) {
+            return JsonNull.INSTANCE;
+        }
+        // primitives are immutable
+        return element;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in nanoseconds. Values are counted in
+ * power of two buckets, so percentiles are reported as the upper bound of the
+ * bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single duration.
+     *
+     * @param nanos the duration in nanoseconds, negative values are treated as zero
+     */
+    public void record(final long nanos) {
+        final long value = nanos < 0 ? 0 : nanos;
+
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax(final TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMean(final TimeUnit unit) {
+        final long samples = count.get();
+        return samples == 0 ? 0 : unit.convert(total.get() / samples, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @param unit the unit to report the value in
+     * @return the upper bound of the bucket that holds the given percentile,
+     *         or 0 if nothing has been recorded.
+     */
+    public long getPercentile(final double percentile, final TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        final long samples = count.get();
+        if (samples == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(samples * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return unit.convert(Math.min(upperBoundOf(i), max.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[count=%d, mean=%dus, p50=%dus, p99=%dus, max=%dus]", getCount(),
+                getMean(TimeUnit.MICROSECONDS), getPercentile(50, TimeUnit.MICROSECONDS),
+                getPercentile(99, TimeUnit.MICROSECONDS), getMax(TimeUnit.MICROSECONDS));
+    }
+
+    private static int bucketOf(final long value) {
+        return value == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private static long upperBoundOf(final int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
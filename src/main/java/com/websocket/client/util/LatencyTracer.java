@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional per message latency tracing. One in every
+ * {@link com.websocket.client.QSocketOptions#setLatencyTraceSampleRate(int)}
+ * inbound messages is stamped when it is read from the socket, before and
+ * after it is parsed, when it is taken off the event queue and after the
+ * listener returns.
+ * The stage durations are aggregated into {@link LatencyHistogram}s per channel.
+ *
+ * When tracing is disabled {@link #startTrace()} costs a single field read.
+ */
+public class LatencyTracer {
+
+    private final int sampleRate;
+    private final AtomicLong received = new AtomicLong();
+    private final ConcurrentMap<String, ChannelLatency> channelLatencies = new ConcurrentHashMap<String, ChannelLatency>();
+
+    /**
+     * @param sampleRate trace one in every sampleRate messages, 0 disables tracing.
+     */
+    public LatencyTracer(final int sampleRate) {
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("Sample rate cannot be negative");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    /**
+     * Called as a message is read from the socket.
+     *
+     * @return a trace to stamp as the message moves through the pipeline, or
+     *         null if this message is not sampled.
+     */
+    public MessageTrace startTrace() {
+        if (sampleRate == 0) {
+            return null;
+        }
+        if (sampleRate > 1 && received.incrementAndGet() % sampleRate != 0) {
+            return null;
+        }
+        return new MessageTrace(this, System.nanoTime());
+    }
+
+    /**
+     * @return the names of all channels that have at least one traced message.
+     */
+    public Set<String> getChannelNames() {
+        return Collections.unmodifiableSet(channelLatencies.keySet());
+    }
+
+    /**
+     * @param channelName the channel name
+     * @return the latency breakdown for the channel, or null if no message on
+     *         it has been traced.
+     */
+    public ChannelLatency getChannelLatency(final String channelName) {
+        return channelLatencies.get(channelName);
+    }
+
+    public void reset() {
+        channelLatencies.clear();
+    }
+
+    void record(final String channelName, final long parseNanos, final long queueNanos, final long listenerNanos,
+                final long totalNanos) {
+        ChannelLatency latency = channelLatencies.get(channelName);
+        if (latency == null) {
+            final ChannelLatency created = new ChannelLatency();
+            latency = channelLatencies.putIfAbsent(channelName, created);
+            if (latency == null) {
+                latency = created;
+            }
+        }
+
+        latency.parse.record(parseNanos);
+        latency.queue.record(queueNanos);
+        latency.listener.record(listenerNanos);
+        latency.total.record(totalNanos);
+    }
+
+    /**
+     * The stage breakdown of traced messages on a single channel.
+     */
+    public static class ChannelLatency {
+        private final LatencyHistogram parse = new LatencyHistogram();
+        private final LatencyHistogram queue = new LatencyHistogram();
+        private final LatencyHistogram listener = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        /**
+         * @return time spent parsing the message, not counting the wait on the inbound queue.
+         */
+        public LatencyHistogram getParse() {
+            return parse;
+        }
+
+        /**
+         * @return time the message waited on the inbound queue and, once parsed, for the event thread.
+         */
+        public LatencyHistogram getQueue() {
+            return queue;
+        }
+
+        /**
+         * @return time spent inside the listener callback.
+         */
+        public LatencyHistogram getListener() {
+            return listener;
+        }
+
+        /**
+         * @return time from the socket read until the listener returned.
+         */
+        public LatencyHistogram getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[parse=%s, queue=%s, listener=%s, total=%s]", parse, queue, listener, total);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+/**
+ * A set of longs held in a single array with open addressing and linear
+ * probing, so a member costs 8 to 16 bytes instead of a boxed Long and a hash
+ * map entry. Zero marks an empty slot, so the value zero itself is tracked by
+ * a flag. Removal shifts the following entries back rather than leaving
+ * tombstones, which keeps lookups short however many members come and go.
+ *
+ * Not thread safe.
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+    // resize once the table is this many sixteenths full
+    private static final int MAX_LOAD_SIXTEENTHS = 11;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    public LongHashSet() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize the number of values to hold without resizing
+     */
+    public LongHashSet(final int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size cannot be negative");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @return true if the value was not already in the set
+     */
+    public boolean add(final long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int slot = slotOf(value);
+        while (slots[slot] != 0) {
+            if (slots[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        size++;
+        if (size * 16L > (mask + 1L) * MAX_LOAD_SIXTEENTHS) {
+            rehash((mask + 1) * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the value was in the set
+     */
+    public boolean remove(final long value) {
+        if (value == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+
+        int slot = slotOf(value);
+        while (slots[slot] != value) {
+            if (slots[slot] == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    public boolean contains(final long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+
+        int slot = slotOf(value);
+        while (slots[slot] != 0) {
+            if (slots[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        containsZero = false;
+    }
+
+    /**
+     * @return the values in no particular order
+     */
+    public long[] toArray() {
+        final long[] values = new long[size];
+        int i = 0;
+        if (containsZero) {
+            values[i++] = 0;
+        }
+        for (final long value : slots) {
+            if (value != 0) {
+                values[i++] = value;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Empties the slot and moves back any later entry of the same probe run
+     * that could otherwise no longer be reached.
+     */
+    private void shiftBack(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            final long value = slots[slot];
+            if (value == 0) {
+                break;
+            }
+            final int home = slotOf(value);
+            // move the entry if its home is not cyclically within (gap, slot]
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                slots[gap] = value;
+                gap = slot;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] old = slots;
+        allocate(capacity);
+        for (final long value : old) {
+            if (value != 0) {
+                int slot = slotOf(value);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = value;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        slots = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slotOf(final long value) {
+        // Fibonacci hashing spreads sequential ids across the table
+        final long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (expectedSize * 16L > capacity * (long) MAX_LOAD_SIXTEENTHS) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects messages seen before by their id, within a time window and in a
+ * fixed amount of memory.
+ *
+ * Ids are recorded in two Bloom filters, one for the current window and one
+ * for the previous window. When the current filter is a window old, or has
+ * taken a window's worth of messages, it becomes the previous one and the
+ * old previous filter is cleared for reuse, so an id is remembered for at
+ * least the lifetime of one filter. Every check costs a fixed number of bit
+ * lookups, whatever the message rate. While messages arrive faster than the
+ * filters were sized for, they fill up and rotate early, and ids are
+ * remembered for less than the window; see {@link #getEffectiveWindowMillis()}.
+ *
+ * The most recent ids are also kept exactly, with the time they were seen, in
+ * a small LRU, and entries older than the window no longer count. A Bloom
+ * filter can report an id it has never seen, at about
+ * {@link #getTargetFalsePositiveRate()}. An id found in the LRU is a
+ * confirmed duplicate. An id found only in the Bloom filters is counted in
+ * {@link #getUnconfirmedDrops()}, which is an upper bound on the false
+ * positives. Such a message is delivered unless configured otherwise, as
+ * dropping it loses about that share of unique messages.
+ *
+ * Not thread safe for checking; the counters can be read from any thread.
+ */
+public class MessageDeduplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageDeduplicator.class);
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+    private static final int RECENT_IDS = 4096;
+
+    private final long windowNanos;
+    private final boolean dropUnconfirmed;
+    private final int capacityPerFilter;
+    private final int bitCount;
+    private final int hashCount;
+    private long[] current;
+    private long[] previous;
+    private int currentInsertions;
+    private long currentStartedAt;
+    private boolean rotatedEarly;
+    // id to the time it was first seen
+    private final Map<String, Long> recent = new LinkedHashMap<String, Long>(RECENT_IDS * 4 / 3 + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+            return size() > RECENT_IDS || System.nanoTime() - eldest.getValue() >= windowNanos;
+        }
+    };
+
+    private volatile long checked;
+    private volatile long drops;
+    private volatile long unconfirmedDrops;
+    private volatile long effectiveWindowNanos;
+
+    /**
+     * @param windowMillis how long an id is remembered, at least
+     * @param maxMessagesPerWindow the number of messages expected within a
+     *            window, which sizes the filters. Up to this many ids are
+     *            remembered for the whole window when more arrive.
+     */
+    public MessageDeduplicator(final long windowMillis, final int maxMessagesPerWindow) {
+        this(windowMillis, maxMessagesPerWindow, false);
+    }
+
+    /**
+     * @param windowMillis how long an id is remembered, at least
+     * @param maxMessagesPerWindow the number of messages expected within a
+     *            window, which sizes the filters
+     * @param dropUnconfirmed whether an id found only in the Bloom filters
+     *            is reported as a duplicate
+     */
+    public MessageDeduplicator(final long windowMillis, final int maxMessagesPerWindow,
+                               final boolean dropUnconfirmed) {
+        if (windowMillis < 1 || maxMessagesPerWindow < 1) {
+            throw new IllegalArgumentException("Deduplication window and capacity must be positive");
+        }
+
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        effectiveWindowNanos = windowNanos;
+        this.dropUnconfirmed = dropUnconfirmed;
+        capacityPerFilter = maxMessagesPerWindow;
+
+        // optimal sizing for the target false positive rate
+        final double bits = -capacityPerFilter * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+        bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(bits)));
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / capacityPerFilter * Math.log(2)));
+        current = new long[(bitCount + 63) / 64];
+        previous = new long[current.length];
+        currentStartedAt = System.nanoTime();
+    }
+
+    /**
+     * Records the id and reports whether it had been seen before.
+     *
+     * @param id a message id
+     * @return true if the message is a duplicate and should be dropped
+     */
+    public boolean isDuplicate(final String id) {
+        checked++;
+        final long now = System.nanoTime();
+        rotateIfDue(now);
+
+        final int h1 = id.hashCode();
+        final int h2 = secondHash(id);
+
+        final Long seenAt = recent.get(id);
+        if (seenAt != null && now - seenAt < windowNanos) {
+            drops++;
+            return true;
+        }
+        recent.put(id, now);
+        if (contains(current, h1, h2) || contains(previous, h1, h2)) {
+            unconfirmedDrops++;
+            if (dropUnconfirmed) {
+                drops++;
+                return true;
+            }
+        }
+
+        add(current, h1, h2);
+        currentInsertions++;
+        return false;
+    }
+
+    /**
+     * @return the number of ids checked
+     */
+    public long getChecked() {
+        return checked;
+    }
+
+    /**
+     * @return the number of messages dropped as duplicates
+     */
+    public long getDrops() {
+        return drops;
+    }
+
+    /**
+     * @return the number of ids found only by the Bloom filters, which
+     *         includes every false positive. They are dropped, and counted in
+     *         {@link #getDrops()} too, unless unconfirmed drops are disabled.
+     */
+    public long getUnconfirmedDrops() {
+        return unconfirmedDrops;
+    }
+
+    /**
+     * @return how long ids were remembered for before the last rotation of
+     *         the filters, in milliseconds. This is the window unless the
+     *         filters filled up early, when it is the time they took to.
+     */
+    public long getEffectiveWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(effectiveWindowNanos);
+    }
+
+    /**
+     * @return the false positive rate the filters are sized for
+     */
+    public double getTargetFalsePositiveRate() {
+        return FALSE_POSITIVE_RATE;
+    }
+
+    /**
+     * @return the memory held by the filters, in bytes
+     */
+    public long getFilterBytes() {
+        return 2L * current.length * 8;
+    }
+
+    private void rotateIfDue(final long now) {
+        final long age = now - currentStartedAt;
+        if (age < windowNanos && currentInsertions < capacityPerFilter) {
+            return;
+        }
+
+        effectiveWindowNanos = Math.min(age, windowNanos);
+        if (age < windowNanos && !rotatedEarly) {
+            rotatedEarly = true;
+            log.warn("Message ids are arriving faster than the deduplication capacity of " + capacityPerFilter
+                    + " per window, so they are remembered for " + TimeUnit.NANOSECONDS.toMillis(age)
+                    + "ms instead of " + TimeUnit.NANOSECONDS.toMillis(windowNanos) + "ms");
+        }
+
+        final long[] cleared = previous;
+        for (int i = 0; i < cleared.length; i++) {
+            cleared[i] = 0;
+        }
+        previous = current;
+        current = cleared;
+        currentInsertions = 0;
+        currentStartedAt = now;
+    }
+
+    private boolean contains(final long[] filter, final int h1, final int h2) {
+        for (int i = 0; i < hashCount; i++) {
+            final int bit = bitIndex(h1, h2, i);
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(final long[] filter, final int h1, final int h2) {
+        for (int i = 0; i < hashCount; i++) {
+            final int bit = bitIndex(h1, h2, i);
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Double hashing, which gives k well spread indexes from two hashes.
+     */
+    private int bitIndex(final int h1, final int h2, final int i) {
+        return (int) (((h1 + (long) i * h2) & 0x7fffffffL) % bitCount);
+    }
+
+    /**
+     * FNV-1a over the chars, independent of String.hashCode.
+     */
+    private static int secondHash(final String id) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x01000193;
+        }
+        // an odd step visits every index when the bit count is a power of two
+        return hash | 1;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+/**
+ * Timestamps taken for a single sampled inbound message as it moves from the
+ * socket to the listener. Created by {@link LatencyTracer#startTrace()}, which
+ * returns null for messages that are not sampled, so callers must null check
+ * before stamping.
+ */
+public class MessageTrace {
+
+    private final LatencyTracer tracer;
+    private final long receivedAt;
+    private long parseStartedAt;
+    private long parsedAt;
+    private long dequeuedAt;
+
+    MessageTrace(final LatencyTracer tracer, final long receivedAt) {
+        this.tracer = tracer;
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * Called when the message is taken off the inbound queue, just before it
+     * is parsed.
+     */
+    public void parsing() {
+        parseStartedAt = System.nanoTime();
+    }
+
+    /**
+     * Called once the message has been parsed and its routing fields are known.
+     */
+    public void parsed() {
+        parsedAt = System.nanoTime();
+    }
+
+    /**
+     * Called on the event thread just before the listener is invoked.
+     */
+    public void dequeued() {
+        dequeuedAt = System.nanoTime();
+    }
+
+    /**
+     * Called after the listener has returned. Records the stage breakdown
+     * against the given channel.
+     */
+    public void completed(final String channelName) {
+        final long returnedAt = System.nanoTime();
+        final long parsed = parsedAt == 0 ? receivedAt : parsedAt;
+        final long parseStarted = parseStartedAt == 0 ? receivedAt : parseStartedAt;
+        final long dequeued = dequeuedAt == 0 ? parsed : dequeuedAt;
+
+        // waiting on the inbound queue counts as queueing, not parsing
+        tracer.record(channelName, parsed - parseStarted, (parseStarted - receivedAt) + (dequeued - parsed),
+                returnedAt - dequeued, returnedAt - receivedAt);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded table of canonical String instances for the small, stable set of
+ * channel and event names the client registers, such as the channels it
+ * subscribes to and the events it binds. The
+ * {@link JsonFieldScanner} looks names up straight from the message text or
+ * bytes, so a known name costs no allocation, and as every lookup returns the
+ * same instance its hash code is already cached and equals succeeds on the
+ * identity check.
+ *
+ * Names are never removed. Names read from the server are only looked up,
+ * never added, so a server sending many distinct names cannot fill it. Once
+ * the table holds its capacity, further names are returned without being
+ * added.
+ *
+ * Lookups are lock free and the table is safe to use from several threads.
+ */
+public class NameTable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<String> slots;
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * @param capacity the maximum number of names held
+     */
+    public NameTable(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Name table capacity must be at least 1");
+        }
+        this.capacity = capacity;
+
+        // keep the load factor at or below one half so probe chains stay short
+        int length = 2;
+        while (length < capacity * 2) {
+            length <<= 1;
+        }
+        slots = new AtomicReferenceArray<String>(length);
+        mask = length - 1;
+    }
+
+    /**
+     * @param name a name
+     * @return the canonical instance equal to name, which is name itself if it
+     *         was added by this call or the table is full
+     */
+    public String intern(final String name) {
+        if (name == null) {
+            return null;
+        }
+
+        final int hash = name.hashCode();
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final String existing = slots.get(i);
+            if (existing == null) {
+                if (!reserve()) {
+                    return name;
+                }
+                if (slots.compareAndSet(i, null, name)) {
+                    return name;
+                }
+                // another thread took the slot, give the reservation back and look at what it added
+                size.decrementAndGet();
+                final String raced = slots.get(i);
+                if (raced.equals(name)) {
+                    return raced;
+                }
+            }
+            else if (existing.hashCode() == hash && existing.equals(name)) {
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * Looks a name up without adding it.
+     *
+     * @param name a name
+     * @return the canonical instance equal to name, or name itself if the
+     *         table does not hold it
+     */
+    public String canonical(final String name) {
+        if (name == null) {
+            return null;
+        }
+        final String existing = lookup(name, 0, name.length());
+        return existing != null ? existing : name;
+    }
+
+    /**
+     * @return the canonical instance equal to json[from, to), or null if the
+     *         table does not hold it
+     */
+    public String lookup(final String json, final int from, final int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + json.charAt(i);
+        }
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final String existing = slots.get(i);
+            if (existing == null) {
+                return null;
+            }
+            if (existing.hashCode() == hash && existing.length() == to - from
+                    && existing.regionMatches(0, json, from, to - from)) {
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * Only ASCII names are resolved from bytes, for others the UTF-8 bytes
+     * would need decoding before they can be hashed like a String.
+     *
+     * @return the canonical instance equal to the UTF-8 bytes json[from, to),
+     *         or null if the table does not hold it
+     */
+    public String lookup(final ByteBuffer json, final int from, final int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            final byte b = json.get(i);
+            if (b < 0) {
+                return null;
+            }
+            hash = 31 * hash + b;
+        }
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final String existing = slots.get(i);
+            if (existing == null) {
+                return null;
+            }
+            if (existing.hashCode() == hash && asciiEquals(existing, json, from, to)) {
+                return existing;
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            final int current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean asciiEquals(final String name, final ByteBuffer json, final int from, final int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != json.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
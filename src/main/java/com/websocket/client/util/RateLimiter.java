@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import com.websocket.client.connection.RateLimitPolicy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets limiting outbound traffic in messages and bytes per second.
+ * Each bucket holds up to one second of its rate.
+ *
+ * A bucket is kept as the single time at which it will next be full, so
+ * taking tokens is one compare-and-set with no lock. Taking tokens that are
+ * not there leaves the bucket untouched and returns how long to wait.
+ *
+ * The wait and drop counters are written by the thread sending messages and
+ * can be read from any thread.
+ */
+public class RateLimiter {
+
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Bucket messages;
+    private final Bucket bytes;
+    private final RateLimitPolicy policy;
+
+    private volatile long delayed;
+    private volatile long totalWaitNanos;
+    private volatile long maxWaitNanos;
+    private volatile long rejected;
+    private volatile long conflated;
+
+    /**
+     * @param messagesPerSecond the message rate, or 0 for no message limit
+     * @param bytesPerSecond the byte rate, or 0 for no byte limit
+     * @param policy what to do with a message over the limit
+     */
+    public RateLimiter(final double messagesPerSecond, final long bytesPerSecond, final RateLimitPolicy policy) {
+        if (messagesPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limits cannot be negative");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Rate limit policy cannot be null");
+        }
+
+        messages = messagesPerSecond > 0 ? new Bucket(messagesPerSecond) : null;
+        bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond) : null;
+        this.policy = policy;
+    }
+
+    public RateLimitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Takes the tokens for one message if they are all available.
+     *
+     * @param message the message about to be sent
+     * @return 0 if the message can be sent now, otherwise the number of
+     *         nanoseconds until it can
+     */
+    public long tryAcquire(final String message) {
+        final long now = System.nanoTime();
+        final long messageCost = messages == null ? 0 : messages.cost(1);
+        if (messages != null) {
+            final long wait = messages.tryTake(messageCost, now);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        if (bytes != null) {
+            final long wait = bytes.tryTake(bytes.cost(utf8Length(message)), now);
+            if (wait > 0) {
+                if (messages != null) {
+                    messages.giveBack(messageCost);
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Takes the tokens for a message that is sent regardless of the limit,
+     * such as a ping, so that later messages make up for it.
+     */
+    public void acquireNow(final String message) {
+        final long now = System.nanoTime();
+        if (messages != null) {
+            messages.take(messages.cost(1), now);
+        }
+        if (bytes != null) {
+            bytes.take(bytes.cost(utf8Length(message)), now);
+        }
+    }
+
+    /**
+     * @return the messages that could be sent now, or Long.MAX_VALUE if
+     *         messages are not limited
+     */
+    public long getAvailableMessages() {
+        return messages == null ? Long.MAX_VALUE : messages.available(System.nanoTime());
+    }
+
+    /**
+     * @return the bytes that could be sent now, or Long.MAX_VALUE if bytes are
+     *         not limited
+     */
+    public long getAvailableBytes() {
+        return bytes == null ? Long.MAX_VALUE : bytes.available(System.nanoTime());
+    }
+
+    /**
+     * @return the number of messages that waited for the limit before being
+     *         sent
+     */
+    public long getDelayed() {
+        return delayed;
+    }
+
+    /**
+     * @return the total time messages waited for the limit, in milliseconds
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+    }
+
+    /**
+     * @return the longest time a message waited for the limit, in
+     *         milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * @return the number of messages rejected with {@link RateLimitPolicy#REJECT}
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of waiting messages replaced by a later one with
+     *         {@link RateLimitPolicy#CONFLATE}
+     */
+    public long getConflated() {
+        return conflated;
+    }
+
+    public void recordWait(final long waitNanos) {
+        delayed++;
+        totalWaitNanos += waitNanos;
+        if (waitNanos > maxWaitNanos) {
+            maxWaitNanos = waitNanos;
+        }
+    }
+
+    public void recordRejected() {
+        rejected++;
+    }
+
+    public void recordConflated() {
+        conflated++;
+    }
+
+    /**
+     * Counts the UTF-8 bytes of a message without encoding it.
+     */
+    static int utf8Length(final String message) {
+        int length = 0;
+        for (int i = 0; i < message.length(); i++) {
+            final char c = message.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * A token bucket kept as the time at which it will next be full. Taking
+     * tokens moves that time forward by their cost, and the bucket is empty
+     * once it is a whole second ahead of now.
+     */
+    private static class Bucket {
+        private final double nanosPerToken;
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+        Bucket(final double tokensPerSecond) {
+            nanosPerToken = ONE_SECOND / tokensPerSecond;
+        }
+
+        long cost(final int tokens) {
+            return (long) Math.ceil(tokens * nanosPerToken);
+        }
+
+        long tryTake(final long cost, final long now) {
+            while (true) {
+                final long current = fullAt.get();
+                final long from = Math.max(current, now);
+                final long excess = from + cost - now - ONE_SECOND;
+                // a message bigger than the whole bucket still goes once the bucket is full
+                if (excess > 0 && from > now) {
+                    return Math.min(excess, from - now);
+                }
+                if (fullAt.compareAndSet(current, from + cost)) {
+                    return 0;
+                }
+            }
+        }
+
+        void take(final long cost, final long now) {
+            while (true) {
+                final long current = fullAt.get();
+                final long from = Math.max(current, now);
+                if (fullAt.compareAndSet(current, from + cost)) {
+                    return;
+                }
+            }
+        }
+
+        void giveBack(final long cost) {
+            fullAt.addAndGet(-cost);
+        }
+
+        long available(final long now) {
+            final long current = fullAt.get();
+            final long used = Math.max(current, now) - now;
+            return Math.max(0, (long) ((ONE_SECOND - used) / nanosPerToken));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lets consumers that cannot keep up hold back reads from the socket. While
+ * any holder has paused the gate, the socket read thread blocks in
+ * {@link #awaitOpen()}, which stops the TCP receive window from being drained
+ * and so pushes back on the server.
+ */
+public class ReadGate {
+
+    private final Set<Object> holders = new HashSet<Object>();
+    private volatile boolean paused;
+
+    /**
+     * Pauses reads until {@link #resume(Object)} is called with the same holder.
+     */
+    public synchronized void pause(final Object holder) {
+        holders.add(holder);
+        paused = true;
+    }
+
+    public synchronized void resume(final Object holder) {
+        if (holders.remove(holder) && holders.isEmpty()) {
+            paused = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Opens the gate regardless of holders, for example because the
+     * connection is closing and the read thread must be allowed to finish.
+     */
+    public synchronized void release() {
+        holders.clear();
+        paused = false;
+        notifyAll();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Called on the socket read thread before a message is handed on. Returns
+     * immediately when the gate is open.
+     */
+    public void awaitOpen() {
+        if (!paused) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                while (paused) {
+                    wait();
+                }
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in submission order, on an underlying executor
+ * which may itself be multi threaded. Used to give each channel an ordered
+ * delivery lane without dedicating a thread to it. If the underlying executor
+ * rejects the lane, for instance because it has been shut down, the tasks
+ * still queued run on the thread that found the rejection rather than being
+ * lost. A lane can be retired once it has drained, after which it takes no
+ * more tasks, so that a lane replacing it never runs alongside it.
+ */
+public class SerialExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    private final Executor executor;
+    // true from the first task being queued until the queue is found empty
+    private boolean active;
+    private boolean retired;
+
+    private final Runnable runNext = new Runnable() {
+        @Override
+        public void run() {
+            final Runnable task;
+            synchronized (SerialExecutor.this) {
+                task = tasks.poll();
+            }
+            try {
+                task.run();
+            }
+            finally {
+                scheduleNext();
+            }
+        }
+    };
+
+    public SerialExecutor(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Cannot create a SerialExecutor with a null executor");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the lane has been retired
+     */
+    @Override
+    public void execute(final Runnable r) {
+        if (!tryExecute(r)) {
+            throw new RejectedExecutionException("Lane has been retired");
+        }
+    }
+
+    /**
+     * @return false if the lane has been retired, in which case the task was
+     *         not queued
+     */
+    public boolean tryExecute(final Runnable r) {
+        synchronized (this) {
+            if (retired) {
+                return false;
+            }
+            tasks.offer(r);
+            if (active) {
+                return true;
+            }
+            active = true;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Called from a task running on this lane. Retires the lane if no task is
+     * queued behind the calling one, which is then the last to run.
+     *
+     * @return true if the lane was retired
+     */
+    public synchronized boolean retireIfDrained() {
+        if (!tasks.isEmpty()) {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
+    /**
+     * Retires the lane if no task is queued or running.
+     *
+     * @return true if the lane was retired
+     */
+    public synchronized boolean retireIfIdle() {
+        if (active) {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
+    private void scheduleNext() {
+        synchronized (this) {
+            if (tasks.isEmpty()) {
+                active = false;
+                return;
+            }
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(runNext);
+        }
+        catch (final RejectedExecutionException e) {
+            runRemaining();
+        }
+    }
+
+    private void runRemaining() {
+        while (true) {
+            final Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+                if (task == null) {
+                    active = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            }
+            catch (final RuntimeException e) {
+                log.warn("Task queued on a rejected executor failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+/**
+ * What happens once received data waiting to be processed reaches the budget
+ * set with
+ * {@link com.websocket.client.QSocketOptions#setInboundBudget(long, SheddingPolicy)}.
+ */
+public enum SheddingPolicy {
+
+    /**
+     * Stop reading from the socket until the data waiting has fallen to half
+     * the budget. Nothing is dropped, but every channel is held up.
+     */
+    PAUSE_READS,
+
+    /**
+     * Drop new events on the channels named with
+     * {@link com.websocket.client.QSocketOptions#setLowPriorityChannels(String...)}
+     * while over budget. Other channels are not affected.
+     */
+    DROP_LOW_PRIORITY,
+
+    /**
+     * Disconnect, reporting the reason to connection listeners.
+     */
+    DISCONNECT
+}
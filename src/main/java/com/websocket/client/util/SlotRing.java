@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of preallocated, reusable slots passed from one producer
+ * thread to one consumer thread without allocating per item. The producer
+ * fills the slot returned by {@link #claim()} and calls {@link #publish()};
+ * the consumer reads the slot returned by {@link #peek()} and hands it back
+ * with {@link #release()}.
+ *
+ * When the ring is full the producer waits for the consumer, so a ring fed
+ * from the socket read thread pushes back on the server instead of growing
+ * without bound.
+ *
+ * @param <E> the slot type
+ */
+public class SlotRing<E> {
+
+    private static final long FULL_WAIT_NANOS = 100000;
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates slots up front for the lifetime of the ring.
+     */
+    public interface SlotFactory<E> {
+        E newSlot();
+    }
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param slotFactory creates each slot once
+     */
+    public SlotRing(final int capacity, final SlotFactory<E> slotFactory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        final int size = sizeFor(capacity);
+        slots = new Object[size];
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = slotFactory.newSlot();
+        }
+    }
+
+    /**
+     * @return the number of slots a ring created with the given capacity has
+     */
+    public static int sizeFor(final int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Producer only. Waits until a slot is free and returns it for filling.
+     * Nothing is visible to the consumer until {@link #publish()} is called.
+     */
+    @SuppressWarnings("unchecked")
+    public E claim() {
+        final long next = tail.get();
+        while (next - head.get() >= slots.length) {
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+        return (E) slots[(int) (next & mask)];
+    }
+
+    /**
+     * Producer only. Makes the last claimed slot visible to the consumer.
+     */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the oldest published slot, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final long current = head.get();
+        return current < tail.get() ? (E) slots[(int) (current & mask)] : null;
+    }
+
+    /**
+     * Consumer only. Returns the slot from {@link #peek()} to the producer.
+     */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
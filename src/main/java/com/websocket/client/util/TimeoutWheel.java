@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel for large numbers of short lived timeouts, such as
+ * acknowledgement deadlines for in flight messages. Scheduling and cancelling
+ * are O(1) and no task is handed to the timer executor per timeout; the wheel
+ * advances one bucket every tick on the shared timer thread and only looks at
+ * the timeouts in that bucket.
+ *
+ * Timeouts never fire early, and up to two ticks late, which is fine for the
+ * second-scale deadlines it is used for.
+ */
+public class TimeoutWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeoutWheel.class);
+    private static final long DEFAULT_TICK_MILLIS = 100;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final Factory factory;
+    private final long tickMillis;
+    private final Bucket[] wheel;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+
+    private long tick;
+    private Future<?> ticker;
+
+    public TimeoutWheel(final Factory factory) {
+        this(factory, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    public TimeoutWheel(final Factory factory, final long tickMillis, final int wheelSize) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1ms");
+        }
+        if (wheelSize < 1) {
+            throw new IllegalArgumentException("Wheel size must be at least 1");
+        }
+
+        this.factory = factory;
+        this.tickMillis = tickMillis;
+        wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Schedules a task to run on the timer thread once the delay has passed.
+     *
+     * @param task the task to run, it must not block
+     * @param delayMillis the delay in milliseconds
+     * @return a handle which can be used to cancel the timeout
+     */
+    public Timeout schedule(final Runnable task, final long delayMillis) {
+        final Timeout timeout = new Timeout(task, Math.max(1, (delayMillis + tickMillis - 1) / tickMillis));
+        added.offer(timeout);
+        ensureTicking();
+        return timeout;
+    }
+
+    private synchronized void ensureTicking() {
+        if (ticker == null || ticker.isDone()) {
+            ticker = factory.getTimers().scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    advance();
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs on the timer thread only, so the buckets need no locking.
+     */
+    private void advance() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (!timeout.isCancelled()) {
+                // one extra tick, as the timeout may have been added just before this one
+                final long deadline = tick + timeout.ticks + 1;
+                timeout.remainingRounds = timeout.ticks / wheel.length;
+                wheel[(int) (deadline % wheel.length)].add(timeout);
+            }
+        }
+
+        tick++;
+        final Bucket bucket = wheel[(int) (tick % wheel.length)];
+        timeout = bucket.head;
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                bucket.remove(timeout);
+            }
+            else if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                try {
+                    timeout.expire();
+                }
+                catch (final RuntimeException e) {
+                    // an exception would stop the wheel from ever ticking again
+                    log.error("Timeout task threw an exception", e);
+                }
+            }
+            else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A handle on a scheduled timeout.
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long ticks;
+        private volatile boolean cancelled;
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(final Runnable task, final long ticks) {
+            this.task = task;
+            this.ticks = ticks;
+        }
+
+        /**
+         * Cancels the timeout. The task will not run unless it already has.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            cancelled = true;
+            task.run();
+        }
+    }
+
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(final Timeout timeout) {
+            if (head == null) {
+                head = tail = timeout;
+            }
+            else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(final Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            }
+            else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client;
+
+import org.junit.Assume;
+
+/**
+ * Timing tests take a while and their results depend on the machine, so
+ * they only run when asked for, with
+ * <code>./gradlew test -Dqsocket.benchmarks=true</code>. Correctness tests
+ * in the same classes always run.
+ */
+public final class Benchmarks {
+
+    public static final String PROPERTY = "qsocket.benchmarks";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Skips the calling test unless benchmarks were asked for.
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Set -D" + PROPERTY + "=true to run benchmarks", Boolean.getBoolean(PROPERTY));
+    }
+}
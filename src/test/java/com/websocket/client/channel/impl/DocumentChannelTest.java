@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.channel.impl;
+
+import com.google.gson.JsonElement;
+import com.websocket.client.QSocketOptions;
+import com.websocket.client.channel.ChannelEventListener;
+import com.websocket.client.channel.DocumentEventListener;
+import com.websocket.client.connection.websocket.WebSocketConnection;
+import com.websocket.client.util.Factory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a channel never hands its listener a document that a patch
+ * was only partly applied to. JSON Patch operations are applied one by one,
+ * so when one fails the document is dropped, and later patches are ignored
+ * until the next snapshot.
+ */
+public class DocumentChannelTest {
+
+    private static final String CHANNEL = "book";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Factory factory = new Factory();
+    // what the listener saw, as "event document"
+    private final BlockingQueue<String> changes = new LinkedBlockingQueue<String>();
+    private WebSocketConnection connection;
+
+    @Before
+    public void subscribe() {
+        final QSocketOptions options = new QSocketOptions();
+        connection = (WebSocketConnection) factory.getConnection(options);
+        final ChannelManager channelManager = factory.getChannelManager();
+        channelManager.setConnection(connection);
+        channelManager.subscribeTo(factory.newPublicChannel(CHANNEL), new DocumentListener());
+    }
+
+    @After
+    public void shutDown() {
+        factory.shutdownThreads();
+    }
+
+    @Test
+    public void failedPatchDropsTheDocumentUntilTheNextSnapshot() throws InterruptedException {
+        receive("snapshot", "{\"a\":1,\"list\":[1,2]}");
+        assertEquals("snapshot {\"a\":1,\"list\":[1,2]}", nextChange());
+
+        // the first two operations apply before the test fails
+        receive("patch", "[{\"op\":\"add\",\"path\":\"/b\",\"value\":2},"
+                + "{\"op\":\"remove\",\"path\":\"/list/0\"},"
+                + "{\"op\":\"test\",\"path\":\"/a\",\"value\":99}]");
+        receive("patch", "{\"c\":3}");
+        receive("snapshot", "{\"a\":2}");
+        receive("patch", "[{\"op\":\"add\",\"path\":\"/list\",\"value\":[]}]");
+
+        assertEquals("snapshot {\"a\":2}", nextChange());
+        assertEquals("patch {\"a\":2,\"list\":[]}", nextChange());
+        assertNull(changes.poll());
+    }
+
+    @Test
+    public void patchesAfterAFailedRemoveAreIgnored() throws InterruptedException {
+        receive("snapshot", "{\"a\":1}");
+        receive("patch", "[{\"op\":\"replace\",\"path\":\"/a\",\"value\":2},{\"op\":\"remove\",\"path\":\"/b\"}]");
+        receive("patch", "{\"a\":3}");
+        receive("snapshot", "{\"a\":4}");
+
+        assertEquals("snapshot {\"a\":1}", nextChange());
+        assertEquals("snapshot {\"a\":4}", nextChange());
+        assertNull(changes.poll());
+    }
+
+    private void receive(final String event, final String message) {
+        // as the socket read thread does
+        connection.onMessage("{\"eventType\":\"" + event + "\",\"channel\":\"" + CHANNEL + "\",\"message\":"
+                + message + "}");
+    }
+
+    private String nextChange() throws InterruptedException {
+        return changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private class DocumentListener implements ChannelEventListener, DocumentEventListener {
+        @Override
+        public void onDocumentChanged(final String channelName, final String eventName, final JsonElement change,
+                                      final JsonElement document) {
+            changes.add(eventName + " " + document);
+        }
+
+        @Override
+        public void onEvent(final String channelName, final String eventName, final String data) {
+        }
+
+        @Override
+        public void onSubscriptionSucceeded(final String channelName) {
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.websocket.client.Benchmarks;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the codecs generated for {@link QSocketEvent} classes with
+ * reflective Gson binding: the decoded values always, and, when
+ * {@link Benchmarks} are enabled, decode throughput once both are warm and
+ * the median latency of the first decode, which includes resolving the
+ * adapter.
+ */
+public class PayloadCodecBenchmarkTest {
+
+    private static final int WARMUP_DECODES = 20000;
+    private static final int DECODES = 50000;
+    private static final int ROUNDS = 5;
+    private static final int FIRST_DECODE_SAMPLES = 15;
+    // a generated codec only pays off if it is not slower than reflection
+    private static final double MIN_THROUGHPUT_RATIO = 0.9;
+    // loading the codec class may cost a little more than reflecting on the fields
+    private static final double MAX_FIRST_DECODE_RATIO = 2;
+
+    private static final String QUOTE = "{\"symbol\":\"ABC\",\"bid\":10.25,\"ask\":10.27,\"ts\":1476870000123,"
+            + "\"halted\":false,\"venue\":null,\"levels\":[{\"price\":10.25,\"size\":300},"
+            + "{\"price\":10.24,\"size\":1200},{\"price\":10.23,\"size\":500}],\"unknown\":{\"a\":[1,2]}}";
+
+    @QSocketEvent
+    static class Quote {
+        String symbol;
+        double bid;
+        double ask;
+        @SerializedName("ts")
+        private long timestamp;
+        Boolean halted;
+        String venue;
+        List<Level> levels;
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        void setTimestamp(final long timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    @QSocketEvent
+    static class VenueQuote extends Quote {
+        String mic;
+    }
+
+    @QSocketEvent
+    static class Level {
+        double price;
+        int size;
+    }
+
+    @Test
+    public void generatedCodecDecodesLikeGson() throws IOException {
+        final PayloadCodecs codecs = new PayloadCodecs(codecGson());
+        assertTrue(codecs.hasGeneratedCodec(Quote.class));
+        assertTrue(codecs.hasGeneratedCodec(Level.class));
+
+        final Quote generated = codecs.getAdapter(Quote.class).fromJson(QUOTE);
+        final Quote reflective = new Gson().fromJson(QUOTE, Quote.class);
+        assertQuotesEqual(reflective, generated);
+        assertEquals(1476870000123L, generated.getTimestamp());
+
+        final Gson gson = new Gson();
+        final String encoded = codecs.getAdapter(Quote.class).toJson(generated);
+        assertEquals(gson.toJson(reflective), gson.toJson(gson.fromJson(encoded, Quote.class)));
+    }
+
+    @Test
+    public void generatedCodecReadsInheritedFields() throws IOException {
+        final PayloadCodecs codecs = new PayloadCodecs(codecGson());
+        assertTrue(codecs.hasGeneratedCodec(VenueQuote.class));
+        final String json = QUOTE.replace("\"venue\":null", "\"venue\":\"XNAS\",\"mic\":\"XNGS\"");
+
+        final VenueQuote generated = codecs.getAdapter(VenueQuote.class).fromJson(json);
+        final VenueQuote reflective = new Gson().fromJson(json, VenueQuote.class);
+        assertQuotesEqual(reflective, generated);
+        assertEquals("XNAS", generated.venue);
+        assertEquals("XNGS", generated.mic);
+
+        final Gson gson = new Gson();
+        final String encoded = codecs.getAdapter(VenueQuote.class).toJson(generated);
+        assertEquals(gson.toJson(reflective), gson.toJson(gson.fromJson(encoded, VenueQuote.class)));
+    }
+
+    @Test
+    public void decodeThroughput() throws IOException {
+        Benchmarks.assumeEnabled();
+        final TypeAdapter<Quote> generated = new PayloadCodecs(codecGson()).getAdapter(Quote.class);
+        final TypeAdapter<Quote> reflective = new Gson().getAdapter(Quote.class);
+
+        decode(generated, WARMUP_DECODES);
+        decode(reflective, WARMUP_DECODES);
+
+        // alternate and keep the best round of each, so that neither gains from running last
+        long generatedNanos = Long.MAX_VALUE;
+        long reflectiveNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            generatedNanos = Math.min(generatedNanos, decode(generated, DECODES));
+            reflectiveNanos = Math.min(reflectiveNanos, decode(reflective, DECODES));
+        }
+        final long generatedPerSecond = DECODES * 1000000000L / generatedNanos;
+        final long reflectivePerSecond = DECODES * 1000000000L / reflectiveNanos;
+        assertTrue(String.format("Decodes per second: generated %,d, reflective Gson %,d", generatedPerSecond,
+                reflectivePerSecond), generatedPerSecond >= reflectivePerSecond * MIN_THROUGHPUT_RATIO);
+    }
+
+    @Test
+    public void firstDecodeLatency() throws Exception {
+        Benchmarks.assumeEnabled();
+        // each sample loads the classes afresh, and the two sides take turns going first
+        final long[] generatedNanos = new long[FIRST_DECODE_SAMPLES];
+        final long[] reflectiveNanos = new long[FIRST_DECODE_SAMPLES];
+        for (int i = 0; i < FIRST_DECODE_SAMPLES; i++) {
+            if (i % 2 == 0) {
+                generatedNanos[i] = firstDecodeInFreshLoader(true);
+                reflectiveNanos[i] = firstDecodeInFreshLoader(false);
+            }
+            else {
+                reflectiveNanos[i] = firstDecodeInFreshLoader(false);
+                generatedNanos[i] = firstDecodeInFreshLoader(true);
+            }
+        }
+
+        final long generated = median(generatedNanos);
+        final long reflective = median(reflectiveNanos);
+        assertTrue(String.format("Median first decode: generated %,dus, reflective Gson %,dus", generated / 1000,
+                reflective / 1000), generated <= reflective * MAX_FIRST_DECODE_RATIO);
+    }
+
+    private static long firstDecodeInFreshLoader(final boolean generated) throws Exception {
+        final FreshClassLoader loader = new FreshClassLoader();
+        final Method time = loader.loadClass(FirstDecode.class.getName()).getMethod("time", boolean.class);
+        return (Long) time.invoke(null, generated);
+    }
+
+    private static long median(final long[] samples) {
+        final long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static Gson codecGson() {
+        return new GsonBuilder().registerTypeAdapterFactory(PayloadCodecs.FACTORY).create();
+    }
+
+    private static long decode(final TypeAdapter<Quote> adapter, final int decodes) throws IOException {
+        double checksum = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < decodes; i++) {
+            checksum += adapter.fromJson(QUOTE).levels.get(1).price;
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertEquals(10.24 * decodes, checksum, 0.001 * decodes);
+        return elapsed;
+    }
+
+    /**
+     * Times the first decode of a quote in a class loader of its own, after
+     * loading what both sides share: Gson's reader and the codec lookup.
+     */
+    public static class FirstDecode {
+        public static long time(final boolean generated) throws IOException {
+            new Gson().fromJson("{}", Object.class);
+            final PayloadCodecs codecs = new PayloadCodecs(codecGson());
+            final Gson gson = new Gson();
+
+            final long start = System.nanoTime();
+            if (generated) {
+                codecs.getAdapter(Quote.class).fromJson(QUOTE);
+            }
+            else {
+                gson.getAdapter(Quote.class).fromJson(QUOTE);
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Loads the test, library and Gson classes again, so that nothing the
+     * first decode needs is loaded or compiled yet. Logging is shared, as
+     * neither side logs.
+     */
+    private static class FreshClassLoader extends URLClassLoader {
+        FreshClassLoader() {
+            super(new URL[] {codeSource(PayloadCodecBenchmarkTest.class), codeSource(PayloadCodecs.class),
+                    codeSource(Gson.class)}, ClassLoader.getSystemClassLoader().getParent());
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("org.slf4j.")) {
+                return PayloadCodecBenchmarkTest.class.getClassLoader().loadClass(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        private static URL codeSource(final Class<?> type) {
+            return type.getProtectionDomain().getCodeSource().getLocation();
+        }
+    }
+
+    private static void assertQuotesEqual(final Quote expected, final Quote actual) {
+        assertEquals(expected.symbol, actual.symbol);
+        assertEquals(expected.bid, actual.bid, 0);
+        assertEquals(expected.ask, actual.ask, 0);
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.halted, actual.halted);
+        assertEquals(expected.venue, actual.venue);
+        assertEquals(expected.levels.size(), actual.levels.size());
+        for (int i = 0; i < expected.levels.size(); i++) {
+            assertEquals(expected.levels.get(i).price, actual.levels.get(i).price, 0);
+            assertEquals(expected.levels.get(i).size, actual.levels.get(i).size);
+        }
+    }
+}
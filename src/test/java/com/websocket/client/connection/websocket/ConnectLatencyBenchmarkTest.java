@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.Benchmarks;
+import com.websocket.client.QSocketOptions;
+import com.websocket.client.util.DnsCache;
+import com.websocket.client.util.Factory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times connects to a host that resolves to two addresses, each served by a
+ * {@link StandInRelay} in front of the same {@link StandInServer}. The
+ * address listed first holds every connection back for a while, as an
+ * unreachable or distant one would. Tried one after another, each connect
+ * waits out the slow address; raced, the fast address wins once the attempt
+ * delay is up. Only runs when {@link Benchmarks} are enabled.
+ */
+public class ConnectLatencyBenchmarkTest {
+
+    private static final String HOST = "localhost";
+    private static final String SLOW_ADDRESS = "127.0.0.2";
+    private static final String FAST_ADDRESS = "127.0.0.1";
+    private static final long SLOW_DELAY_MILLIS = 500;
+    private static final int WARMUP_CONNECTS = 5;
+    private static final int CONNECTS = 30;
+
+    private StandInServer server;
+    private StandInRelay slowRelay;
+    private StandInRelay fastRelay;
+
+    @Before
+    public void startServer() throws Exception {
+        Benchmarks.assumeEnabled();
+        server = StandInServer.startLocal();
+        slowRelay = StandInRelay.startTls(SLOW_ADDRESS, server, SLOW_DELAY_MILLIS);
+        fastRelay = StandInRelay.startTls(FAST_ADDRESS, slowRelay.port(), server, 0);
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        if (fastRelay != null) {
+            fastRelay.stop();
+        }
+        if (slowRelay != null) {
+            slowRelay.stop();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void racingAddressesBeatsTryingThemInTurn() throws Exception {
+        final long[] inTurn = timeConnects(options().setConnectionAttemptDelay(0));
+        // the default attempt delay
+        final long[] raced = timeConnects(options());
+
+        assertTrue("Connects took " + describe(inTurn) + " trying addresses in turn and " + describe(raced)
+                + " racing them", percentile(raced, 50) < percentile(inTurn, 50));
+    }
+
+    private QSocketOptions options() throws Exception {
+        return new QSocketOptions().setEncrypted(true).setHost(HOST + ":" + slowRelay.port())
+                .setTrustStore(StandInRelay.keyStore());
+    }
+
+    private long[] timeConnects(final QSocketOptions options) throws Exception {
+        final Reconnects reconnects = new Reconnects((WebSocketConnection) new TwoAddressFactory()
+                .getConnection(options));
+        reconnects.time(WARMUP_CONNECTS);
+        return reconnects.time(CONNECTS);
+    }
+
+    private static String describe(final long[] times) {
+        return "p50 " + percentile(times, 50) / 1000 + " us, p90 " + percentile(times, 90) / 1000 + " us";
+    }
+
+    private static long percentile(final long[] times, final int percentile) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[(sorted.length - 1) * percentile / 100];
+    }
+
+    /**
+     * Resolves every host to the slow address, then the fast one.
+     */
+    private static class TwoAddressFactory extends Factory {
+        private final DnsCache dnsCache = new DnsCache(0) {
+            @Override
+            public InetAddress[] resolve(final String host) throws UnknownHostException {
+                return new InetAddress[] {InetAddress.getByName(SLOW_ADDRESS), InetAddress.getByName(FAST_ADDRESS)};
+            }
+        };
+
+        @Override
+        public synchronized DnsCache getDnsCache() {
+            return dnsCache;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.Benchmarks;
+import com.websocket.client.QSocketOptions;
+import com.websocket.client.channel.ChannelEventListener;
+import com.websocket.client.channel.impl.ChannelImpl;
+import com.websocket.client.channel.impl.ChannelManager;
+import com.websocket.client.util.DispatchMode;
+import com.websocket.client.util.Factory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the {@link DispatchMode}s by feeding messages in as the socket
+ * read thread does and timing their delivery to listeners: throughput across
+ * several channels with listeners that return straight away, and how long
+ * events on a channel wait while another channel's listener is slow. Checks
+ * always that a channel's events keep their order across a restart of the
+ * channel threads; the timings only run when {@link Benchmarks} are enabled.
+ */
+public class DispatchModeBenchmarkTest {
+
+    private static final int CHANNELS = 8;
+    private static final int THROUGHPUT_MESSAGES = 50000;
+    private static final int LATENCY_MESSAGES = 200;
+    private static final long SLOW_LISTENER_MILLIS = 1;
+    private static final int EXECUTOR_THREADS = 4;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final List<Factory> factories = new ArrayList<Factory>();
+    private ExecutorService dispatchExecutor;
+
+    @After
+    public void shutDown() {
+        for (final Factory factory : factories) {
+            factory.shutdownThreads();
+        }
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void laneKeepsChannelOrderAcrossThreadShutdown() throws InterruptedException {
+        final Factory factory = factory(new QSocketOptions().setDispatchMode(DispatchMode.PER_CHANNEL));
+        final int tasks = 200;
+        final List<Integer> order = new ArrayList<Integer>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            final int index = i;
+            factory.queueOnChannelThread("prices", new Runnable() {
+                @Override
+                public void run() {
+                    if (running.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    try {
+                        Thread.sleep(0, 100000);
+                    }
+                    catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    synchronized (order) {
+                        order.add(index);
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+            if (i == tasks / 2) {
+                // as a disconnect does, while the first half is still being delivered
+                factory.shutdownThreads();
+            }
+        }
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < tasks; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void lanesKeepSlowChannelsFromHoldingUpOthers() throws InterruptedException {
+        Benchmarks.assumeEnabled();
+        dispatchExecutor = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+        final QSocketOptions[] modes = {
+                new QSocketOptions(),
+                new QSocketOptions().setDispatchMode(DispatchMode.DIRECT),
+                new QSocketOptions().setDispatchMode(DispatchMode.PER_CHANNEL),
+                new QSocketOptions().setDispatchExecutor(dispatchExecutor)
+        };
+
+        final StringBuilder results = new StringBuilder();
+        final long[] waits = new long[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            final long perSecond = throughput(modes[i]);
+            final long[] sorted = waitsBehindSlowChannel(modes[i]);
+            waits[i] = sorted[sorted.length / 2];
+            results.append(String.format("%s: %,d events/s, waited p50 %,dus p99 %,dus; ",
+                    modes[i].getDispatchMode(), perSecond, waits[i] / 1000, sorted[sorted.length * 99 / 100] / 1000));
+        }
+
+        final long singleThread = waits[0];
+        assertTrue(results.toString(), waits[2] < singleThread && waits[3] < singleThread);
+    }
+
+    /**
+     * @return events delivered per second across {@link #CHANNELS} channels
+     */
+    private long throughput(final QSocketOptions options) throws InterruptedException {
+        final Factory factory = factory(options);
+        final WebSocketConnection connection = connection(factory, options);
+        final AtomicLong delivered = new AtomicLong();
+        final String[] messages = new String[CHANNELS];
+        for (int i = 0; i < CHANNELS; i++) {
+            subscribe(factory, "channel-" + i, new Listener() {
+                @Override
+                public void onEvent(final String channelName, final String eventName, final String data) {
+                    delivered.incrementAndGet();
+                }
+            });
+            messages[i] = message("channel-" + i, "{\"bid\":10.25}");
+        }
+
+        // the first round warms up every thread and code path
+        for (int round = 0; round < 2; round++) {
+            final long expected = delivered.get() + THROUGHPUT_MESSAGES;
+            final long start = System.nanoTime();
+            for (int i = 0; i < THROUGHPUT_MESSAGES; i++) {
+                connection.onMessage(messages[i % CHANNELS]);
+            }
+            awaitCount(delivered, expected);
+            if (round == 1) {
+                return THROUGHPUT_MESSAGES * 1000000000L / (System.nanoTime() - start);
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Alternates events for a channel whose listener is slow with events for
+     * one whose listener is not.
+     *
+     * @return how long each event for the fast channel took to reach its
+     *         listener, sorted, in nanoseconds
+     */
+    private long[] waitsBehindSlowChannel(final QSocketOptions options) throws InterruptedException {
+        final Factory factory = factory(options);
+        final WebSocketConnection connection = connection(factory, options);
+        final long[] sentAt = new long[LATENCY_MESSAGES];
+        final long[] waits = new long[LATENCY_MESSAGES];
+        final AtomicInteger fast = new AtomicInteger();
+        final AtomicInteger slow = new AtomicInteger();
+        subscribe(factory, "slow", new Listener() {
+            @Override
+            public void onEvent(final String channelName, final String eventName, final String data) {
+                try {
+                    Thread.sleep(SLOW_LISTENER_MILLIS);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slow.incrementAndGet();
+            }
+        });
+        subscribe(factory, "fast", new Listener() {
+            @Override
+            public void onEvent(final String channelName, final String eventName, final String data) {
+                final int index = fast.get();
+                waits[index] = System.nanoTime() - sentAt[index];
+                fast.set(index + 1);
+            }
+        });
+
+        for (int i = 0; i < LATENCY_MESSAGES; i++) {
+            connection.onMessage(message("slow", "0"));
+            sentAt[i] = System.nanoTime();
+            connection.onMessage(message("fast", "0"));
+        }
+        awaitCount(fast, LATENCY_MESSAGES);
+        awaitCount(slow, LATENCY_MESSAGES);
+        Arrays.sort(waits);
+        return waits;
+    }
+
+    private Factory factory(final QSocketOptions options) {
+        final Factory factory = new Factory();
+        factories.add(factory);
+        factory.getConnection(options);
+        return factory;
+    }
+
+    private static WebSocketConnection connection(final Factory factory, final QSocketOptions options) {
+        final WebSocketConnection connection = (WebSocketConnection) factory.getConnection(options);
+        factory.getChannelManager().setConnection(connection);
+        return connection;
+    }
+
+    private static void subscribe(final Factory factory, final String channelName, final Listener listener) {
+        final ChannelManager channelManager = factory.getChannelManager();
+        final ChannelImpl channel = factory.newPublicChannel(channelName);
+        channelManager.subscribeTo(channel, listener);
+    }
+
+    private static String message(final String channelName, final String message) {
+        return "{\"eventType\":\"200\",\"channel\":\"" + channelName + "\",\"message\":" + message + "}";
+    }
+
+    private static void awaitCount(final Number count, final long expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (count.longValue() < expected) {
+            assertTrue("Delivered " + count + " of " + expected, System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private abstract static class Listener implements ChannelEventListener {
+        @Override
+        public void onSubscriptionSucceeded(final String channelName) {
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.QSocketOptions;
+import com.websocket.client.channel.ChannelEventListener;
+import com.websocket.client.channel.EventPayload;
+import com.websocket.client.channel.PayloadEventListener;
+import com.websocket.client.channel.impl.ChannelImpl;
+import com.websocket.client.channel.impl.ChannelManager;
+import com.websocket.client.util.DispatchMode;
+import com.websocket.client.util.Factory;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a message stays within a per message allocation budget on its
+ * way from the socket read thread to a listener: through the inbound queue,
+ * the inbound thread's routing in {@link WebSocketConnection} and the
+ * {@link ChannelManager}, and the channel's delivery to a no-op listener.
+ * The test thread plays the socket read thread, and allocations are counted
+ * on every thread. Runs on the JVM only, where HotSpot exposes per thread
+ * allocation counters.
+ */
+public class InboundAllocationTest {
+
+    private static final int MESSAGES = 20000;
+    private static final long BYTES_PER_MESSAGE_BUDGET = 256;
+    private static final String CHANNEL = "prices";
+
+    private static final String TEXT_MESSAGE = "{\"eventType\":\"200\",\"channel\":\"prices\","
+            + "\"message\":{\"symbol\":\"ABC\",\"bid\":10.25,\"ask\":10.27,\"levels\":[1,2,3,4,5]}}";
+    private static final byte[] BINARY_MESSAGE = TEXT_MESSAGE.getBytes();
+
+    private final Factory factory = new Factory();
+    private final AtomicLong delivered = new AtomicLong();
+    private WebSocketConnection connection;
+
+    @After
+    public void shutDown() {
+        factory.shutdownThreads();
+    }
+
+    @Test
+    public void textMessagesStayWithinAllocationBudget() throws Exception {
+        assertWithinBudget(new QSocketOptions(), false);
+    }
+
+    @Test
+    public void binaryMessagesStayWithinAllocationBudget() throws Exception {
+        assertWithinBudget(new QSocketOptions(), true);
+    }
+
+    @Test
+    public void perChannelLanesStayWithinAllocationBudget() throws Exception {
+        assertWithinBudget(new QSocketOptions().setDispatchMode(DispatchMode.PER_CHANNEL), false);
+    }
+
+    private void assertWithinBudget(final QSocketOptions options, final boolean binary) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final Method allocatedBytes = allocatedBytesMethod(threads);
+        Assume.assumeTrue(allocatedBytes != null);
+        subscribe(options);
+
+        // warm up so that class loading, JIT compilation and the first use of each thread are not counted
+        pump(MESSAGES, binary);
+
+        final long before = allocatedBytes(threads, allocatedBytes);
+        pump(MESSAGES, binary);
+        final long after = allocatedBytes(threads, allocatedBytes);
+
+        final long perMessage = (after - before) / MESSAGES;
+        assertTrue("Allocated " + perMessage + " bytes per message", perMessage <= BYTES_PER_MESSAGE_BUDGET);
+    }
+
+    private void subscribe(final QSocketOptions options) {
+        connection = (WebSocketConnection) factory.getConnection(options);
+        final ChannelManager channelManager = factory.getChannelManager();
+        channelManager.setConnection(connection);
+        final ChannelImpl channel = factory.newPublicChannel(CHANNEL);
+        channelManager.subscribeTo(channel, new CountingListener());
+    }
+
+    /**
+     * Feeds the messages in as the socket read thread does and waits until
+     * the listener has had them all.
+     */
+    private void pump(final int messages, final boolean binary) throws InterruptedException {
+        final long expected = delivered.get() + messages;
+        for (int i = 0; i < messages; i++) {
+            if (binary) {
+                connection.onMessage(ByteBuffer.wrap(BINARY_MESSAGE));
+            }
+            else {
+                connection.onMessage(TEXT_MESSAGE);
+            }
+        }
+        while (delivered.get() < expected) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, delivered.get());
+    }
+
+    private class CountingListener implements ChannelEventListener, PayloadEventListener {
+        @Override
+        public void onEvent(final String channelName, final String eventName, final EventPayload payload) {
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public void onEvent(final String channelName, final String eventName, final String data) {
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public void onSubscriptionSucceeded(final String channelName) {
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by every live thread
+     */
+    private static long allocatedBytes(final ThreadMXBean threads, final Method allocatedBytes) throws Exception {
+        long total = 0;
+        for (final long bytes : (long[]) allocatedBytes.invoke(threads, (Object) threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    /**
+     * getThreadAllocatedBytes lives on com.sun.management.ThreadMXBean, which
+     * is looked up reflectively as it is not available on every VM.
+     */
+    private static Method allocatedBytesMethod(final ThreadMXBean threads) {
+        try {
+            final Class<?> extension = Class.forName("com.sun.management.ThreadMXBean");
+            if (!extension.isInstance(threads)) {
+                return null;
+            }
+            return extension.getMethod("getThreadAllocatedBytes", long[].class);
+        }
+        catch (final Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.util.Factory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the inbound queue keeps draining whatever its handler throws.
+ */
+public class InboundQueueTest {
+
+    private static final int CAPACITY = 4;
+
+    private final Factory factory = new Factory();
+
+    @After
+    public void shutDown() {
+        factory.shutdownThreads();
+    }
+
+    @Test(timeout = 10000)
+    public void drainingContinuesAfterHandlerThrowsAnError() throws InterruptedException {
+        final AtomicInteger handled = new AtomicInteger();
+        final InboundQueue queue = new InboundQueue(CAPACITY, 0, factory, new InboundQueue.Handler() {
+            @Override
+            public void onInbound(final InboundQueue.Slot slot) {
+                if ("fail".equals(slot.text)) {
+                    throw new AssertionError("listener assertion");
+                }
+                handled.incrementAndGet();
+            }
+        });
+
+        queue.offer("fail", null, null);
+        // more than the ring holds, so the offers wait on a stalled drain for good
+        for (int i = 0; i < 4 * CAPACITY; i++) {
+            queue.offer("ok", null, null);
+        }
+        while (handled.get() < 4 * CAPACITY) {
+            Thread.sleep(1);
+        }
+        assertEquals(4 * CAPACITY, handled.get());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.connection.ConnectionEventListener;
+import com.websocket.client.connection.ConnectionState;
+import com.websocket.client.connection.ConnectionStateChange;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Connects and disconnects one connection over and over, timing each
+ * connect from asking to connect until the server has confirmed it.
+ */
+class Reconnects implements ConnectionEventListener {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final WebSocketConnection connection;
+    private final BlockingQueue<ConnectionState> states = new LinkedBlockingQueue<ConnectionState>();
+
+    Reconnects(final WebSocketConnection connection) {
+        this.connection = connection;
+        connection.bind(ConnectionState.CONNECTED, this);
+        connection.bind(ConnectionState.DISCONNECTED, this);
+    }
+
+    /**
+     * @return how long each connect took, in nanoseconds
+     */
+    long[] time(final int connects) throws InterruptedException {
+        final long[] times = new long[connects];
+        for (int i = 0; i < connects; i++) {
+            final long start = System.nanoTime();
+            connection.connect();
+            assertEquals(ConnectionState.CONNECTED, states.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            times[i] = System.nanoTime() - start;
+
+            connection.disconnect();
+            assertEquals(ConnectionState.DISCONNECTED, states.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        return times;
+    }
+
+    @Override
+    public void onConnectionStateChange(final ConnectionStateChange change) {
+        states.offer(change.getCurrentState());
+    }
+
+    @Override
+    public void onError(final String message, final String code, final Exception e) {
+    }
+}
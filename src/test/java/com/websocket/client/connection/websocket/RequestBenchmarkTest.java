@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.Benchmarks;
+import com.websocket.client.QSocketOptions;
+import com.websocket.client.connection.ConnectionEventListener;
+import com.websocket.client.connection.ConnectionState;
+import com.websocket.client.connection.ConnectionStateChange;
+import com.websocket.client.connection.ResponseFuture;
+import com.websocket.client.util.Factory;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs requests against a local {@link StandInServer}: their round trip
+ * over the open socket, compared with opening a connection for every
+ * request as a separate HTTP call would, and many requests in flight at
+ * once each getting its own response. Only runs when {@link Benchmarks} are
+ * enabled.
+ */
+public class RequestBenchmarkTest {
+
+    private static final int WARMUP_REQUESTS = 500;
+    private static final int REQUESTS = 2000;
+    private static final int WARMUP_CONNECTIONS = 20;
+    private static final int CONNECTIONS = 100;
+    private static final int PIPELINED_REQUESTS = 5000;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long RESPONSE_TIMEOUT = TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+
+    private final Factory factory = new Factory();
+    private StandInServer server;
+    private WebSocketConnection connection;
+
+    @Before
+    public void startServer() throws Exception {
+        Benchmarks.assumeEnabled();
+        server = StandInServer.startLocal();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        if (connection != null) {
+            connection.disconnect();
+        }
+        if (server != null) {
+            server.stop();
+        }
+        factory.shutdownThreads();
+    }
+
+    @Test
+    public void requestOverTheSocketBeatsAConnectionPerRequest() throws Exception {
+        connect();
+        timeRequests(WARMUP_REQUESTS);
+        final long overSocket = median(timeRequests(REQUESTS));
+
+        timeConnectionsPerRequest(WARMUP_CONNECTIONS);
+        final long perConnection = median(timeConnectionsPerRequest(CONNECTIONS));
+
+        assertTrue("Median request took " + overSocket / 1000 + " us over the socket and " + perConnection / 1000
+                + " us with a connection of its own", overSocket < perConnection);
+    }
+
+    @Test
+    public void pipelinedRequestsEachGetTheirOwnResponse() throws Exception {
+        connect();
+        final ResponseFuture[] futures = new ResponseFuture[PIPELINED_REQUESTS];
+        final long start = System.nanoTime();
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = connection.request("echo", "request-" + i, RESPONSE_TIMEOUT);
+        }
+        for (int i = 0; i < futures.length; i++) {
+            final String response = futures[i].get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertTrue("Request " + i + " got " + response, response.contains("\"request-" + i + "\""));
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertTrue(PIPELINED_REQUESTS + " pipelined requests took " + elapsed / 1000000 + " ms",
+                elapsed < TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS));
+    }
+
+    private void connect() throws InterruptedException {
+        connection = (WebSocketConnection) factory.getConnection(new QSocketOptions().setHost(server.hostAndPort()));
+        final CountDownLatch connected = new CountDownLatch(1);
+        connection.bind(ConnectionState.CONNECTED, new ConnectionEventListener() {
+            @Override
+            public void onConnectionStateChange(final ConnectionStateChange change) {
+                connected.countDown();
+            }
+
+            @Override
+            public void onError(final String message, final String code, final Exception e) {
+            }
+        });
+        connection.connect();
+        assertTrue("Could not connect to the stand-in server", connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private long[] timeRequests(final int requests) throws Exception {
+        final long[] times = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            final long start = System.nanoTime();
+            connection.request("echo", "request-" + i, RESPONSE_TIMEOUT).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    /**
+     * Opens a WebSocket of its own for every request, waits for the server
+     * to confirm it, sends the request and closes it once answered.
+     */
+    private long[] timeConnectionsPerRequest(final int requests) throws Exception {
+        final long[] times = new long[requests];
+        final URI uri = new URI("ws://" + server.hostAndPort());
+        for (int i = 0; i < requests; i++) {
+            final long start = System.nanoTime();
+            final OneShotClient client = new OneShotClient(uri, "request-" + i);
+            client.connect();
+            assertTrue("No response to request " + i, client.answered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            times[i] = System.nanoTime() - start;
+            client.close();
+        }
+        return times;
+    }
+
+    private static long median(final long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static class OneShotClient extends WebSocketClient {
+        private final String payload;
+        private final CountDownLatch answered = new CountDownLatch(1);
+        private boolean sent;
+
+        OneShotClient(final URI uri, final String payload) {
+            super(uri);
+            this.payload = payload;
+        }
+
+        @Override
+        public void onOpen(final ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(final String message) {
+            if (!sent) {
+                // the connection is confirmed, as it is for the client
+                sent = true;
+                send("{\"command\":\"request\",\"correlationId\":\"1\",\"method\":\"echo\",\"payload\":\""
+                        + payload + "\"}");
+            }
+            else {
+                answered.countDown();
+            }
+        }
+
+        @Override
+        public void onClose(final int code, final String reason, final boolean remote) {
+        }
+
+        @Override
+        public void onError(final Exception ex) {
+        }
+    }
+}
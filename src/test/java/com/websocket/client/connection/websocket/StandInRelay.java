@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+/**
+ * Accepts connections on an address of its own and relays them to a
+ * {@link StandInServer}, the way a load balancer would. It can terminate TLS
+ * with the certificate in the test key store, which the client trusts
+ * through {@link com.websocket.client.QSocketOptions#setTrustStore(KeyStore)},
+ * and can hold each connection back for a while before answering it, to
+ * stand in for a slow address.
+ */
+class StandInRelay implements Runnable {
+
+    private static final String KEY_STORE = "/standin.jks";
+    private static final char[] KEY_STORE_PASSWORD = "standin".toCharArray();
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ServerSocket serverSocket;
+    private final InetSocketAddress target;
+    private final long delayMillis;
+
+    private StandInRelay(final ServerSocket serverSocket, final InetSocketAddress target, final long delayMillis) {
+        this.serverSocket = serverSocket;
+        this.target = target;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Starts relaying plain connections to the server.
+     *
+     * @param host the address to listen on, any loopback address will do
+     * @param delayMillis how long to hold each connection back before
+     *            relaying it
+     */
+    static StandInRelay start(final String host, final StandInServer server, final long delayMillis)
+            throws IOException {
+        return start(new ServerSocket(), host, 0, server, delayMillis);
+    }
+
+    /**
+     * Starts relaying connections to the server, with TLS terminated here.
+     * As the relay only reads from a connection once its delay is up, the
+     * delay holds back the TLS handshake too. It speaks TLS 1.2, where a
+     * resumed session skips the certificate and the key exchange, as most
+     * servers the client meets still do.
+     */
+    static StandInRelay startTls(final String host, final StandInServer server, final long delayMillis)
+            throws IOException, GeneralSecurityException {
+        return startTls(host, 0, server, delayMillis);
+    }
+
+    /**
+     * Starts relaying connections to the server on the given port, so that
+     * relays on several addresses can stand in for one host name.
+     *
+     * @param port the port to listen on, 0 for any free one
+     */
+    static StandInRelay startTls(final String host, final int port, final StandInServer server,
+                                 final long delayMillis) throws IOException, GeneralSecurityException {
+        final SSLServerSocket serverSocket = (SSLServerSocket) serverTlsContext().getServerSocketFactory()
+                .createServerSocket();
+        serverSocket.setEnabledProtocols(new String[] {"TLSv1.2"});
+        return start(serverSocket, host, port, server, delayMillis);
+    }
+
+    private static StandInRelay start(final ServerSocket serverSocket, final String host, final int port,
+                                      final StandInServer server, final long delayMillis) throws IOException {
+        serverSocket.bind(new InetSocketAddress(host, port));
+        final StandInRelay relay = new StandInRelay(serverSocket, server.getAddress(), delayMillis);
+        startDaemon(relay);
+        return relay;
+    }
+
+    /**
+     * @return the key store holding the relay's key and certificate, for the
+     *         client to trust
+     */
+    static KeyStore keyStore() throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream in = StandInRelay.class.getResourceAsStream(KEY_STORE);
+        try {
+            keyStore.load(in, KEY_STORE_PASSWORD);
+        }
+        finally {
+            in.close();
+        }
+        return keyStore;
+    }
+
+    private static SSLContext serverTlsContext() throws IOException, GeneralSecurityException {
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory
+                .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore(), KEY_STORE_PASSWORD);
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    /**
+     * @return the host and port to connect to, as given to
+     *         {@link com.websocket.client.QSocketOptions#setHost(String)}
+     */
+    String hostAndPort() {
+        return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    void stop() {
+        closeQuietly(serverSocket);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final Socket client = serverSocket.accept();
+                startDaemon(new Runnable() {
+                    @Override
+                    public void run() {
+                        relay(client);
+                    }
+                });
+            }
+        }
+        catch (final IOException e) {
+            // stopped
+        }
+    }
+
+    private void relay(final Socket client) {
+        try {
+            Thread.sleep(delayMillis);
+            final Socket upstream = new Socket(target.getAddress(), target.getPort());
+            client.setTcpNoDelay(true);
+            upstream.setTcpNoDelay(true);
+            startDaemon(new Pump(upstream, client));
+            new Pump(client, upstream).run();
+        }
+        catch (final IOException e) {
+            closeQuietly(client);
+        }
+        catch (final InterruptedException e) {
+            closeQuietly(client);
+        }
+    }
+
+    private static void startDaemon(final Runnable runnable) {
+        final Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (final IOException e) {
+            // nothing more to do
+        }
+    }
+
+    /**
+     * Copies one direction of a relayed connection, and closes both sides
+     * once either has closed.
+     */
+    private static class Pump implements Runnable {
+        private final Socket from;
+        private final Socket to;
+
+        Pump(final Socket from, final Socket to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                final InputStream in = from.getInputStream();
+                final OutputStream out = to.getOutputStream();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            }
+            catch (final IOException e) {
+                // the other direction closed first, or the TLS handshake failed
+            }
+            finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.google.gson.Gson;
+import com.websocket.client.util.Constants;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for the QSocket server, for benchmarks that need a real
+ * socket. It confirms every connection as the server does and answers each
+ * request with its own payload.
+ */
+class StandInServer extends WebSocketServer {
+
+    private static final Gson GSON = new Gson();
+    private static final String CONNECTION_ESTABLISHED = "{\"" + Constants.EVENT_TYPE + "\":\"101\",\""
+            + Constants.MESSAGE + "\":\"{}\"}";
+    private static final String RESPONSE_EVENT = "106";
+    private static final long START_TIMEOUT = 5000;
+    private static final long WRITE_DEMAND_INTERVAL_MICROS = 1000;
+
+    // Java-WebSocket before 1.3.5 can lose a write demanded while the
+    // selector finishes the previous write, leaving a response unsent until
+    // the client sends something else, so pending writes are demanded again
+    private final ScheduledExecutorService writeDemands = Executors.newSingleThreadScheduledExecutor();
+
+    StandInServer(final InetSocketAddress address) {
+        super(address);
+    }
+
+    /**
+     * Starts a stand-in on a free port of the loopback address and waits
+     * until it accepts connections.
+     */
+    static StandInServer startLocal() throws IOException, InterruptedException {
+        final StandInServer server = new StandInServer(new InetSocketAddress("127.0.0.1", freePort()));
+        server.start();
+        server.awaitListening();
+        return server;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        writeDemands.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                demandPendingWrites();
+            }
+        }, WRITE_DEMAND_INTERVAL_MICROS, WRITE_DEMAND_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public void stop() throws IOException, InterruptedException {
+        writeDemands.shutdownNow();
+        super.stop();
+    }
+
+    static int freePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return the host and port to connect to, as given to
+     *         {@link com.websocket.client.QSocketOptions#setHost(String)}
+     */
+    String hostAndPort() {
+        return getAddress().getHostString() + ":" + getAddress().getPort();
+    }
+
+    @Override
+    public void onOpen(final WebSocket conn, final ClientHandshake handshake) {
+        conn.send(CONNECTION_ESTABLISHED);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void onMessage(final WebSocket conn, final String message) {
+        final Map request = GSON.fromJson(message, Map.class);
+        if (!Constants.REQUEST.equals(request.get(Constants.COMMAND))) {
+            return;
+        }
+        final Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put(Constants.EVENT_TYPE, RESPONSE_EVENT);
+        response.put(Constants.CORRELATION_ID, request.get(Constants.CORRELATION_ID));
+        response.put(Constants.MESSAGE, request.get(Constants.PAYLOAD));
+        conn.send(GSON.toJson(response));
+    }
+
+    @Override
+    public void onClose(final WebSocket conn, final int code, final String reason, final boolean remote) {
+    }
+
+    @Override
+    public void onError(final WebSocket conn, final Exception ex) {
+    }
+
+    // only called by later versions of Java-WebSocket, so not relied on to tell when the server is up
+    public void onStart() {
+    }
+
+    private void demandPendingWrites() {
+        for (final WebSocket conn : connections()) {
+            if (conn.isOpen() && conn.hasBufferedData()) {
+                try {
+                    onWriteDemand(conn);
+                }
+                catch (final RuntimeException e) {
+                    // closed since it was checked
+                }
+            }
+        }
+    }
+
+    private void awaitListening() throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (true) {
+            try {
+                new Socket(getAddress().getAddress(), getAddress().getPort()).close();
+                return;
+            }
+            catch (final IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+}
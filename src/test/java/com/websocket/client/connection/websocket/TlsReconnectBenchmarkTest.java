@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.connection.websocket;
+
+import com.websocket.client.Benchmarks;
+import com.websocket.client.QSocketOptions;
+import com.websocket.client.util.Factory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times reconnects to a local {@link StandInServer} through a
+ * {@link StandInRelay} that terminates TLS, from asking to
+ * connect until the server has confirmed the connection. Reconnecting
+ * through the same {@link Factory} reuses its SSLContext and resumes the
+ * previous TLS session; a new Factory for every connect does a full
+ * handshake each time, as every connect used to. Only runs when
+ * {@link Benchmarks} are enabled.
+ */
+public class TlsReconnectBenchmarkTest {
+
+    private static final int WARMUP_CONNECTS = 20;
+    private static final int CONNECTS = 100;
+
+    private StandInServer server;
+    private StandInRelay relay;
+    private QSocketOptions options;
+
+    @Before
+    public void startServer() throws Exception {
+        Benchmarks.assumeEnabled();
+        server = StandInServer.startLocal();
+        relay = StandInRelay.startTls("127.0.0.1", server, 0);
+        options = new QSocketOptions().setEncrypted(true).setHost(relay.hostAndPort())
+                .setTrustStore(StandInRelay.keyStore());
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        if (relay != null) {
+            relay.stop();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void resumedReconnectBeatsFullHandshake() throws Exception {
+        final Factory factory = new Factory();
+        final Reconnects reconnects = new Reconnects((WebSocketConnection) factory.getConnection(options));
+        reconnects.time(WARMUP_CONNECTS);
+        for (int i = 0; i < WARMUP_CONNECTS; i++) {
+            fullHandshake();
+        }
+
+        // alternate the two, so neither gets the better half of the run
+        final long[] resumed = new long[CONNECTS];
+        final long[] full = new long[CONNECTS];
+        for (int i = 0; i < CONNECTS; i++) {
+            resumed[i] = reconnects.time(1)[0];
+            full[i] = fullHandshake();
+        }
+
+        assertTrue("Median reconnect took " + median(resumed) / 1000 + " us resuming the session and "
+                + median(full) / 1000 + " us with a full handshake", median(resumed) < median(full));
+    }
+
+    private long fullHandshake() throws Exception {
+        final Factory factory = new Factory();
+        return new Reconnects((WebSocketConnection) factory.getConnection(options)).time(1)[0];
+    }
+
+    private static long median(final long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
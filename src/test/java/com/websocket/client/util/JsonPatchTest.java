@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the examples from RFC 6902 appendix A and RFC 7396 appendix A, and
+ * cases around array indexes, pointer escapes and moves. A patch that fails
+ * is checked for the document it leaves behind, as operations before the
+ * failing one stay applied.
+ */
+@RunWith(Parameterized.class)
+public class JsonPatchTest {
+
+    private static final boolean MERGE = true;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> cases() {
+        return Arrays.asList(
+                // RFC 6902 appendix A
+                patch("A.1 add an object member", "{'foo':'bar'}",
+                        "[{'op':'add','path':'/baz','value':'qux'}]",
+                        "{'baz':'qux','foo':'bar'}"),
+                patch("A.2 add an array element", "{'foo':['bar','baz']}",
+                        "[{'op':'add','path':'/foo/1','value':'qux'}]",
+                        "{'foo':['bar','qux','baz']}"),
+                patch("A.3 remove an object member", "{'baz':'qux','foo':'bar'}",
+                        "[{'op':'remove','path':'/baz'}]",
+                        "{'foo':'bar'}"),
+                patch("A.4 remove an array element", "{'foo':['bar','qux','baz']}",
+                        "[{'op':'remove','path':'/foo/1'}]",
+                        "{'foo':['bar','baz']}"),
+                patch("A.5 replace a value", "{'baz':'qux','foo':'bar'}",
+                        "[{'op':'replace','path':'/baz','value':'boo'}]",
+                        "{'baz':'boo','foo':'bar'}"),
+                patch("A.6 move a value", "{'foo':{'bar':'baz','waldo':'fred'},'qux':{'corge':'grault'}}",
+                        "[{'op':'move','from':'/foo/waldo','path':'/qux/thud'}]",
+                        "{'foo':{'bar':'baz'},'qux':{'corge':'grault','thud':'fred'}}"),
+                patch("A.7 move an array element", "{'foo':['all','grass','cows','eat']}",
+                        "[{'op':'move','from':'/foo/1','path':'/foo/3'}]",
+                        "{'foo':['all','cows','eat','grass']}"),
+                patch("A.8 test a value", "{'baz':'qux','foo':['a',2,'c']}",
+                        "[{'op':'test','path':'/baz','value':'qux'},{'op':'test','path':'/foo/1','value':2}]",
+                        "{'baz':'qux','foo':['a',2,'c']}"),
+                failingPatch("A.9 test a value, error", "{'baz':'qux'}",
+                        "[{'op':'test','path':'/baz','value':'bar'}]",
+                        "{'baz':'qux'}"),
+                patch("A.10 add a nested member object", "{'foo':'bar'}",
+                        "[{'op':'add','path':'/child','value':{'grandchild':{}}}]",
+                        "{'foo':'bar','child':{'grandchild':{}}}"),
+                patch("A.11 ignore unrecognized elements", "{'foo':'bar'}",
+                        "[{'op':'add','path':'/baz','value':'qux','xyz':123}]",
+                        "{'foo':'bar','baz':'qux'}"),
+                failingPatch("A.12 add to a nonexistent target", "{'foo':'bar'}",
+                        "[{'op':'add','path':'/baz/bat','value':'qux'}]",
+                        "{'foo':'bar'}"),
+                patch("A.14 ~ escape ordering", "{'/':9,'~1':10}",
+                        "[{'op':'test','path':'/~01','value':10}]",
+                        "{'/':9,'~1':10}"),
+                failingPatch("A.15 compare strings and numbers", "{'/':9,'~1':10}",
+                        "[{'op':'test','path':'/~01','value':'10'}]",
+                        "{'/':9,'~1':10}"),
+                patch("A.16 add an array value", "{'foo':['bar']}",
+                        "[{'op':'add','path':'/foo/-','value':['abc','def']}]",
+                        "{'foo':['bar',['abc','def']]}"),
+
+                // array indexes
+                patch("insert at the front", "{'a':[1,2]}",
+                        "[{'op':'add','path':'/a/0','value':0}]",
+                        "{'a':[0,1,2]}"),
+                patch("insert at the end by index", "{'a':[1,2]}",
+                        "[{'op':'add','path':'/a/2','value':3}]",
+                        "{'a':[1,2,3]}"),
+                patch("append to an empty array", "{'a':[]}",
+                        "[{'op':'add','path':'/a/-','value':1},{'op':'add','path':'/a/-','value':2}]",
+                        "{'a':[1,2]}"),
+                failingPatch("insert past the end", "{'a':[1,2]}",
+                        "[{'op':'add','path':'/a/3','value':3}]",
+                        "{'a':[1,2]}"),
+                failingPatch("index with a leading zero", "{'a':[1,2]}",
+                        "[{'op':'replace','path':'/a/01','value':3}]",
+                        "{'a':[1,2]}"),
+                failingPatch("remove the end marker", "{'a':[1,2]}",
+                        "[{'op':'remove','path':'/a/-'}]",
+                        "{'a':[1,2]}"),
+
+                // pointer escapes
+                patch("add a member with ~1 for /", "{}",
+                        "[{'op':'add','path':'/a~1b','value':1}]",
+                        "{'a/b':1}"),
+                patch("replace a member with ~0 for ~", "{'m~n':1}",
+                        "[{'op':'replace','path':'/m~0n','value':2}]",
+                        "{'m~n':2}"),
+                patch("~01 is ~1, not /", "{'~1':1,'/':2}",
+                        "[{'op':'remove','path':'/~01'}]",
+                        "{'/':2}"),
+
+                // moves and copies
+                failingPatch("move into a child", "{'a':{'b':1}}",
+                        "[{'op':'move','from':'/a','path':'/a/c'}]",
+                        "{'a':{'b':1}}"),
+                patch("move to a sibling sharing a name prefix", "{'a':1}",
+                        "[{'op':'move','from':'/a','path':'/ab'}]",
+                        "{'ab':1}"),
+                patch("move to the same place", "{'a':{'b':1}}",
+                        "[{'op':'move','from':'/a','path':'/a'}]",
+                        "{'a':{'b':1}}"),
+                patch("copied values are independent", "{'a':{'b':1}}",
+                        "[{'op':'copy','from':'/a','path':'/c'},{'op':'replace','path':'/c/b','value':2}]",
+                        "{'a':{'b':1},'c':{'b':2}}"),
+                patch("replace the whole document", "{'a':1}",
+                        "[{'op':'replace','path':'','value':[1]}]",
+                        "[1]"),
+
+                // not atomic: the document stays patched up to the failing operation
+                failingPatch("operations before a failed test stay applied", "{'a':1,'list':[1,2]}",
+                        "[{'op':'add','path':'/b','value':2},{'op':'remove','path':'/list/0'},"
+                                + "{'op':'test','path':'/a','value':99},{'op':'add','path':'/c','value':3}]",
+                        "{'a':1,'list':[2],'b':2}"),
+                failingPatch("unknown operation after a replace", "{'a':1}",
+                        "[{'op':'replace','path':'/a','value':2},{'op':'frobnicate','path':'/a'}]",
+                        "{'a':2}"),
+
+                // RFC 7396 appendix A
+                merge("{'a':'b'}", "{'a':'c'}", "{'a':'c'}"),
+                merge("{'a':'b'}", "{'b':'c'}", "{'a':'b','b':'c'}"),
+                merge("{'a':'b'}", "{'a':null}", "{}"),
+                merge("{'a':'b','b':'c'}", "{'a':null}", "{'b':'c'}"),
+                merge("{'a':['b']}", "{'a':'c'}", "{'a':'c'}"),
+                merge("{'a':'c'}", "{'a':['b']}", "{'a':['b']}"),
+                merge("{'a':{'b':'c'}}", "{'a':{'b':'d','c':null}}", "{'a':{'b':'d'}}"),
+                merge("{'a':[{'b':'c'}]}", "{'a':[1]}", "{'a':[1]}"),
+                merge("['a','b']", "['c','d']", "['c','d']"),
+                merge("{'a':'b'}", "['c']", "['c']"),
+                merge("{'a':'foo'}", "null", "null"),
+                merge("{'a':'foo'}", "'bar'", "'bar'"),
+                merge("{'e':null}", "{'a':1}", "{'e':null,'a':1}"),
+                merge("[1,2]", "{'a':'b','c':null}", "{'a':'b'}"),
+                merge("{}", "{'a':{'bb':{'ccc':null}}}", "{'a':{'bb':{}}}"));
+    }
+
+    private final String name;
+    private final boolean merge;
+    private final String document;
+    private final String patch;
+    private final String expected;
+    private final boolean fails;
+
+    public JsonPatchTest(final String name, final boolean merge, final String document, final String patch,
+                         final String expected, final boolean fails) {
+        this.name = name;
+        this.merge = merge;
+        this.document = document;
+        this.patch = patch;
+        this.expected = expected;
+        this.fails = fails;
+    }
+
+    @Test
+    public void appliesAsSpecified() {
+        final JsonElement target = json(document);
+        JsonElement result = target;
+        try {
+            result = merge ? JsonPatch.merge(target, json(patch)) : JsonPatch.apply(target, json(patch).getAsJsonArray());
+            if (fails) {
+                fail("Expected " + name + " to fail, patched to " + result);
+            }
+        }
+        catch (final IllegalArgumentException e) {
+            if (!fails) {
+                throw e;
+            }
+        }
+        assertEquals(json(expected), result);
+    }
+
+    private static Object[] patch(final String name, final String document, final String patch,
+                                  final String expected) {
+        return new Object[] {name, !MERGE, document, patch, expected, false};
+    }
+
+    /**
+     * @param left the document as the failed patch leaves it
+     */
+    private static Object[] failingPatch(final String name, final String document, final String patch,
+                                         final String left) {
+        return new Object[] {name, !MERGE, document, patch, left, true};
+    }
+
+    private static Object[] merge(final String target, final String patch, final String expected) {
+        return new Object[] {"merge " + patch + " into " + target, MERGE, target, patch, expected, false};
+    }
+
+    /**
+     * Single quotes keep the tables readable; none of the values contain one.
+     */
+    private static JsonElement json(final String text) {
+        return new JsonParser().parse(text.replace('\'', '"'));
+    }
+}
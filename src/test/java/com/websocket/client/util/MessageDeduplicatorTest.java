@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Nihas Kalam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.websocket.client.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how long the deduplicator remembers ids as its filters rotate, and
+ * that its filters stay close to their target false positive rate.
+ */
+public class MessageDeduplicatorTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final int CAPACITY = 10000;
+    // more than the recent ids held exactly, so older ids are only in the filters
+    private static final int BEYOND_RECENT = CAPACITY / 2;
+
+    @Test
+    public void idsOutliveARotationByTime() throws InterruptedException {
+        final long window = 100;
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(window, CAPACITY, true);
+        assertFalse(deduplicator.isDuplicate("first"));
+
+        Thread.sleep(window + window / 2);
+        assertFalse(deduplicator.isDuplicate("second"));
+        assertTrue("Remembered for a window after the filter rotated", deduplicator.isDuplicate("first"));
+
+        Thread.sleep(window + window / 2);
+        assertFalse(deduplicator.isDuplicate("third"));
+        assertFalse("Forgotten two rotations later", deduplicator.isDuplicate("first"));
+        assertEquals(window, deduplicator.getEffectiveWindowMillis());
+    }
+
+    @Test
+    public void earlyRotationShrinksTheEffectiveWindow() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(HOUR, CAPACITY, true);
+        assertEquals(HOUR, deduplicator.getEffectiveWindowMillis());
+
+        checkNew(deduplicator, "id-", 0, CAPACITY);
+        // the filter is full, so this rotates it long before the window is up
+        checkNew(deduplicator, "id-", CAPACITY, BEYOND_RECENT);
+        assertTrue(deduplicator.getEffectiveWindowMillis() < HOUR);
+
+        final long unconfirmed = deduplicator.getUnconfirmedDrops();
+        for (int i = 0; i < 100; i++) {
+            assertTrue("Still in the previous filter", deduplicator.isDuplicate("id-" + i));
+        }
+        assertEquals(unconfirmed + 100, deduplicator.getUnconfirmedDrops());
+
+        // fills the current filter and rotates it, so the one holding the first ids is cleared
+        checkNew(deduplicator, "next-", 0, CAPACITY);
+        for (int i = 100; i < 200; i++) {
+            assertFalse("Forgotten after two early rotations", deduplicator.isDuplicate("id-" + i));
+        }
+    }
+
+    @Test
+    public void unconfirmedHitsAreDeliveredByDefault() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(HOUR, CAPACITY);
+        checkNew(deduplicator, "id-", 0, CAPACITY + BEYOND_RECENT);
+        final long unconfirmed = deduplicator.getUnconfirmedDrops();
+        final long drops = deduplicator.getDrops();
+
+        assertFalse("Only in the filters", deduplicator.isDuplicate("id-0"));
+        assertEquals(unconfirmed + 1, deduplicator.getUnconfirmedDrops());
+        assertTrue("Among the recent ids", deduplicator.isDuplicate("id-" + (CAPACITY + BEYOND_RECENT - 1)));
+        assertEquals(drops + 1, deduplicator.getDrops());
+    }
+
+    @Test
+    public void falsePositivesStayNearTheTargetRate() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(HOUR, CAPACITY);
+        // fill the previous filter, then check as many unique ids against it while filling the current one
+        checkNew(deduplicator, "seen-", 0, CAPACITY);
+        final long before = deduplicator.getUnconfirmedDrops();
+        checkNew(deduplicator, "fresh-", 0, CAPACITY);
+
+        final double rate = (double) (deduplicator.getUnconfirmedDrops() - before) / CAPACITY;
+        assertTrue("False positive rate " + rate, rate <= 2 * deduplicator.getTargetFalsePositiveRate());
+        assertEquals(0, deduplicator.getDrops());
+    }
+
+    /**
+     * Checks ids that have never been seen, which are only reported as
+     * duplicates when unconfirmed hits are dropped.
+     */
+    private static void checkNew(final MessageDeduplicator deduplicator, final String prefix, final int from,
+                                 final int count) {
+        for (int i = from; i < from + count; i++) {
+            deduplicator.isDuplicate(prefix + i);
+        }
+    }
+}